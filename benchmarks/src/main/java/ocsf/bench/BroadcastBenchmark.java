@@ -0,0 +1,74 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import ocsf.client.AbstractClient;
+import ocsf.server.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+* Measures <code>AbstractServer.sendToAllClients</code>: one chat line
+* broadcast to every client, each connected over the loopback
+* interface and reading on its own thread.<p>
+*
+* As in <code>SendToClientBenchmark</code>, distinct messages are
+* cycled and every stream is reset once they have all been used.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BroadcastBenchmark
+{
+  /**
+   * The number of clients receiving each broadcast.
+   */
+  @Param({"10", "100", "1000"})
+  public int clients;
+
+  private Loopback.SinkServer server;
+  private List<AbstractClient> connected;
+  private ConnectionToClient[] connections;
+  private String[] messages;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException
+  {
+    server = new Loopback.SinkServer(Loopback.freePort());
+    server.setBacklog(clients);
+    server.listen();
+    connected = Loopback.connect(server, clients);
+    connections = Loopback.connections(server);
+
+    messages = new String[SendToClientBenchmark.DISTINCT];
+    for (int i=0; i<messages.length; i++)
+      messages[i] = "user" + i + "> the quick brown fox jumps over the lazy dog";
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    Loopback.shutdown(server, connected);
+  }
+
+  @Benchmark
+  public void sendToAllClients() throws IOException
+  {
+    server.sendToAllClients(messages[next]);
+    if (++next == messages.length)
+    {
+      next = 0;
+      for (ConnectionToClient connection : connections)
+        connection.forceResetAfterSend();
+    }
+  }
+}
@@ -0,0 +1,95 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.bench;
+
+import java.io.IOException;
+import java.lang.invoke.*;
+import java.util.concurrent.TimeUnit;
+import ocsf.client.AbstractClient;
+import ocsf.server.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+* Measures <code>EchoServer.handleMessageFromClient</code>: parsing a
+* line from a logged-in client and acting on it. A chat line is
+* broadcast and a repeated <code>#login</code> is answered with an
+* error, so both include one write to the single loopback client.<p>
+*
+* <code>EchoServer</code> is in the default package, which a
+* benchmark cannot import; it is loaded by name and its protected
+* handler is called through a method handle, which costs no more than
+* a direct call once compiled.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EchoServerBenchmark
+{
+  /**
+   * The line received from the client.
+   */
+  @Param({"hello world", "   a chat line with surrounding blanks   ",
+    "#login someone"})
+  public String line;
+
+  private ObservableServer server;
+  private AbstractClient client;
+  private ConnectionToClient connection;
+  private MethodHandle handler;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Throwable
+  {
+    Class<?> echoServer = Class.forName("EchoServer");
+    server = (ObservableServer)echoServer.getConstructor(int.class)
+      .newInstance(Loopback.freePort());
+    server.listen();
+
+    client = new Loopback.DiscardClient(server.getPort());
+    client.openConnection();
+    client.sendToServer("#login bench");
+    while (server.getNumberOfClients() == 0
+      || ((ConnectionToClient)server.getClientConnections()[0])
+        .getInfo("loginId") == null)
+      Loopback.pause();
+    connection = (ConnectionToClient)server.getClientConnections()[0];
+
+    handler = MethodHandles.privateLookupIn(echoServer, MethodHandles.lookup())
+      .findVirtual(echoServer, "handleMessageFromClient",
+        MethodType.methodType(void.class, Object.class, ConnectionToClient.class))
+      .bindTo(server);
+  }
+
+  /**
+   * Every reply is a new string, so the stream is reset after each
+   * iteration to keep its handle table from growing across the run.
+   */
+  @TearDown(Level.Iteration)
+  public void resetStream() throws IOException
+  {
+    connection.forceResetAfterSend();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    try
+    {
+      client.closeConnection();
+      server.close();
+    }
+    catch (IOException e) {}
+  }
+
+  @Benchmark
+  public void handleMessageFromClient() throws Throwable
+  {
+    handler.invokeExact((Object)line, connection);
+  }
+}
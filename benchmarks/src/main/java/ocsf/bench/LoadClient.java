@@ -0,0 +1,69 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.bench;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+import ocsf.client.AbstractClient;
+
+/**
+* A <code> LoadClient </code> is the connection of one simulated user
+* of the <code>LoadGenerator</code>. It goes through the real
+* <code>AbstractClient</code> code path, but has no console and never
+* exits the virtual machine.<p>
+*
+* Its messages are timestamped, so every broadcast it receives
+* records its end-to-end latency in the client's own histogram.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+class LoadClient extends AbstractClient
+{
+  /**
+   * The user of this connection.
+   */
+  private final LoadUser user;
+
+  /**
+   * Constructs the connection of a simulated user. The connection is
+   * not opened.
+   *
+   * @param loginId the user's login ID.
+   * @param host the server's host name.
+   * @param port the server's port.
+   * @param received counts the chat lines received.
+   * @param errors counts the errors received and connections lost.
+   */
+  LoadClient(String loginId, String host, int port, LongAdder received,
+    LongAdder errors)
+  {
+    super(host, port);
+    setTimestamping(true);
+    user = new LoadUser(loginId, received, errors)
+      {
+        void sendToServer(Object msg) throws IOException
+        {
+          LoadClient.this.sendToServer(msg);
+        }
+      };
+  }
+
+  /**
+   * @return the user of this connection.
+   */
+  LoadUser getUser()
+  {
+    return user;
+  }
+
+  protected void handleMessageFromServer(Object msg)
+  {
+    user.messageReceived(msg);
+  }
+
+  protected void connectionException(Exception exception)
+  {
+    user.lost();
+  }
+}
@@ -0,0 +1,77 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.bench;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+import ocsf.client.*;
+
+/**
+* A <code> LoadGateway </code> is a connection shared by several
+* simulated users of the <code>LoadGenerator</code>, each in its own
+* logical session, as a gateway process would do.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+class LoadGateway extends MultiplexedClient
+{
+  /**
+   * Counts the chat lines received by all users.
+   */
+  private final LongAdder received;
+
+  /**
+   * Counts the errors received and sessions lost by all users.
+   */
+  private final LongAdder errors;
+
+  /**
+   * Constructs a gateway connection. The connection is not opened.
+   *
+   * @param host the server's host name.
+   * @param port the server's port.
+   * @param received counts the chat lines received.
+   * @param errors counts the errors received and sessions lost.
+   */
+  LoadGateway(String host, int port, LongAdder received, LongAdder errors)
+  {
+    super(host, port);
+    this.received = received;
+    this.errors = errors;
+    setTimestamping(true);
+  }
+
+  /**
+   * Opens a session for a new user.
+   *
+   * @param loginId the user's login ID.
+   * @return the user.
+   * @exception IOException if the session cannot be opened.
+   */
+  LoadUser openUser(String loginId) throws IOException
+  {
+    final ClientSession session = openSession();
+    LoadUser user = new LoadUser(loginId, received, errors)
+      {
+        void sendToServer(Object msg) throws IOException
+        {
+          session.sendToServer(msg);
+        }
+      };
+    session.setInfo("user", user);
+    return user;
+  }
+
+  protected void handleMessageFromSession(ClientSession session, Object msg)
+  {
+    ((LoadUser)session.getInfo("user")).messageReceived(msg);
+  }
+
+  protected void sessionClosed(ClientSession session)
+  {
+    LoadUser user = (LoadUser)session.getInfo("user");
+    if (user != null)
+      user.lost();
+  }
+}
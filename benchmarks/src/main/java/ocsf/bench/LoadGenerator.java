@@ -0,0 +1,395 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.bench;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import ocsf.client.AbstractClient;
+import ocsf.metrics.Histogram;
+
+/**
+* The <code> LoadGenerator </code> drives a SimpleChat server with
+* many simulated users, to find how much load it can take.<p>
+*
+* Each user has a unique login ID and, by default, a connection of
+* its own (a <code>LoadClient</code>); users may instead share
+* multiplexed connections (<code>LoadGateway</code>), as behind a
+* gateway. A fraction of the users are talkers; together they send
+* chat lines at a fixed total rate, taking turns, while the
+* others only listen. The rate is kept from the start of the run, so
+* a server that falls behind is sent messages back to back rather
+* than given a pause. Throughput is reported periodically, and
+* end-to-end latency percentiles, measured from the talker's
+* <code>sendToServer</code> to each listener's handler, at the end.<p>
+*
+* Options are given as name=value arguments, e.g.
+* "java -cp benchmarks/target/benchmarks.jar ocsf.bench.LoadGenerator
+* clients=2000 talkers=0.05 rate=200 duration=60". The options and
+* their defaults are:
+* <ul>
+* <li> host=localhost, port=5555: the server.
+* <li> clients=100: the number of users.
+* <li> talkers=0.1: the fraction of the users that send messages.
+* <li> rate=50: messages per second, all talkers together.
+* <li> size=64: the length of each chat line, in characters.
+* <li> duration=30: the length of the run once all users are logged
+*      in, in seconds.
+* <li> connectRate=500: new connections per second while ramping up.
+* <li> mux=1: the number of users sharing each connection, in
+*      logical sessions.
+* <li> report=5: seconds between progress reports.
+* <li> prefix: the start of the login IDs; by default "load" followed
+*      by the process ID, so that several generators can share a
+*      server.
+* </ul><p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class LoadGenerator
+{
+  //Instance variables **********************************************
+
+  private final String host;
+  private final int port;
+  private final int clientCount;
+  private final double talkerFraction;
+  private final double rate;
+  private final int size;
+  private final long durationNanos;
+  private final double connectRate;
+  private final long reportNanos;
+  private final String prefix;
+  private final int mux;
+
+  /**
+   * All the connections.
+   */
+  private final List<AbstractClient> connections = new ArrayList<>();
+
+  /**
+   * All the simulated users.
+   */
+  private final List<LoadUser> users = new ArrayList<>();
+
+  /**
+   * The users that send messages.
+   */
+  private final List<LoadUser> talkers = new ArrayList<>();
+
+  /**
+   * Chat lines received, all users together.
+   */
+  private final LongAdder received = new LongAdder();
+
+  /**
+   * Errors received and connections lost, all users together.
+   */
+  private final LongAdder errors = new LongAdder();
+
+  /**
+   * Chat lines sent.
+   */
+  private long sent = 0;
+
+  /**
+   * Chat lines that could not be sent.
+   */
+  private long sendFailures = 0;
+
+// Constructor ***************************************************************
+
+  /**
+   * Constructs a load generator from its options.
+   *
+   * @param options the options, by name.
+   * @exception IllegalArgumentException if an option is invalid.
+   */
+  public LoadGenerator(Map<String,String> options)
+  {
+    host = options.getOrDefault("host", "localhost");
+    port = Integer.parseInt(options.getOrDefault("port", "5555"));
+    clientCount = Integer.parseInt(options.getOrDefault("clients", "100"));
+    talkerFraction = Double.parseDouble(options.getOrDefault("talkers", "0.1"));
+    rate = Double.parseDouble(options.getOrDefault("rate", "50"));
+    size = Integer.parseInt(options.getOrDefault("size", "64"));
+    durationNanos = TimeUnit.SECONDS.toNanos(
+      Long.parseLong(options.getOrDefault("duration", "30")));
+    connectRate = Double.parseDouble(options.getOrDefault("connectRate", "500"));
+    reportNanos = TimeUnit.SECONDS.toNanos(
+      Long.parseLong(options.getOrDefault("report", "5")));
+    prefix = options.getOrDefault("prefix",
+      "load" + ProcessHandle.current().pid() + "-");
+    mux = Integer.parseInt(options.getOrDefault("mux", "1"));
+
+    if (clientCount <= 0 || mux <= 0 || talkerFraction < 0 || talkerFraction > 1
+      || rate <= 0 || size < 0 || connectRate <= 0 || reportNanos <= 0)
+      throw new IllegalArgumentException("invalid option");
+  }
+
+// Instance methods *********************************************************
+
+  /**
+   * Connects and logs in the users, runs the load, reports the
+   * results and disconnects.
+   *
+   * @exception InterruptedException if interrupted.
+   */
+  public void run() throws InterruptedException
+  {
+    try
+    {
+      connect();
+      if (talkers.isEmpty())
+      {
+        System.out.println("No talkers: nothing to send.");
+        return;
+      }
+      send();
+    }
+    finally
+    {
+      disconnect();
+    }
+  }
+
+  /**
+   * Opens the connections at the connect rate, then logs every user
+   * in and waits for the answers.
+   *
+   * @exception InterruptedException if interrupted.
+   */
+  private void connect() throws InterruptedException
+  {
+    long start = System.nanoTime();
+    long period = (long)(1e9 / connectRate);
+    int talkerCount = (int)Math.round(clientCount * talkerFraction);
+    int failed = 0;
+
+    for (int n=0; n * mux < clientCount; n++)
+    {
+      pauseUntil(start + n * period);
+
+      int first = n * mux;
+      try
+      {
+        if (mux == 1)
+        {
+          LoadClient client = new LoadClient(prefix + first, host, port,
+            received, errors);
+          client.openConnection();
+          connections.add(client);
+          users.add(client.getUser());
+          client.getUser().login();
+        }
+        else
+        {
+          LoadGateway gateway = new LoadGateway(host, port, received, errors);
+          gateway.openConnection();
+          connections.add(gateway);
+          for (int i=first; i<Math.min(clientCount, first + mux); i++)
+          {
+            LoadUser user = gateway.openUser(prefix + i);
+            users.add(user);
+            user.login();
+          }
+        }
+      }
+      catch (IOException e)
+      {
+        failed++;
+      }
+    }
+
+    int loggedIn = 0;
+    for (LoadUser user : users)
+    {
+      if (user.awaitLogin(10000))
+      {
+        loggedIn++;
+        // Spread the talkers evenly over the users
+        if (talkers.size() < talkerCount
+          && (long)loggedIn * talkerCount > (long)talkers.size() * clientCount)
+          talkers.add(user);
+      }
+    }
+
+    System.out.println("Logged in " + loggedIn + " of " + clientCount
+      + " users on " + connections.size() + " connections ("
+      + failed + " failed) in "
+      + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms; "
+      + talkers.size() + " talkers.");
+  }
+
+  /**
+   * Sends chat lines at the target rate for the duration of the run.
+   */
+  private void send()
+  {
+    char[] padding = new char[size];
+    Arrays.fill(padding, 'x');
+    String text = new String(padding);
+
+    long period = (long)(1e9 / rate);
+    long start = System.nanoTime();
+    long end = start + durationNanos;
+    long nextSend = start;
+    long nextReport = start + reportNanos;
+    long lastSent = 0;
+    long lastReceived = 0;
+
+    while (true)
+    {
+      long now = System.nanoTime();
+      if (now - end >= 0)
+        break;
+
+      if (now - nextReport >= 0)
+      {
+        long receivedNow = received.sum();
+        report(now - start, sent - lastSent, receivedNow - lastReceived);
+        lastSent = sent;
+        lastReceived = receivedNow;
+        nextReport += reportNanos;
+      }
+
+      if (now - nextSend >= 0)
+      {
+        LoadUser talker = talkers.get((int)(sent % talkers.size()));
+        String line = sent + " " + text;
+        try
+        {
+          talker.sendToServer(line.substring(0, Math.min(size, line.length())));
+        }
+        catch (IOException e)
+        {
+          sendFailures++;
+        }
+        sent++;
+        nextSend += period;
+        continue;
+      }
+
+      LockSupport.parkNanos(Math.min(nextSend - now, nextReport - now));
+    }
+
+    // Let the last broadcasts arrive
+    pauseUntil(System.nanoTime() + TimeUnit.SECONDS.toNanos(1));
+    summarize(System.nanoTime() - start);
+  }
+
+  /**
+   * Prints the throughput of one reporting interval.
+   *
+   * @param elapsed the time since the load started, in ns.
+   * @param sentInInterval lines sent during the interval.
+   * @param receivedInInterval lines received during the interval.
+   */
+  private void report(long elapsed, long sentInInterval,
+    long receivedInInterval)
+  {
+    double seconds = reportNanos / 1e9;
+    System.out.printf("%6.1fs  sent %8.1f/s  received %10.1f/s  errors %d%n",
+      elapsed / 1e9, sentInInterval / seconds, receivedInInterval / seconds,
+      errors.sum());
+  }
+
+  /**
+   * Prints the totals and the latency distribution of the run.
+   *
+   * @param elapsed the length of the run, in ns.
+   */
+  private void summarize(long elapsed)
+  {
+    Histogram latency = new Histogram("load_latency", "End-to-end latency", "ns");
+    for (AbstractClient connection : connections)
+      latency.add(connection.getEndToEndLatency().snapshot());
+    Histogram.Snapshot s = latency.snapshot();
+
+    double seconds = elapsed / 1e9;
+    long expected = sent * users.size();
+    System.out.println();
+    System.out.printf("Sent %d lines (%.1f/s, %d failed)%n",
+      sent, sent / seconds, sendFailures);
+    System.out.printf("Received %d of %d expected deliveries (%.1f/s)%n",
+      received.sum(), expected, received.sum() / seconds);
+    System.out.println("Errors " + errors.sum());
+    System.out.printf(
+      "Latency (us): mean %d  p50 %d  p90 %d  p99 %d  p99.9 %d  max %d%n",
+      micros(s.getMean()), micros(s.getPercentile(0.5)),
+      micros(s.getPercentile(0.9)), micros(s.getPercentile(0.99)),
+      micros(s.getPercentile(0.999)), micros(s.getMax()));
+  }
+
+  /**
+   * Closes every connection.
+   */
+  private void disconnect()
+  {
+    for (AbstractClient connection : connections)
+    {
+      try
+      {
+        connection.closeConnection();
+      }
+      catch (IOException e) {}
+    }
+  }
+
+  /**
+   * Converts nanoseconds to microseconds.
+   */
+  private static long micros(long nanos)
+  {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+  /**
+   * Parks the current thread until a time is reached.
+   *
+   * @param deadline the time on the System.nanoTime() scale.
+   */
+  private static void pauseUntil(long deadline)
+  {
+    long remaining;
+    while ((remaining = deadline - System.nanoTime()) > 0)
+      LockSupport.parkNanos(remaining);
+  }
+
+// Class methods ***************************************************
+
+  /**
+   * Runs a load generator.
+   *
+   * @param args the options, as name=value pairs.
+   */
+  public static void main(String[] args) throws InterruptedException
+  {
+    Map<String,String> options = new HashMap<>();
+    for (String arg : args)
+    {
+      int equals = arg.indexOf('=');
+      if (equals <= 0)
+      {
+        System.out.println("Usage: java ocsf.bench.LoadGenerator [name=value ...]");
+        return;
+      }
+      options.put(arg.substring(0, equals), arg.substring(equals + 1));
+    }
+
+    LoadGenerator generator;
+    try
+    {
+      generator = new LoadGenerator(options);
+    }
+    catch (IllegalArgumentException e)
+    {
+      System.out.println("Invalid option: " + e.getMessage());
+      return;
+    }
+    generator.run();
+  }
+}
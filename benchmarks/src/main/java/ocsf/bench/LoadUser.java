@@ -0,0 +1,140 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.bench;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+* A <code> LoadUser </code> is one simulated chat user of the
+* <code>LoadGenerator</code>. It speaks the SimpleChat protocol over
+* either a connection of its own (<code>LoadClient</code>) or a
+* session of a shared connection (<code>LoadGateway</code>).<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+abstract class LoadUser
+{
+  //Instance variables **********************************************
+
+  /**
+   * The login ID of this user.
+   */
+  private final String loginId;
+
+  /**
+   * Released when the server has accepted the login, or when the
+   * connection is lost.
+   */
+  private final CountDownLatch login = new CountDownLatch(1);
+
+  /**
+   * Set once the server has accepted the login.
+   */
+  private volatile boolean loggedIn = false;
+
+  /**
+   * The chat lines received, shared by all the users of a run.
+   */
+  private final LongAdder received;
+
+  /**
+   * The errors received and connections lost, shared by all the
+   * users of a run.
+   */
+  private final LongAdder errors;
+
+// Constructor ***************************************************************
+
+  /**
+   * Constructs a simulated user.
+   *
+   * @param loginId the user's login ID.
+   * @param received counts the chat lines received.
+   * @param errors counts the errors received and connections lost.
+   */
+  LoadUser(String loginId, LongAdder received, LongAdder errors)
+  {
+    this.loginId = loginId;
+    this.received = received;
+    this.errors = errors;
+  }
+
+// Instance methods *********************************************************
+
+  /**
+   * Sends a message to the server on behalf of this user.
+   *
+   * @param msg the message.
+   * @exception IOException if the message cannot be sent.
+   */
+  abstract void sendToServer(Object msg) throws IOException;
+
+  /**
+   * Sends the login command. The answer arrives asynchronously; see
+   * <code>awaitLogin</code>.
+   *
+   * @exception IOException if the command cannot be sent.
+   */
+  void login() throws IOException
+  {
+    sendToServer("#login " + loginId);
+  }
+
+  /**
+   * Waits for the answer to the login command.
+   *
+   * @param timeoutMillis how long to wait, in ms.
+   * @return true if the server accepted the login in time.
+   * @exception InterruptedException if interrupted while waiting.
+   */
+  boolean awaitLogin(long timeoutMillis) throws InterruptedException
+  {
+    login.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    return loggedIn;
+  }
+
+  /**
+   * @return the login ID of this user.
+   */
+  String getLoginId()
+  {
+    return loginId;
+  }
+
+  /**
+   * Handles a message from the server.
+   *
+   * @param msg the message.
+   */
+  void messageReceived(Object msg)
+  {
+    String line = String.valueOf(msg);
+
+    if (!loggedIn && line.startsWith("Login working!"))
+    {
+      loggedIn = true;
+      login.countDown();
+    }
+    else if (line.startsWith("Error"))
+    {
+      errors.increment();
+      login.countDown();
+    }
+    else
+    {
+      received.increment();
+    }
+  }
+
+  /**
+   * Counts the loss of this user's connection or session.
+   */
+  void lost()
+  {
+    errors.increment();
+    login.countDown();
+  }
+}
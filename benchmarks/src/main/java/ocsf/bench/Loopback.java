@@ -0,0 +1,178 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.bench;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import ocsf.client.*;
+import ocsf.server.*;
+
+/**
+* The <code> Loopback </code> class sets up servers and clients
+* connected over the loopback interface for the benchmarks.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+final class Loopback
+{
+  /**
+   * How long to wait for connections to be established, in ms.
+   */
+  private static final long CONNECT_TIMEOUT = 60000;
+
+  private Loopback() {}
+
+  /**
+   * Returns a port that is free at the time of the call.
+   *
+   * @return the port number.
+   * @exception IOException if no port can be bound.
+   */
+  static int freePort() throws IOException
+  {
+    try (ServerSocket probe = new ServerSocket(0))
+    {
+      return probe.getLocalPort();
+    }
+  }
+
+  /**
+   * Connects clients that discard everything they receive to a
+   * listening server, and waits until the server has completed the
+   * handshake with them all.
+   *
+   * @param server the server, already listening.
+   * @param count the number of clients.
+   * @return the clients.
+   * @exception IOException if a client cannot connect.
+   */
+  static List<AbstractClient> connect(SinkServer server, int count)
+    throws IOException
+  {
+    int expected = server.connected.get() + count;
+    List<AbstractClient> clients = new ArrayList<>(count);
+    for (int i=0; i<count; i++)
+    {
+      AbstractClient client = new DiscardClient(server.getPort());
+      client.openConnection();
+      clients.add(client);
+    }
+    awaitClients(server, expected);
+    return clients;
+  }
+
+  /**
+   * Waits until a server has completed a number of handshakes.
+   *
+   * @param server the server.
+   * @param expected the number of clients to wait for.
+   * @exception IOException if they are not all connected in time.
+   */
+  static void awaitClients(SinkServer server, int expected)
+    throws IOException
+  {
+    long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+    while (server.connected.get() < expected)
+    {
+      if (System.currentTimeMillis() > deadline)
+        throw new IOException("only " + server.connected.get()
+          + " of " + expected + " clients connected");
+      pause();
+    }
+  }
+
+  /**
+   * Returns the server side of every connection.
+   *
+   * @param server the server.
+   * @return its connections.
+   */
+  static ConnectionToClient[] connections(AbstractServer server)
+  {
+    Thread[] threads = server.getClientConnections();
+    ConnectionToClient[] connections = new ConnectionToClient[threads.length];
+    for (int i=0; i<threads.length; i++)
+      connections[i] = (ConnectionToClient)threads[i];
+    return connections;
+  }
+
+  /**
+   * Closes clients, then the server.
+   *
+   * @param server the server.
+   * @param clients its clients.
+   */
+  static void shutdown(AbstractServer server, List<AbstractClient> clients)
+  {
+    for (AbstractClient client : clients)
+    {
+      try
+      {
+        client.closeConnection();
+      }
+      catch (IOException e) {}
+    }
+    try
+    {
+      server.close();
+    }
+    catch (IOException e) {}
+  }
+
+  /**
+   * Sleeps briefly while waiting for another thread.
+   */
+  static void pause()
+  {
+    try
+    {
+      Thread.sleep(10);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * A server that ignores the messages it receives. It counts the
+   * clients whose handshake is complete, since a connection is listed
+   * by the server before it can be written to.
+   */
+  static class SinkServer extends AbstractServer
+  {
+    final AtomicInteger connected = new AtomicInteger();
+
+    SinkServer(int port)
+    {
+      super(port);
+    }
+
+    protected void clientConnected(ConnectionToClient client)
+    {
+      connected.incrementAndGet();
+    }
+
+    protected void handleMessageFromClient(Object msg,
+      ConnectionToClient client) {}
+  }
+
+  /**
+   * A client that reads and discards what the server sends it.
+   */
+  static class DiscardClient extends AbstractClient
+  {
+    DiscardClient(int port)
+    {
+      super("localhost", port);
+    }
+
+    protected void handleMessageFromServer(Object msg) {}
+  }
+}
@@ -0,0 +1,83 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.bench;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import ocsf.client.AbstractClient;
+import ocsf.server.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+* Measures <code>ConnectionToClient.sendToClient</code>: serializing a
+* string and writing it to one client over the loopback interface.<p>
+*
+* An object stream sends an object it has already sent as a short
+* back reference, so the benchmark cycles through distinct strings
+* and resets the stream each time it has used them all, as a
+* long-running server has to. Every message is therefore serialized
+* in full, and the reset costs 1/{@value #DISTINCT} of a message.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SendToClientBenchmark
+{
+  /**
+   * The number of distinct messages sent before the stream is reset.
+   */
+  static final int DISTINCT = 1024;
+
+  /**
+   * The length of each message, in characters.
+   */
+  @Param({"16", "1024", "16384"})
+  public int length;
+
+  private Loopback.SinkServer server;
+  private List<AbstractClient> clients;
+  private ConnectionToClient connection;
+  private String[] messages;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException
+  {
+    server = new Loopback.SinkServer(Loopback.freePort());
+    server.listen();
+    clients = Loopback.connect(server, 1);
+    connection = Loopback.connections(server)[0];
+
+    messages = new String[DISTINCT];
+    char[] text = new char[length];
+    for (int i=0; i<DISTINCT; i++)
+    {
+      Arrays.fill(text, (char)('a' + i % 26));
+      messages[i] = new String(text);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    Loopback.shutdown(server, clients);
+  }
+
+  @Benchmark
+  public void sendToClient() throws IOException
+  {
+    connection.sendToClient(messages[next]);
+    if (++next == DISTINCT)
+    {
+      next = 0;
+      connection.forceResetAfterSend();
+    }
+  }
+}
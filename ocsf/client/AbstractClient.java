@@ -6,6 +6,17 @@ package ocsf.client;
 
 import java.io.*;
 import java.net.*;
+import java.nio.file.Path;
+import ocsf.common.Batch;
+import ocsf.common.BufferPool;
+import ocsf.common.Compressed;
+import ocsf.common.Goodbye;
+import ocsf.common.Heartbeat;
+import ocsf.common.Hello;
+import ocsf.common.MessageCompressor;
+import ocsf.common.Timestamped;
+import ocsf.common.UnixSocket;
+import ocsf.metrics.*;
 
 /**
  * The <code> AbstractClient </code> contains all the methods necessary to set
@@ -61,6 +72,94 @@ public abstract class AbstractClient implements Runnable {
 	 */
 	private boolean				readyToStop	= false;
 
+	/**
+	 * Lock serializing writes to the output stream, since heartbeat
+	 * replies are sent by the reading thread.
+	 */
+	private final Object		writeLock	= new Object();
+
+	/**
+	 * The heartbeat interval last announced by the server, in ms; zero
+	 * until the server sends a heartbeat.
+	 */
+	private int					heartbeatInterval	= 0;
+
+	/**
+	 * The number of heartbeat intervals without any data from the server
+	 * after which the server is considered dead.
+	 */
+	private static final int	HEARTBEAT_TOLERANCE	= 3;
+
+	/**
+	 * Indicates if messages sent to the server are timestamped, so that
+	 * the latency of their broadcasts can be measured by the recipients.
+	 */
+	private volatile boolean	timestamping	= false;
+
+	/**
+	 * The serialized size, in bytes, from which messages are compressed;
+	 * zero if compression is not asked for.
+	 */
+	private volatile int		compressionThreshold	= 0;
+
+	/**
+	 * The largest serialized message accepted compressed from the server,
+	 * in bytes.
+	 */
+	private volatile int		maxMessageSize	= MessageCompressor.DEFAULT_MAX_MESSAGE_SIZE;
+
+	/**
+	 * The compressor of the current connection, or null if compression was
+	 * not asked for when it was opened.
+	 */
+	private volatile MessageCompressor	compressor;
+
+	/**
+	 * Set once the server has accepted compression on the current
+	 * connection.
+	 */
+	private volatile boolean	compressing	= false;
+
+	/**
+	 * The time the server asked this client to wait before reconnecting,
+	 * in ms, if the last connection was closed by a goodbye from the
+	 * server; -1 otherwise.
+	 */
+	private volatile int		reconnectDelay	= -1;
+
+	/**
+	 * The metrics of this client.
+	 */
+	private final MetricsRegistry	metrics		= new MetricsRegistry();
+
+	/**
+	 * Messages received from the server, heartbeats excluded.
+	 */
+	private final Counter		messagesReceived	= metrics.counter(
+			"ocsf_client_messages_received_total", "Messages received from the server");
+
+	/**
+	 * Time from the originating client's sendToServer to the delivery of
+	 * a timestamped broadcast to handleMessageFromServer.
+	 */
+	private final Histogram		endToEndLatency	= metrics.histogram(
+			"ocsf_client_end_to_end_latency_nanoseconds",
+			"Time from sendToServer to handleMessageFromServer for timestamped broadcasts", "ns");
+
+	/**
+	 * Serialized size of the messages sent or received compressed.
+	 */
+	private final Counter		uncompressedBytes	= metrics.counter(
+			"ocsf_client_compression_uncompressed_bytes_total",
+			"Serialized size of the messages sent or received compressed");
+
+	/**
+	 * Compressed size of the messages sent or received compressed.
+	 */
+	private final Counter		compressedBytes	= metrics.counter(
+			"ocsf_client_compression_compressed_bytes_total",
+			"Compressed size of the messages sent or received compressed");
+
 	/**
 	 * The server's host name.
 	 */
@@ -71,6 +170,12 @@ public abstract class AbstractClient implements Runnable {
 	 */
 	private int					port;
 
+	/**
+	 * The path of the server's Unix domain socket, used instead of the host
+	 * and port if set.
+	 */
+	private Path				unixSocketPath;
+
 	// CONSTRUCTORS *****************************************************
 
 	/**
@@ -85,6 +190,7 @@ public abstract class AbstractClient implements Runnable {
 		// Initialize variables
 		this.host = host;
 		this.port = port;
+		BufferPool.registerMetrics(metrics);
 	}
 
 	// INSTANCE METHODS *************************************************
@@ -101,11 +207,22 @@ public abstract class AbstractClient implements Runnable {
 		if (isConnected())
 			return;
 
+		ConnectEvent event = new ConnectEvent();
+		event.begin();
+
 		// Create the sockets and the data streams
 		try {
-			clientSocket = new Socket(host, port);
+			clientSocket = unixSocketPath != null ? UnixSocket.connect(unixSocketPath) : new Socket(host, port);
 			output = new ObjectOutputStream(clientSocket.getOutputStream());
 			input = new ObjectInputStream(clientSocket.getInputStream());
+
+			// Compression is asked for before anything else is sent
+			compressing = false;
+			compressor = null;
+			if (compressionThreshold > 0) {
+				compressor = new MessageCompressor(uncompressedBytes, compressedBytes, maxMessageSize);
+				output.writeObject(new Hello(Hello.COMPRESSION));
+			}
 		} catch (IOException ex)
 		// All three of the above must be closed when there is a failure
 		// to create any of them
@@ -115,10 +232,14 @@ public abstract class AbstractClient implements Runnable {
 			} catch (Exception exc) {
 			}
 
+			commitConnectEvent(event, false);
 			throw ex; // Rethrow the exception.
 		}
+		commitConnectEvent(event, true);
 
 		clientReader = new Thread(this); // Create the data reader thread
+		heartbeatInterval = 0;
+		reconnectDelay = -1;
 		readyToStop = false;
 		clientReader.start(); // Start the thread
 	}
@@ -133,10 +254,19 @@ public abstract class AbstractClient implements Runnable {
 	 *                if an I/O error occurs when sending
 	 */
 	final public void sendToServer(Object msg) throws IOException {
-		if (clientSocket == null || output == null)
+		ObjectOutputStream out = output;
+		if (clientSocket == null || out == null)
 			throw new SocketException("socket does not exist");
 
-		output.writeObject(msg);
+		if (timestamping && !(msg instanceof Heartbeat))
+			msg = new Timestamped(msg, System.nanoTime());
+
+		synchronized (writeLock) {
+			int threshold = compressionThreshold;
+			if (compressing && threshold > 0 && !(msg instanceof Heartbeat))
+				msg = compressor.compress(msg, threshold);
+			out.writeObject(msg);
+		}
 	}
 
 	/**
@@ -145,7 +275,9 @@ public abstract class AbstractClient implements Runnable {
     * in some circumstances when Java refuses to send data that it thinks has been sent.
 	 */
 	final public void forceResetAfterSend() throws IOException {
-      output.reset();
+		synchronized (writeLock) {
+			output.reset();
+		}
 	}
 
 	/**
@@ -175,6 +307,118 @@ public abstract class AbstractClient implements Runnable {
 		return clientReader != null && clientReader.isAlive();
 	}
 
+	/**
+	 * Enables or disables the timestamping of messages sent to the server.
+	 * The server passes the timestamp on to the broadcast of a message, and
+	 * every client receiving that broadcast records the end-to-end latency
+	 * in its metrics. Latencies are only meaningful when the sending and
+	 * receiving clients run on the same host.
+	 * 
+	 * @param timestamping
+	 *            true to timestamp messages.
+	 */
+	final public void setTimestamping(boolean timestamping) {
+		this.timestamping = timestamping;
+	}
+
+	/**
+	 * @return true if messages sent to the server are timestamped.
+	 */
+	final public boolean isTimestamping() {
+		return timestamping;
+	}
+
+	/**
+	 * Sets the size from which messages are compressed. Compression is
+	 * asked for when the connection is opened, and is used in both
+	 * directions if the server accepts it; a change from zero therefore
+	 * only takes effect at the next call to openConnection(). Setting the
+	 * threshold to zero stops compressing the messages sent.
+	 * 
+	 * @param compressionThreshold
+	 *            the serialized size of the smallest message compressed, in
+	 *            bytes; zero disables compression, which is the default.
+	 */
+	final public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = Math.max(0, compressionThreshold);
+	}
+
+	/**
+	 * Sets the size of the largest message the server may send compressed.
+	 * A compressed frame announcing a larger message is taken as corrupt,
+	 * and the connection is closed, before memory is allocated for the
+	 * message. Only takes effect at the next call to openConnection().
+	 * 
+	 * @param maxMessageSize
+	 *            the serialized size of the message, in bytes.
+	 * @exception IllegalArgumentException
+	 *                if the size is not positive.
+	 */
+	final public void setMaxMessageSize(int maxMessageSize) {
+		if (maxMessageSize <= 0)
+			throw new IllegalArgumentException("maxMessageSize <= 0");
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	/**
+	 * @return the size of the largest message accepted compressed from the
+	 *         server, in bytes.
+	 */
+	final public int getMaxMessageSize() {
+		return maxMessageSize;
+	}
+
+	/**
+	 * @return the size from which messages are compressed, in bytes; zero
+	 *         if compression is disabled.
+	 */
+	final public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	/**
+	 * @return true if the server accepted compression on the current
+	 *         connection.
+	 */
+	final public boolean isCompressing() {
+		return compressing;
+	}
+
+	/**
+	 * Returns the time the server asked this client to wait before
+	 * reconnecting. A server that drains its connections before closing
+	 * sends every client a goodbye after the last message for it; the
+	 * client answers it, the server then closes the connection, and
+	 * <code>connectionClosed</code> may use this delay to reconnect
+	 * without all clients of the server doing so at once.
+	 * 
+	 * @return the delay in ms, or -1 if the last connection was not closed
+	 *         by a goodbye from the server.
+	 */
+	final public int getReconnectDelay() {
+		return reconnectDelay;
+	}
+
+	/**
+	 * Returns the registry holding this client's metrics, among which the
+	 * end-to-end latency of timestamped broadcasts.
+	 * 
+	 * @return the client's metrics.
+	 */
+	final public MetricsRegistry getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Returns the distribution of end-to-end latencies of the timestamped
+	 * broadcasts received by this client, in nanoseconds.
+	 * 
+	 * @return the latency histogram.
+	 */
+	final public Histogram getEndToEndLatency() {
+		return endToEndLatency;
+	}
+
 	/**
 	 * @return the port number.
 	 */
@@ -211,10 +455,35 @@ public abstract class AbstractClient implements Runnable {
 		this.host = host;
 	}
 
+	/**
+	 * @return the path of the server's Unix domain socket, or null if the
+	 *         client connects over TCP.
+	 */
+	final public Path getUnixSocketPath() {
+		return unixSocketPath;
+	}
+
+	/**
+	 * Sets the path of a Unix domain socket on which the server listens
+	 * (see <code>AbstractServer.addUnixListener</code>). A client on the
+	 * same host as its server then connects through the socket rather than
+	 * TCP, which saves the TCP/IP stack's work on every message; everything
+	 * else, hooks included, works as over TCP. The change only takes effect
+	 * at the time of the next call to openConnection().
+	 * 
+	 * @param unixSocketPath
+	 *            the path of the socket, or null to connect to the host and
+	 *            port over TCP, which is the default.
+	 */
+	final public void setUnixSocketPath(Path unixSocketPath) {
+		this.unixSocketPath = unixSocketPath;
+	}
+
 	/**
 	 * returns the client's description.
 	 * 
-	 * @return the client's Inet address.
+	 * @return the client's Inet address, or null if it is connected through
+	 *         a Unix domain socket.
 	 */
 	final public InetAddress getInetAddress() {
 		return clientSocket.getInetAddress();
@@ -241,9 +510,38 @@ public abstract class AbstractClient implements Runnable {
 				// statement until something is received from the server
 				msg = input.readObject();
 
-				// Concrete subclasses do what they want with the
-				// msg by implementing the following method
-				handleMessageFromServer(msg);
+				if (msg instanceof Compressed) {
+					MessageCompressor codec = compressor;
+					if (codec == null)
+						throw new StreamCorruptedException("compression was not asked for");
+					Compressed frame = (Compressed) msg;
+					if (frame.isDetached()) {
+						// The frame's bytes follow it as a block of data,
+						// whose length is checked before it is allocated
+						codec.checkLengths(frame);
+						byte[] data = new byte[frame.getDetachedLength()];
+						input.readFully(data);
+						frame = frame.attach(data);
+					}
+					msg = codec.decompress(frame);
+				}
+
+				// Heartbeats, hellos and goodbyes are handled here and never
+				// reach the subclass
+				if (msg instanceof Heartbeat) {
+					heartbeatReceived((Heartbeat) msg);
+					continue;
+				}
+				if (msg instanceof Hello) {
+					compressing = compressor != null && ((Hello) msg).supports(Hello.COMPRESSION);
+					continue;
+				}
+				if (msg instanceof Goodbye) {
+					goodbyeReceived((Goodbye) msg);
+					continue;
+				}
+
+				dispatch(msg);
 			}
 		} catch (Exception exception) {
 			if (!readyToStop) {
@@ -252,7 +550,11 @@ public abstract class AbstractClient implements Runnable {
 				} catch (Exception ex) {
 				}
 
-				connectionException(exception);
+				// A server that said goodbye closes the connection normally
+				if (reconnectDelay >= 0)
+					connectionClosed();
+				else
+					connectionException(exception);
 			}
 		} finally {
 			clientReader = null;
@@ -300,6 +602,105 @@ public abstract class AbstractClient implements Runnable {
 
 	// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------
 
+	/**
+	 * Commits a Flight Recorder event for a connection attempt, if such
+	 * events are enabled.
+	 * 
+	 * @param event
+	 *            the event begun before connecting.
+	 * @param succeeded
+	 *            true if the connection was opened.
+	 */
+	private void commitConnectEvent(ConnectEvent event, boolean succeeded) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.host = host;
+			event.port = port;
+			event.succeeded = succeeded;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Passes a message read from the server to the handler. Batches are
+	 * unpacked, and each of their messages dispatched in order.
+	 * 
+	 * @param msg
+	 *            the message read.
+	 */
+	private void dispatch(Object msg) {
+		if (msg instanceof Batch) {
+			Batch batch = (Batch) msg;
+			for (int i = 0; i < batch.size(); i++)
+				dispatch(batch.get(i));
+			return;
+		}
+
+		MessageDispatchEvent event = new MessageDispatchEvent();
+		long latency = -1;
+		if (msg instanceof Timestamped) {
+			latency = System.nanoTime() - ((Timestamped) msg).getSentNanos();
+			endToEndLatency.record(latency);
+			msg = ((Timestamped) msg).getMessage();
+		}
+		messagesReceived.increment();
+
+		// Concrete subclasses do what they want with the
+		// msg by implementing the following method
+		event.begin();
+		handleMessageFromServer(msg);
+		event.end();
+
+		if (event.shouldCommit()) {
+			event.messageClass = msg == null ? null : msg.getClass().getName();
+			event.endToEndLatency = latency;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Answers a ping from the server. The first ping, and any change of
+	 * interval, sets a read timeout of a few intervals, so that a server
+	 * that silently died is detected as a connection exception.
+	 * 
+	 * @param beat
+	 *            the heartbeat received.
+	 * @exception IOException
+	 *                if the reply cannot be sent.
+	 */
+	private void heartbeatReceived(Heartbeat beat) throws IOException {
+		if (beat.isReply())
+			return;
+
+		int interval = beat.getInterval();
+		Socket socket = clientSocket;
+		if (interval != heartbeatInterval && socket != null) {
+			heartbeatInterval = interval;
+			socket.setSoTimeout(interval > 0 ? interval * HEARTBEAT_TOLERANCE : 0);
+		}
+		sendToServer(beat.reply());
+	}
+
+	/**
+	 * Answers the goodbye of a closing server. The server closes the
+	 * connection once it has read the answer, after which
+	 * <code>connectionClosed</code> is called.
+	 * 
+	 * @param goodbye
+	 *            the goodbye received.
+	 * @exception IOException
+	 *                if the answer cannot be sent.
+	 */
+	private void goodbyeReceived(Goodbye goodbye) throws IOException {
+		reconnectDelay = goodbye.getReconnectDelay();
+		ObjectOutputStream out = output;
+		if (out == null)
+			throw new SocketException("socket does not exist");
+		synchronized (writeLock) {
+			out.writeObject(goodbye);
+		}
+	}
+
 	/**
 	 * Closes all aspects of the connection to the server.
 	 * 
@@ -327,6 +728,10 @@ public abstract class AbstractClient implements Runnable {
 			output = null;
 			input = null;
 			clientSocket = null;
+
+			MessageCompressor codec = compressor;
+			if (codec != null)
+				codec.end();
 		}
 	}
 }
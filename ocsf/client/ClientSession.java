@@ -0,0 +1,150 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.client;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.HashMap;
+import ocsf.common.SessionFrame;
+
+/**
+ * A <code> ClientSession </code> is one logical session of a
+ * <code>MultiplexedClient</code>. The server sees it as a client of its own,
+ * with its own <code>ConnectionToClient</code>, although it shares its
+ * connection with the other sessions of the same client.
+ * <p>
+ * Project Name: OCSF (Object Client-Server Framework)
+ * <p>
+ *
+ * @see ocsf.client.MultiplexedClient#openSession()
+ */
+public final class ClientSession {
+
+	// INSTANCE VARIABLES ***********************************************
+
+	/**
+	 * The client whose connection carries this session.
+	 */
+	private final MultiplexedClient	client;
+
+	/**
+	 * The number of this session on the connection.
+	 */
+	private final int				id;
+
+	/**
+	 * Indicates if the session is still open.
+	 */
+	private volatile boolean		open	= true;
+
+	/**
+	 * Information about the session, such as its login ID. Used by the
+	 * setInfo and getInfo methods.
+	 */
+	private final HashMap<String, Object>	savedInfo	= new HashMap<String, Object>(4);
+
+	// CONSTRUCTORS *****************************************************
+
+	/**
+	 * Constructs a session. The server is told by the client.
+	 *
+	 * @param client
+	 *            the client carrying the session.
+	 * @param id
+	 *            the number of the session.
+	 */
+	ClientSession(MultiplexedClient client, int id) {
+		this.client = client;
+		this.id = id;
+	}
+
+	// INSTANCE METHODS *************************************************
+
+	/**
+	 * Sends an object to the server on behalf of this session.
+	 *
+	 * @param msg
+	 *            the message to be sent.
+	 * @exception IOException
+	 *                if the session is closed or an I/O error occurs.
+	 */
+	public void sendToServer(Object msg) throws IOException {
+		if (!open)
+			throw new SocketException("session closed");
+		client.sendToServer(SessionFrame.data(id, msg));
+	}
+
+	/**
+	 * Closes this session, leaving the connection and the other sessions
+	 * open. If the session is already closed, this call has no effect.
+	 *
+	 * @exception IOException
+	 *                if the server cannot be told.
+	 */
+	public void close() throws IOException {
+		client.endSession(this, true);
+	}
+
+	// ACCESSING METHODS ------------------------------------------------
+
+	/**
+	 * @return the number of this session on its connection.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return true if the session is open.
+	 */
+	public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * @return the client carrying this session.
+	 */
+	public MultiplexedClient getClient() {
+		return client;
+	}
+
+	/**
+	 * Saves arbitrary information about this session.
+	 *
+	 * @param infoType
+	 *            identifies the type of information
+	 * @param info
+	 *            the information itself.
+	 */
+	public synchronized void setInfo(String infoType, Object info) {
+		savedInfo.put(infoType, info);
+	}
+
+	/**
+	 * Returns information about the session saved using setInfo.
+	 *
+	 * @param infoType
+	 *            identifies the type of information
+	 */
+	public synchronized Object getInfo(String infoType) {
+		return savedInfo.get(infoType);
+	}
+
+	/**
+	 * Marks the session as closed.
+	 */
+	void closed() {
+		open = false;
+	}
+
+	/**
+	 * Returns a string representation of the session.
+	 *
+	 * @return the session's description.
+	 */
+	public String toString() {
+		return "session " + id;
+	}
+}
+// End of ClientSession class
@@ -0,0 +1,30 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.client;
+
+import jdk.jfr.*;
+
+/**
+* Flight Recorder event spanning <code>openConnection</code>: socket
+* connection and object stream handshake. Disabled by default.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+@Name("ocsf.client.Connect")
+@Label("Connect")
+@Category({"OCSF", "Client"})
+@Description("Connection to the server and object stream handshake")
+@Enabled(false)
+@StackTrace(false)
+final class ConnectEvent extends Event
+{
+  @Label("Host")
+  String host;
+
+  @Label("Port")
+  int port;
+
+  @Label("Succeeded")
+  boolean succeeded;
+}
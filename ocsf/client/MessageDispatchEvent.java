@@ -0,0 +1,29 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.client;
+
+import jdk.jfr.*;
+
+/**
+* Flight Recorder event spanning a call to
+* <code>handleMessageFromServer</code>. Disabled by default.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+@Name("ocsf.client.MessageDispatch")
+@Label("Message Dispatch")
+@Category({"OCSF", "Client"})
+@Description("Call to handleMessageFromServer")
+@Enabled(false)
+@StackTrace(false)
+final class MessageDispatchEvent extends Event
+{
+  @Label("Message Class")
+  String messageClass;
+
+  @Label("End-to-End Latency")
+  @Description("Time since the originating client sent the message, if it was timestamped")
+  @Timespan(Timespan.NANOSECONDS)
+  long endToEndLatency;
+}
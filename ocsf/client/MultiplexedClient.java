@@ -0,0 +1,200 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.client;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import ocsf.common.SessionFrame;
+
+/**
+ * A <code> MultiplexedClient </code> carries many logical sessions over a
+ * single connection, for gateways and load generators that act for many
+ * users at once. The server demultiplexes the sessions: each one is a
+ * separate <code>ConnectionToClient</code>, with its own information, rate
+ * limit and broadcasts, and is connected and disconnected through the
+ * server's usual hooks.
+ * <p>
+ * Compared to one connection per user, this saves a socket, its kernel
+ * buffers and two threads per session. The sessions share the connection's
+ * ordering, though, so one slow session delays the others.
+ * <p>
+ * Method <code>handleMessageFromSession</code> must be defined by a concrete
+ * subclass. Subclasses that override <code>connectionClosed</code> or
+ * <code>connectionException</code> must call the superclass method, which
+ * closes the sessions.
+ * <p>
+ * Project Name: OCSF (Object Client-Server Framework)
+ * <p>
+ *
+ * @see ocsf.common.SessionFrame
+ */
+public abstract class MultiplexedClient extends AbstractClient {
+
+	// INSTANCE VARIABLES ***********************************************
+
+	/**
+	 * The open sessions, by number.
+	 */
+	private final ConcurrentHashMap<Integer, ClientSession>	sessions	= new ConcurrentHashMap<Integer, ClientSession>();
+
+	/**
+	 * The number of the next session opened.
+	 */
+	private final AtomicInteger	nextSession	= new AtomicInteger();
+
+	// CONSTRUCTORS *****************************************************
+
+	/**
+	 * Constructs the client.
+	 *
+	 * @param host
+	 *            the server's host name.
+	 * @param port
+	 *            the port number.
+	 */
+	public MultiplexedClient(String host, int port) {
+		super(host, port);
+	}
+
+	// INSTANCE METHODS *************************************************
+
+	/**
+	 * Opens a new logical session on the connection, which must be open.
+	 * The server calls <code>clientConnected</code> for it.
+	 *
+	 * @return the new session.
+	 * @exception IOException
+	 *                if an I/O error occurs when telling the server.
+	 */
+	final public ClientSession openSession() throws IOException {
+		ClientSession session = new ClientSession(this, nextSession.getAndIncrement());
+		sessions.put(session.getId(), session);
+		try {
+			sendToServer(SessionFrame.open(session.getId()));
+		} catch (IOException ex) {
+			sessions.remove(session.getId());
+			session.closed();
+			throw ex;
+		}
+		return session;
+	}
+
+	/**
+	 * @return the number of open sessions.
+	 */
+	final public int getNumberOfSessions() {
+		return sessions.size();
+	}
+
+	// METHODS DESIGNED TO BE OVERRIDDEN BY CONCRETE SUBCLASSES ---------
+
+	/**
+	 * Handles a message sent from the server to one of the sessions. Called
+	 * by the client's reading thread, for all sessions in turn.
+	 *
+	 * @param session
+	 *            the session the message is sent to.
+	 * @param msg
+	 *            the message sent.
+	 */
+	protected abstract void handleMessageFromSession(ClientSession session, Object msg);
+
+	/**
+	 * Hook method called after a session has been closed, by either side
+	 * or because the connection was closed. The default implementation does
+	 * nothing.
+	 *
+	 * @param session
+	 *            the session closed.
+	 */
+	protected void sessionClosed(ClientSession session) {
+	}
+
+	/**
+	 * Closes all sessions. Subclasses overriding this method must call it.
+	 */
+	protected void connectionClosed() {
+		endSessions();
+	}
+
+	/**
+	 * Closes all sessions. Subclasses overriding this method must call it.
+	 *
+	 * @param exception
+	 *            the exception raised.
+	 */
+	protected void connectionException(Exception exception) {
+		endSessions();
+	}
+
+	// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------
+
+	/**
+	 * Dispatches the frames of the sessions. Messages sent to the connection
+	 * itself rather than to a session are ignored.
+	 *
+	 * @param msg
+	 *            the message sent.
+	 */
+	final protected void handleMessageFromServer(Object msg) {
+		if (!(msg instanceof SessionFrame))
+			return;
+
+		SessionFrame frame = (SessionFrame) msg;
+		ClientSession session = sessions.get(frame.getSession());
+		if (session == null)
+			return;
+
+		switch (frame.getType()) {
+		case SessionFrame.DATA:
+			handleMessageFromSession(session, frame.getPayload());
+			break;
+
+		case SessionFrame.CLOSE:
+			try {
+				endSession(session, false);
+			} catch (IOException e) {
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Ends a session. The hook is called only once, whichever side ends
+	 * the session first.
+	 *
+	 * @param session
+	 *            the session.
+	 * @param notifyServer
+	 *            true if the server must be sent a CLOSE frame.
+	 * @exception IOException
+	 *                if the CLOSE frame cannot be sent.
+	 */
+	void endSession(ClientSession session, boolean notifyServer) throws IOException {
+		if (!sessions.remove(session.getId(), session))
+			return;
+
+		session.closed();
+		try {
+			if (notifyServer)
+				sendToServer(SessionFrame.close(session.getId()));
+		} finally {
+			sessionClosed(session);
+		}
+	}
+
+	/**
+	 * Ends all sessions once the connection is closed.
+	 */
+	private void endSessions() {
+		for (ClientSession session : sessions.values()) {
+			try {
+				endSession(session, false);
+			} catch (IOException e) {
+			}
+		}
+	}
+}
+// End of MultiplexedClient class
@@ -7,6 +7,8 @@ package ocsf.client;
 import java.util.*;
 import java.io.*;
 import java.net.*;
+import java.nio.file.Path;
+import ocsf.metrics.*;
 
 /**
  * This class acts as a subclass of <code>AbstractClient</code>
@@ -128,6 +130,122 @@ public class ObservableClient extends Observable
     service.setHost(host);
   }
 
+  /**
+   * Enables or disables the timestamping of messages sent to the
+   * server, used to measure end-to-end latency.
+   *
+   * @param timestamping true to timestamp messages.
+   */
+  final public void setTimestamping(boolean timestamping)
+  {
+    service.setTimestamping(timestamping);
+  }
+
+  /**
+   * @return true if messages sent to the server are timestamped.
+   */
+  final public boolean isTimestamping()
+  {
+    return service.isTimestamping();
+  }
+
+  /**
+   * Sets the size from which messages are compressed, for the next
+   * connection.
+   *
+   * @param compressionThreshold the threshold in bytes; zero disables
+   *  compression.
+   */
+  final public void setCompressionThreshold(int compressionThreshold)
+  {
+    service.setCompressionThreshold(compressionThreshold);
+  }
+
+  /**
+   * @return the size from which messages are compressed, in bytes;
+   *  zero if compression is disabled.
+   */
+  final public int getCompressionThreshold()
+  {
+    return service.getCompressionThreshold();
+  }
+
+  /**
+   * Sets the size of the largest message the server may send
+   * compressed, for the next connection.
+   *
+   * @param maxMessageSize the size in bytes.
+   */
+  final public void setMaxMessageSize(int maxMessageSize)
+  {
+    service.setMaxMessageSize(maxMessageSize);
+  }
+
+  /**
+   * @return the size of the largest message accepted compressed from
+   *  the server, in bytes.
+   */
+  final public int getMaxMessageSize()
+  {
+    return service.getMaxMessageSize();
+  }
+
+  /**
+   * @return true if the server accepted compression on the current
+   *  connection.
+   */
+  final public boolean isCompressing()
+  {
+    return service.isCompressing();
+  }
+
+  /**
+   * Sets the path of the server's Unix domain socket, to connect
+   * through it rather than TCP. Only takes effect at the next call to
+   * openConnection().
+   *
+   * @param unixSocketPath the path, or null to connect over TCP.
+   */
+  final public void setUnixSocketPath(Path unixSocketPath)
+  {
+    service.setUnixSocketPath(unixSocketPath);
+  }
+
+  /**
+   * @return the path of the server's Unix domain socket, or null.
+   */
+  final public Path getUnixSocketPath()
+  {
+    return service.getUnixSocketPath();
+  }
+
+  /**
+   * @return the time the server asked the client to wait before
+   *  reconnecting, in ms, or -1 if the last connection was not closed
+   *  by a goodbye from the server.
+   */
+  final public int getReconnectDelay()
+  {
+    return service.getReconnectDelay();
+  }
+
+  /**
+   * @return the registry holding the client's metrics.
+   */
+  final public MetricsRegistry getMetrics()
+  {
+    return service.getMetrics();
+  }
+
+  /**
+   * @return the end-to-end latencies of the timestamped broadcasts
+   * received, in nanoseconds.
+   */
+  final public Histogram getEndToEndLatency()
+  {
+    return service.getEndToEndLatency();
+  }
+
   /**
    * @return the client's Inet address.
    */
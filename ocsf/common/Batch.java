@@ -0,0 +1,62 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.common;
+
+import java.io.Serializable;
+
+/**
+* A <code> Batch </code> carries several messages in one frame, so
+* that they cost a single write and a single wakeup of the reader.
+* Batches are made by <code>AbstractServer</code> when broadcasts are
+* coalesced, and are unpacked by <code>AbstractClient</code>, which
+* passes each message to <code>handleMessageFromServer</code> in
+* order, as if it had been sent alone.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see ocsf.server.AbstractServer#setCoalescingWindow(int)
+*/
+public final class Batch implements Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The messages, in the order they were sent.
+   */
+  private final Object[] messages;
+
+// Constructor ***************************************************************
+
+  /**
+   * Constructs a batch. The array is not copied and must not be
+   * modified afterwards.
+   *
+   * @param messages the messages, in the order they were sent.
+   */
+  public Batch(Object[] messages)
+  {
+    this.messages = messages;
+  }
+
+// Accessor methods *********************************************************
+
+  /**
+   * @return the number of messages in the batch.
+   */
+  public int size()
+  {
+    return messages.length;
+  }
+
+  /**
+   * Returns one of the messages.
+   *
+   * @param index the position of the message, from zero.
+   * @return the message.
+   */
+  public Object get(int index)
+  {
+    return messages[index];
+  }
+}
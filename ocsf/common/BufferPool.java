@@ -0,0 +1,506 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.common;
+
+import java.lang.ref.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import ocsf.metrics.*;
+
+/**
+* The <code> BufferPool </code> class hands out the scratch buffers the
+* framework needs while it frames, compresses and decompresses
+* messages, so that a message does not cost a new array each time.<p>
+*
+* Buffers are direct, so that zlib reads and writes them in place, and
+* come in power-of-two size classes from 256 bytes to 1 MB. Each thread
+* keeps a few released buffers of each class below 64 KB for itself,
+* which it takes back without any synchronization; the other released
+* buffers go to a shared pool holding up to 4 MB per class. Larger
+* requests get a heap buffer, which is dropped when released: direct
+* memory is only reclaimed by the garbage collector, so allocating it
+* for each large message would risk running out of it.<p>
+*
+* Only 64 threads at a time have a cache of their own, of at most
+* 256 KB each; the others use the shared pool alone. When a thread
+* gets its cache, the caches of the threads that have ended are
+* returned to the shared pool, so that a server with a thread per
+* connection does not hold on to the buffers of its former clients.<p>
+*
+* Every buffer acquired must be released exactly once, and not used
+* afterwards. Setting the system property
+* <code>ocsf.buffers.leakDetection</code> to true tracks each buffer
+* handed out: one that is garbage collected without having been
+* released is reported on the standard error stream with the stack
+* trace of its acquisition, and releasing a buffer twice throws an
+* exception. Tracking is slow, and meant for tests.<p>
+*
+* The counters are process-wide, and registered in the metrics of
+* every server and client.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public final class BufferPool
+{
+  // CLASS VARIABLES ************************************************
+
+  /**
+   * The smallest size class, as a power of two.
+   */
+  private static final int MIN_SHIFT = 8;
+
+  /**
+   * The largest size class, as a power of two.
+   */
+  private static final int MAX_SHIFT = 20;
+
+  /**
+   * The largest size class kept in the per-thread caches, as a power
+   * of two.
+   */
+  private static final int THREAD_CACHE_MAX_SHIFT = 16;
+
+  /**
+   * The number of buffers of each class a thread keeps.
+   */
+  private static final int THREAD_CACHE_SIZE = 2;
+
+  /**
+   * The number of threads that may have a cache at the same time.
+   */
+  private static final int MAX_CACHING_THREADS = 64;
+
+  /**
+   * The bytes of each class the shared pool keeps.
+   */
+  private static final int SHARED_BYTES_PER_CLASS = 1 << 22;
+
+  /**
+   * True if buffers are tracked to find leaks.
+   */
+  private static final boolean LEAK_DETECTION =
+    Boolean.getBoolean("ocsf.buffers.leakDetection");
+
+  /**
+   * The released buffers shared by all threads, by size class.
+   */
+  private static final SharedClass[] shared =
+    new SharedClass[MAX_SHIFT - MIN_SHIFT + 1];
+
+  /**
+   * The cache of each thread.
+   */
+  private static final ThreadLocal<ThreadCache> cache =
+    ThreadLocal.withInitial(BufferPool::newThreadCache);
+
+  /**
+   * The caches handed out to threads. Guarded by itself.
+   */
+  private static final ArrayList<ThreadCache> caches = new ArrayList<>();
+
+  /**
+   * The leases of the buffers handed out, by identity hash code, when
+   * leak detection is on. Guarded by itself.
+   */
+  private static final HashMap<Integer,List<Lease>> leases = new HashMap<>();
+
+  /**
+   * Receives the leases of buffers collected without being released.
+   */
+  private static final ReferenceQueue<ByteBuffer> collected =
+    new ReferenceQueue<>();
+
+  /**
+   * The direct memory held by pooled buffers, in use or not.
+   */
+  private static final AtomicLong pooledBytes = new AtomicLong();
+
+  /**
+   * The buffers handed out and not yet released.
+   */
+  private static final AtomicLong outstanding = new AtomicLong();
+
+  /**
+   * Buffers acquired.
+   */
+  private static final Counter acquired = new Counter(
+    "ocsf_buffer_pool_acquired_total", "Buffers acquired from the pool");
+
+  /**
+   * Buffers acquired that had to be allocated.
+   */
+  private static final Counter allocated = new Counter(
+    "ocsf_buffer_pool_allocated_total",
+    "Buffers allocated because the pool had none of the size");
+
+  /**
+   * Buffers acquired that are too large to be pooled.
+   */
+  private static final Counter unpooled = new Counter(
+    "ocsf_buffer_pool_unpooled_total",
+    "Buffers too large to be pooled, allocated on the heap and dropped");
+
+  /**
+   * Buffers collected without having been released.
+   */
+  private static final Counter leaks = new Counter(
+    "ocsf_buffer_pool_leaks_total",
+    "Buffers garbage collected without being released (leak detection only)");
+
+  /**
+   * The direct memory held by the pool.
+   */
+  private static final Gauge pooledBytesGauge = new Gauge(
+    "ocsf_buffer_pool_bytes", "Direct memory held by pooled buffers",
+    pooledBytes::get);
+
+  /**
+   * The buffers in use.
+   */
+  private static final Gauge outstandingGauge = new Gauge(
+    "ocsf_buffer_pool_outstanding", "Pooled buffers acquired and not released",
+    outstanding::get);
+
+  static
+  {
+    for (int i=0; i<shared.length; i++)
+      shared[i] = new SharedClass(
+        Math.max(1, SHARED_BYTES_PER_CLASS >> (MIN_SHIFT + i)));
+  }
+
+
+// CONSTRUCTOR ******************************************************
+
+  /**
+   * The pool is not instantiated.
+   */
+  private BufferPool() {}
+
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Acquires a buffer. Its position is zero and its limit the size
+   * asked for; its content is undefined. It is direct, unless larger
+   * than the largest size class.
+   *
+   * @param size the number of bytes needed.
+   * @return the buffer, to be released once done with.
+   */
+  public static ByteBuffer acquire(int size)
+  {
+    acquired.increment();
+    outstanding.incrementAndGet();
+    if (LEAK_DETECTION)
+      reportLeaks();
+
+    int index = sizeClass(size);
+    ByteBuffer buffer = null;
+    if (index < 0)
+    {
+      unpooled.increment();
+      buffer = ByteBuffer.allocate(size);
+    }
+    else
+    {
+      ByteBuffer[][] buffers = cache.get().buffers;
+      if (buffers != null && index <= THREAD_CACHE_MAX_SHIFT - MIN_SHIFT)
+      {
+        ByteBuffer[] cached = buffers[index];
+        for (int i=0; i<cached.length && buffer == null; i++)
+        {
+          buffer = cached[i];
+          cached[i] = null;
+        }
+      }
+      if (buffer == null)
+        buffer = shared[index].poll();
+      if (buffer == null)
+      {
+        allocated.increment();
+        buffer = ByteBuffer.allocateDirect(1 << (MIN_SHIFT + index));
+        pooledBytes.addAndGet(buffer.capacity());
+      }
+    }
+
+    buffer.clear().limit(size);
+    if (LEAK_DETECTION)
+      lease(buffer);
+    return buffer;
+  }
+
+  /**
+   * Releases a buffer acquired from the pool. It must not be used
+   * afterwards.
+   *
+   * @param buffer the buffer; null is ignored.
+   * @exception IllegalStateException if leak detection is on and the
+   *  buffer is not in use.
+   */
+  public static void release(ByteBuffer buffer)
+  {
+    if (buffer == null)
+      return;
+    if (LEAK_DETECTION)
+      endLease(buffer);
+    outstanding.decrementAndGet();
+
+    int index = Integer.numberOfTrailingZeros(buffer.capacity()) - MIN_SHIFT;
+    if (Integer.bitCount(buffer.capacity()) != 1 || index < 0
+      || index > MAX_SHIFT - MIN_SHIFT)
+      return;  // Unpooled
+
+    ByteBuffer[][] buffers = cache.get().buffers;
+    if (buffers != null && index <= THREAD_CACHE_MAX_SHIFT - MIN_SHIFT)
+    {
+      ByteBuffer[] cached = buffers[index];
+      for (int i=0; i<cached.length; i++)
+      {
+        if (cached[i] == null)
+        {
+          cached[i] = buffer;
+          return;
+        }
+      }
+    }
+    share(index, buffer);
+  }
+
+  /**
+   * Registers the pool's metrics.
+   *
+   * @param registry the registry of a server or client.
+   */
+  public static void registerMetrics(MetricsRegistry registry)
+  {
+    registry.register(acquired);
+    registry.register(allocated);
+    registry.register(unpooled);
+    registry.register(leaks);
+    registry.register(pooledBytesGauge);
+    registry.register(outstandingGauge);
+  }
+
+  /**
+   * Returns a released buffer to the shared pool, or drops it if the
+   * pool has enough of its class.
+   *
+   * @param index the size class of the buffer.
+   * @param buffer the buffer.
+   */
+  private static void share(int index, ByteBuffer buffer)
+  {
+    if (!shared[index].offer(buffer))
+      pooledBytes.addAndGet(-buffer.capacity());
+  }
+
+  /**
+   * Makes the cache of the current thread, after returning those of
+   * the threads that have ended to the shared pool. The thread gets
+   * no cache if too many threads have one.
+   *
+   * @return the cache.
+   */
+  private static ThreadCache newThreadCache()
+  {
+    synchronized (caches)
+    {
+      for (Iterator<ThreadCache> i = caches.iterator(); i.hasNext(); )
+      {
+        ThreadCache ended = i.next();
+        Thread owner = ended.owner.get();
+        if (owner != null && owner.isAlive())
+          continue;
+
+        // The owner has ended, so its cache is no longer touched
+        i.remove();
+        for (int index=0; index<ended.buffers.length; index++)
+        {
+          for (ByteBuffer buffer : ended.buffers[index])
+          {
+            if (buffer != null)
+              share(index, buffer);
+          }
+        }
+      }
+
+      if (caches.size() >= MAX_CACHING_THREADS)
+        return new ThreadCache(null);
+      ThreadCache created = new ThreadCache(new ByteBuffer
+        [THREAD_CACHE_MAX_SHIFT - MIN_SHIFT + 1][THREAD_CACHE_SIZE]);
+      caches.add(created);
+      return created;
+    }
+  }
+
+  /**
+   * Returns the size class of a request.
+   *
+   * @param size the number of bytes needed.
+   * @return the index of the class, or -1 if the request is too large
+   *  to be pooled.
+   */
+  private static int sizeClass(int size)
+  {
+    if (size > 1 << MAX_SHIFT)
+      return -1;
+    int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+    return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+  }
+
+  /**
+   * Tracks a buffer handed out.
+   *
+   * @param buffer the buffer.
+   */
+  private static void lease(ByteBuffer buffer)
+  {
+    Lease lease = new Lease(buffer, collected);
+    synchronized (leases)
+    {
+      leases.computeIfAbsent(System.identityHashCode(buffer),
+        hash -> new ArrayList<>(1)).add(lease);
+    }
+  }
+
+  /**
+   * Stops tracking a buffer released.
+   *
+   * @param buffer the buffer.
+   * @exception IllegalStateException if the buffer is not in use.
+   */
+  private static void endLease(ByteBuffer buffer)
+  {
+    synchronized (leases)
+    {
+      List<Lease> list = leases.get(System.identityHashCode(buffer));
+      if (list != null)
+      {
+        for (Iterator<Lease> i = list.iterator(); i.hasNext(); )
+        {
+          Lease lease = i.next();
+          if (lease.get() == buffer)
+          {
+            i.remove();
+            if (list.isEmpty())
+              leases.remove(System.identityHashCode(buffer));
+            lease.clear();
+            return;
+          }
+        }
+      }
+    }
+    throw new IllegalStateException("buffer released twice or not pooled");
+  }
+
+  /**
+   * Reports the buffers collected without having been released.
+   */
+  private static void reportLeaks()
+  {
+    Reference<? extends ByteBuffer> reference;
+    while ((reference = collected.poll()) != null)
+    {
+      Lease lease = (Lease)reference;
+      synchronized (leases)
+      {
+        List<Lease> list = leases.get(lease.hash);
+        if (list == null || !list.remove(lease))
+          continue;
+        if (list.isEmpty())
+          leases.remove(lease.hash);
+      }
+      leaks.increment();
+      outstanding.decrementAndGet();
+      if (lease.pooled)
+        pooledBytes.addAndGet(-lease.capacity);
+      System.err.println("OCSF: a pooled buffer of " + lease.capacity
+        + " bytes was garbage collected without being released");
+      lease.origin.printStackTrace();
+    }
+  }
+
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * The released buffers of one size class shared by all threads.
+   */
+  private static final class SharedClass
+  {
+    final ConcurrentLinkedQueue<ByteBuffer> buffers =
+      new ConcurrentLinkedQueue<>();
+    final int capacity;
+    final AtomicLong size = new AtomicLong();
+
+    SharedClass(int capacity)
+    {
+      this.capacity = capacity;
+    }
+
+    ByteBuffer poll()
+    {
+      ByteBuffer buffer = buffers.poll();
+      if (buffer != null)
+        size.decrementAndGet();
+      return buffer;
+    }
+
+    boolean offer(ByteBuffer buffer)
+    {
+      if (size.incrementAndGet() > capacity)
+      {
+        size.decrementAndGet();
+        return false;
+      }
+      buffers.offer(buffer);
+      return true;
+    }
+  }
+
+  /**
+   * The released buffers a thread keeps for itself.
+   */
+  private static final class ThreadCache
+  {
+    /**
+     * The thread; not kept from being collected.
+     */
+    final WeakReference<Thread> owner =
+      new WeakReference<>(Thread.currentThread());
+
+    /**
+     * The buffers by size class, or null if the thread has no cache.
+     */
+    final ByteBuffer[][] buffers;
+
+    ThreadCache(ByteBuffer[][] buffers)
+    {
+      this.buffers = buffers;
+    }
+  }
+
+  /**
+   * The record of a buffer handed out, when leak detection is on.
+   */
+  private static final class Lease extends WeakReference<ByteBuffer>
+  {
+    final int hash;
+    final int capacity;
+    final boolean pooled;
+    final Throwable origin = new Throwable("buffer acquired here");
+
+    Lease(ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue)
+    {
+      super(buffer, queue);
+      hash = System.identityHashCode(buffer);
+      capacity = buffer.capacity();
+      pooled = sizeClass(capacity) >= 0
+        && Integer.bitCount(capacity) == 1 && capacity >= 1 << MIN_SHIFT;
+    }
+  }
+}
+// End of BufferPool Class
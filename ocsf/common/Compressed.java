@@ -0,0 +1,150 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.common;
+
+import java.io.Serializable;
+
+/**
+* A <code> Compressed </code> frame carries a message, serialized and
+* then deflated. Frames are made and opened by a connection's
+* <code>MessageCompressor</code>; applications only ever see the
+* message.<p>
+*
+* Most frames continue the deflate stream of their connection and can
+* only be opened in order. Standalone frames are compressed on their
+* own, against a fixed preset dictionary, so that the server can
+* compress a broadcast once and write the same frame to every
+* recipient.<p>
+*
+* A frame may also be written detached: without its bytes, which then
+* follow it on the stream as a long block of data. The server writes
+* shared frames this way, so that the bytes go to each recipient
+* straight from one buffer; the reader attaches them to the frame
+* before opening it.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public final class Compressed implements Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The deflated bytes.
+   */
+  private final byte[] data;
+
+  /**
+   * The length of the serialized message before compression.
+   */
+  private final int length;
+
+  /**
+   * True if the frame does not depend on the previous frames.
+   */
+  private final boolean standalone;
+
+  /**
+   * The number of deflated bytes following a detached frame on the
+   * stream, or -1 if the frame carries its bytes.
+   */
+  private final int detachedLength;
+
+// Constructor ***************************************************************
+
+  /**
+   * Constructs a compressed frame. The array is not copied.
+   *
+   * @param data the deflated bytes.
+   * @param length the length of the serialized message.
+   * @param standalone true if the bytes were compressed on their own
+   *  rather than as part of the connection's stream.
+   */
+  public Compressed(byte[] data, int length, boolean standalone)
+  {
+    this(data, length, standalone, -1);
+  }
+
+  /**
+   * Constructs a frame, detached or not.
+   */
+  private Compressed(byte[] data, int length, boolean standalone,
+    int detachedLength)
+  {
+    this.data = data;
+    this.length = length;
+    this.standalone = standalone;
+    this.detachedLength = detachedLength;
+  }
+
+// Instance methods *********************************************************
+
+  /**
+   * Returns the detached form of this frame, to be written followed by
+   * its bytes as a block of data.
+   *
+   * @return the frame without its bytes.
+   */
+  public Compressed detach()
+  {
+    return new Compressed(null, length, standalone, data.length);
+  }
+
+  /**
+   * Returns this detached frame with its bytes, read from the stream.
+   *
+   * @param data the deflated bytes; not copied.
+   * @return the complete frame.
+   * @exception IllegalArgumentException if the number of bytes is not
+   *  that of the frame.
+   */
+  public Compressed attach(byte[] data)
+  {
+    if (data.length != detachedLength)
+      throw new IllegalArgumentException("expected " + detachedLength
+        + " bytes, got " + data.length);
+    return new Compressed(data, length, standalone);
+  }
+
+// Accessor methods *********************************************************
+
+  /**
+   * @return the deflated bytes.
+   */
+  public byte[] getData()
+  {
+    return data;
+  }
+
+  /**
+   * @return the length of the serialized message.
+   */
+  public int getLength()
+  {
+    return length;
+  }
+
+  /**
+   * @return true if the frame does not depend on the previous frames.
+   */
+  public boolean isStandalone()
+  {
+    return standalone;
+  }
+
+  /**
+   * @return true if the frame's bytes follow it on the stream.
+   */
+  public boolean isDetached()
+  {
+    return data == null;
+  }
+
+  /**
+   * @return the number of bytes following a detached frame, or -1.
+   */
+  public int getDetachedLength()
+  {
+    return detachedLength;
+  }
+}
@@ -0,0 +1,52 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.common;
+
+import java.io.Serializable;
+
+/**
+* A <code> Goodbye </code> frame tells a client that the server is
+* closing. The client sends it back once it has read everything the
+* server sent before it; by the time the server reads the answer, it
+* has handled every message the client sent before, so it can close
+* the connection without dropping messages still in flight. The frame
+* carries the time the client should wait before reconnecting, which
+* the server spreads among its clients so that they do not all come
+* back at once. Goodbyes are handled by the framework and never reach
+* the application.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public final class Goodbye implements Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The time to wait before reconnecting, in ms.
+   */
+  private final int reconnectDelay;
+
+// Constructor ***************************************************************
+
+  /**
+   * Constructs a goodbye.
+   *
+   * @param reconnectDelay the time the client should wait before
+   *  reconnecting, in ms.
+   */
+  public Goodbye(int reconnectDelay)
+  {
+    this.reconnectDelay = reconnectDelay;
+  }
+
+// Accessor methods *********************************************************
+
+  /**
+   * @return the time to wait before reconnecting, in ms.
+   */
+  public int getReconnectDelay()
+  {
+    return reconnectDelay;
+  }
+}
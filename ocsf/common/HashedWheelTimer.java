@@ -0,0 +1,331 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.common;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+* The <code> HashedWheelTimer </code> class runs many short tasks
+* after a delay using a single thread. Tasks are hashed into the
+* slots of a wheel that turns one slot per tick; scheduling and
+* cancelling are O(1), and the thread only looks at the slot whose
+* tick has come.<p>
+*
+* The timer is meant for timeouts that are usually cancelled or
+* rescheduled (idle connections, heartbeats), not for precise
+* timing: a task runs within one tick after its deadline. Tasks are
+* run by the timer thread, so they must be short.<p>
+*
+* The timer thread is started when the first task is scheduled and
+* parks whenever no task is pending.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class HashedWheelTimer
+{
+  // INSTANCE VARIABLES *********************************************
+
+  /**
+   * The duration of one tick, in nanoseconds.
+   */
+  private final long tickNanos;
+
+  /**
+   * The slots of the wheel. Only accessed by the timer thread.
+   */
+  private final ArrayDeque<Timeout>[] wheel;
+
+  /**
+   * Used to compute slot numbers; the wheel size is a power of two.
+   */
+  private final int mask;
+
+  /**
+   * Timeouts scheduled but not yet placed on the wheel.
+   */
+  private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+
+  /**
+   * The number of timeouts that have neither expired nor been
+   * cancelled.
+   */
+  private final AtomicInteger active = new AtomicInteger();
+
+  /**
+   * The timer thread. It is created with the timer, so that it
+   * belongs to the thread group of the timer's creator rather than
+   * to that of whichever thread schedules the first task.
+   */
+  private final Thread worker;
+
+  /**
+   * Set once the timer thread has been started.
+   */
+  private final AtomicBoolean started = new AtomicBoolean();
+
+  /**
+   * Set when the timer is stopped.
+   */
+  private volatile boolean stopped = false;
+
+  /**
+   * The number of ticks since the timer started. Only accessed by
+   * the timer thread.
+   */
+  private long tick = 0;
+
+  /**
+   * The time of tick zero, on the <code>System.nanoTime()</code>
+   * scale. Only accessed by the timer thread.
+   */
+  private long start;
+
+
+// CONSTRUCTOR ******************************************************
+
+  /**
+   * Constructs a timer.
+   *
+   * @param name the name of the timer thread.
+   * @param tickMillis the duration of one tick, in ms.
+   * @param wheelSize the number of slots; rounded up to a power of two.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public HashedWheelTimer(String name, long tickMillis, int wheelSize)
+  {
+    if (tickMillis <= 0 || wheelSize <= 0)
+      throw new IllegalArgumentException(
+        "tick and wheel size must be positive");
+
+    int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+    this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+    this.wheel = new ArrayDeque[size];
+    this.mask = size - 1;
+    for (int i=0; i<size; i++)
+      wheel[i] = new ArrayDeque<>();
+
+    this.worker = new Thread(this::run, name);
+    worker.setDaemon(true);
+  }
+
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Runs a task once after a delay.
+   *
+   * @param task the task to run on the timer thread.
+   * @param delayMillis the delay in ms.
+   * @return a handle that can be used to cancel the task.
+   * @exception IllegalStateException if the timer was stopped.
+   */
+  public Timeout schedule(Runnable task, long delayMillis)
+  {
+    if (stopped)
+      throw new IllegalStateException("timer stopped");
+
+    // Clamped far enough below overflow to compare deadlines safely
+    long delay = Math.min(Long.MAX_VALUE / 4,
+      TimeUnit.MILLISECONDS.toNanos(Math.max(0L, delayMillis)));
+    Timeout timeout = new Timeout(task, System.nanoTime() + delay);
+
+    pending.add(timeout);
+    if (active.getAndIncrement() == 0)
+      wakeUp();
+    return timeout;
+  }
+
+  /**
+   * Stops the timer. Tasks that have not run are abandoned.
+   */
+  public void stop()
+  {
+    stopped = true;
+    LockSupport.unpark(worker);
+  }
+
+  /**
+   * Returns the number of tasks that are waiting to run.
+   *
+   * @return the number of pending tasks.
+   */
+  public int getPendingCount()
+  {
+    return active.get();
+  }
+
+  /**
+   * Starts the timer thread, or unparks it if it is idle.
+   */
+  private void wakeUp()
+  {
+    if (started.compareAndSet(false, true))
+      worker.start();
+    else
+      LockSupport.unpark(worker);
+  }
+
+  /**
+   * Turns the wheel. Run by the timer thread.
+   */
+  private void run()
+  {
+    start = System.nanoTime();
+
+    while (!stopped)
+    {
+      if (active.get() == 0)
+      {
+        // Only cancelled timeouts are left; let them be collected
+        for (int i=0; i<wheel.length; i++)
+          wheel[i].clear();
+
+        LockSupport.park(this);
+        // Resume counting ticks from now rather than catching up
+        start = System.nanoTime() - tick * tickNanos;
+        continue;
+      }
+
+      long sleep = start + (tick + 1) * tickNanos - System.nanoTime();
+      if (sleep > 0)
+      {
+        LockSupport.parkNanos(this, sleep);
+        continue;
+      }
+
+      // Timeouts scheduled during the last tick may already be due
+      tick++;
+      transferPending();
+      expire(wheel[(int)(tick & mask)]);
+    }
+  }
+
+  /**
+   * Places newly scheduled timeouts on the wheel.
+   */
+  private void transferPending()
+  {
+    Timeout timeout;
+    while ((timeout = pending.poll()) != null)
+    {
+      if (timeout.isCancelled())
+        continue;
+
+      // A timeout goes in the slot of the first tick at or after its
+      // deadline, the current one if it is due, and waits for as many
+      // full turns as needed; the current slot is expired next
+      long due = Math.max(tick,
+        (timeout.deadline - start + tickNanos - 1) / tickNanos);
+      timeout.rounds = (due - tick) / wheel.length;
+      wheel[(int)(due & mask)].add(timeout);
+    }
+  }
+
+  /**
+   * Runs the timeouts of a slot that are due at this turn, and drops
+   * the cancelled ones.
+   *
+   * @param slot the slot of the current tick.
+   */
+  private void expire(ArrayDeque<Timeout> slot)
+  {
+    for (Iterator<Timeout> it = slot.iterator(); it.hasNext(); )
+    {
+      Timeout timeout = it.next();
+      if (timeout.isCancelled())
+      {
+        it.remove();
+      }
+      else if (timeout.rounds > 0)
+      {
+        timeout.rounds--;
+      }
+      else
+      {
+        it.remove();
+        timeout.expire();
+      }
+    }
+  }
+
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * A handle on a task scheduled with a <code>HashedWheelTimer</code>.
+   */
+  public final class Timeout
+  {
+    /**
+     * The task to run.
+     */
+    private final Runnable task;
+
+    /**
+     * The time at which the task is due, on the
+     * <code>System.nanoTime()</code> scale.
+     */
+    private final long deadline;
+
+    /**
+     * The number of full turns left before expiry. Only accessed by
+     * the timer thread.
+     */
+    private long rounds;
+
+    /**
+     * 0 while waiting, 1 once run, 2 once cancelled.
+     */
+    private final AtomicInteger state = new AtomicInteger();
+
+    private Timeout(Runnable task, long deadline)
+    {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    /**
+     * Prevents the task from running if it has not run yet.
+     *
+     * @return true if the task was cancelled by this call.
+     */
+    public boolean cancel()
+    {
+      if (!state.compareAndSet(0, 2))
+        return false;
+
+      active.decrementAndGet();
+      return true;
+    }
+
+    /**
+     * @return true if the task was cancelled.
+     */
+    public boolean isCancelled()
+    {
+      return state.get() == 2;
+    }
+
+    /**
+     * Runs the task unless it was cancelled.
+     */
+    private void expire()
+    {
+      if (!state.compareAndSet(0, 1))
+        return;
+
+      active.decrementAndGet();
+      try
+      {
+        task.run();
+      }
+      // A failing task must not stop the timer
+      catch (Throwable t) {}
+    }
+  }
+}
+// End of HashedWheelTimer Class
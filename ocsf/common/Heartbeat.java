@@ -0,0 +1,108 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.common;
+
+import java.io.Serializable;
+
+/**
+* A <code> Heartbeat </code> is a control frame exchanged between
+* <code>AbstractServer</code> and <code>AbstractClient</code> to keep
+* a connection alive and measure its round trip time. Heartbeats are
+* answered by the framework itself and are never passed to
+* <code>handleMessageFromClient</code> or
+* <code>handleMessageFromServer</code>.<p>
+*
+* A ping carries the sender's <code>System.nanoTime()</code>; the
+* reply echoes it back unchanged, so the sender alone computes the
+* round trip time and the two clocks never need to agree.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public final class Heartbeat implements Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * True for a reply, false for a ping.
+   */
+  private final boolean reply;
+
+  /**
+   * The time at which the ping was sent, on the sender's
+   * System.nanoTime() scale.
+   */
+  private final long timestamp;
+
+  /**
+   * The interval, in ms, at which the sender pings. The receiver may
+   * consider the sender dead if nothing arrives for a few intervals.
+   */
+  private final int interval;
+
+// Constructor ***************************************************************
+
+  /**
+   * Constructs a heartbeat.
+   *
+   * @param reply true for a reply, false for a ping.
+   * @param timestamp the time the ping was sent.
+   * @param interval the ping interval of the sender, in ms.
+   */
+  private Heartbeat(boolean reply, long timestamp, int interval)
+  {
+    this.reply = reply;
+    this.timestamp = timestamp;
+    this.interval = interval;
+  }
+
+  /**
+   * Creates a ping stamped with the current time.
+   *
+   * @param interval the ping interval of the sender, in ms.
+   * @return the new ping.
+   */
+  public static Heartbeat ping(int interval)
+  {
+    return new Heartbeat(false, System.nanoTime(), interval);
+  }
+
+  /**
+   * Creates the reply to this ping.
+   *
+   * @return the reply, carrying this ping's timestamp.
+   */
+  public Heartbeat reply()
+  {
+    return new Heartbeat(true, timestamp, interval);
+  }
+
+// Accessor methods *********************************************************
+
+  /**
+   * @return true if this heartbeat is a reply to a ping.
+   */
+  public boolean isReply()
+  {
+    return reply;
+  }
+
+  /**
+   * Returns the time elapsed since the ping was sent. Only meaningful
+   * for a reply received by the sender of the ping.
+   *
+   * @return the round trip time in nanoseconds.
+   */
+  public long getRoundTripNanos()
+  {
+    return System.nanoTime() - timestamp;
+  }
+
+  /**
+   * @return the ping interval of the sender, in ms.
+   */
+  public int getInterval()
+  {
+    return interval;
+  }
+}
@@ -0,0 +1,67 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.common;
+
+import java.io.Serializable;
+
+/**
+* A <code> Hello </code> frame negotiates optional features of a
+* connection. A client that wants a feature sends a hello listing it
+* right after connecting; the server answers with the features it
+* accepts, and from then on both sides may use them. A client that
+* sends no hello gets none of them, so older clients keep working.
+* Hellos are handled by the framework and never reach the
+* application.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public final class Hello implements Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Feature flag: messages above a threshold may be sent as
+   * <code>Compressed</code> frames.
+   */
+  public static final int COMPRESSION = 1;
+
+  /**
+   * The features offered or accepted, as a set of flags.
+   */
+  private final int features;
+
+// Constructor ***************************************************************
+
+  /**
+   * Constructs a hello.
+   *
+   * @param features the features offered or accepted, as a set of
+   *  flags.
+   */
+  public Hello(int features)
+  {
+    this.features = features;
+  }
+
+// Accessor methods *********************************************************
+
+  /**
+   * @return the features, as a set of flags.
+   */
+  public int getFeatures()
+  {
+    return features;
+  }
+
+  /**
+   * Returns true if a feature is offered or accepted.
+   *
+   * @param feature the flag of the feature.
+   * @return true if the flag is set.
+   */
+  public boolean supports(int feature)
+  {
+    return (features & feature) != 0;
+  }
+}
@@ -0,0 +1,599 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.common;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.zip.*;
+import ocsf.metrics.Counter;
+
+/**
+* A <code> MessageCompressor </code> compresses the messages written to
+* one connection and decompresses those read from it.<p>
+*
+* Each direction keeps a single deflate stream for the life of the
+* connection, flushed after every message. The compressor therefore
+* remembers the last 32 KB it has seen, and repeated content (class
+* descriptions, field names, recurring text) costs almost nothing
+* after its first occurrence. The price is that frames must be opened
+* in the order in which they were made, which the connection's stream
+* guarantees, and about 300 KB of native memory per connection for
+* each direction in use. Both are only allocated when first needed.<p>
+*
+* Standalone frames are compressed on their own instead, against a
+* preset dictionary holding the serialized form of the framework's
+* usual frames. They compress a little less well, but can be written
+* to any number of connections, so a broadcast is compressed once
+* rather than once per recipient.<p>
+*
+* Messages smaller than a threshold are left alone, since compressing
+* them would cost more time than it saves bytes.<p>
+*
+* The compressed and decompressed bytes are staged in buffers from the
+* <code>BufferPool</code>, so that a frame only costs the array it is
+* sent in; the pool falls back to the heap for messages too large to
+* be pooled. The lengths a frame announces come from the peer, so they
+* are checked against a maximum message size before anything is
+* allocated for it.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class MessageCompressor
+{
+  // CLASS VARIABLES ************************************************
+
+  /**
+   * The preset dictionary of standalone frames: a serialized batch
+   * of timestamped strings, whose class descriptions every standalone
+   * broadcast would otherwise repeat.
+   */
+  private static final byte[] DICTIONARY = dictionary();
+
+  /**
+   * The default maximum size of a decompressed message, in bytes.
+   */
+  public static final int DEFAULT_MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+
+  /**
+   * The largest serialization buffer kept between messages, in bytes.
+   * A larger message grows the buffer, which is then shrunk back, so
+   * that one large message does not cost its size for the life of the
+   * connection.
+   */
+  private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+  /**
+   * The input of a deflater done with its message.
+   */
+  private static final byte[] NO_INPUT = new byte[0];
+
+  // INSTANCE VARIABLES *********************************************
+
+  /**
+   * Counts the serialized size of the messages compressed or
+   * decompressed, or null.
+   */
+  private final Counter uncompressedBytes;
+
+  /**
+   * Counts the compressed size of the same messages, or null.
+   */
+  private final Counter compressedBytes;
+
+  /**
+   * The largest serialized message accepted from the peer, in bytes.
+   */
+  private final int maxMessageSize;
+
+  /**
+   * The compressor of outgoing messages; guarded by
+   * <code>deflateLock</code>.
+   */
+  private Deflater deflater;
+
+  /**
+   * The compressor of standalone frames, reset for each of them;
+   * guarded by <code>deflateLock</code>.
+   */
+  private Deflater standaloneDeflater;
+
+  /**
+   * The decompressor of incoming messages; guarded by
+   * <code>inflateLock</code>.
+   */
+  private Inflater inflater;
+
+  /**
+   * The decompressor of standalone frames, reset for each of them;
+   * guarded by <code>inflateLock</code>.
+   */
+  private Inflater standaloneInflater;
+
+  /**
+   * Lock guarding the deflaters and the serialization buffer.
+   */
+  private final Object deflateLock = new Object();
+
+  /**
+   * Lock guarding the inflaters.
+   */
+  private final Object inflateLock = new Object();
+
+  /**
+   * The buffer in which outgoing messages are serialized.
+   */
+  private final Buffer buffer = new Buffer();
+
+  /**
+   * Receives the output of the flush marker, which has none; guarded
+   * by <code>inflateLock</code>.
+   */
+  private final byte[] marker = new byte[1];
+
+  /**
+   * Set once the compressor has been closed.
+   */
+  private boolean ended = false;
+
+
+// CONSTRUCTOR ******************************************************
+
+  /**
+   * Constructs a compressor accepting messages of up to the default
+   * maximum size.
+   *
+   * @param uncompressedBytes counts the serialized size of the
+   *  messages compressed or decompressed; may be null.
+   * @param compressedBytes counts the compressed size of the same
+   *  messages; may be null.
+   */
+  public MessageCompressor(Counter uncompressedBytes,
+    Counter compressedBytes)
+  {
+    this(uncompressedBytes, compressedBytes, DEFAULT_MAX_MESSAGE_SIZE);
+  }
+
+  /**
+   * Constructs a compressor.
+   *
+   * @param uncompressedBytes counts the serialized size of the
+   *  messages compressed or decompressed; may be null.
+   * @param compressedBytes counts the compressed size of the same
+   *  messages; may be null.
+   * @param maxMessageSize the largest serialized message accepted
+   *  from the peer, in bytes.
+   */
+  public MessageCompressor(Counter uncompressedBytes,
+    Counter compressedBytes, int maxMessageSize)
+  {
+    if (maxMessageSize <= 0)
+      throw new IllegalArgumentException("maxMessageSize <= 0");
+    this.uncompressedBytes = uncompressedBytes;
+    this.compressedBytes = compressedBytes;
+    this.maxMessageSize = maxMessageSize;
+  }
+
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Compresses a message if it is large enough. Messages must be
+   * written in the order in which they are compressed. A string
+   * shorter than the threshold is returned at once; other messages
+   * are serialized to find their size.
+   *
+   * @param msg the message.
+   * @param threshold the serialized size, in bytes, from which
+   *  messages are compressed.
+   * @return a <code>Compressed</code> frame, or the message itself.
+   * @exception IOException if the message cannot be serialized or the
+   *  compressor is closed.
+   */
+  public Object compress(Object msg, int threshold) throws IOException
+  {
+    if (isSmall(msg, threshold))
+      return msg;
+
+    synchronized (deflateLock)
+    {
+      try
+      {
+        int length = serialize(msg);
+        if (length < threshold)
+          return msg;
+
+        if (deflater == null)
+          deflater = new Deflater();
+        deflater.setInput(buffer.array(), 0, length);
+        return deflate(deflater, Deflater.SYNC_FLUSH, length, false);
+      }
+      finally
+      {
+        buffer.trim(MAX_RETAINED_BUFFER);
+      }
+    }
+  }
+
+  /**
+   * Compresses a message into a standalone frame if it is large
+   * enough. The frame may be written to any connection whose client
+   * accepted compression, in any order.
+   *
+   * @param msg the message.
+   * @param threshold the serialized size, in bytes, from which
+   *  messages are compressed.
+   * @return the frame, or null if the message is too small.
+   * @exception IOException if the message cannot be serialized or the
+   *  compressor is closed.
+   */
+  public Compressed compressStandalone(Object msg, int threshold)
+    throws IOException
+  {
+    if (isSmall(msg, threshold))
+      return null;
+
+    synchronized (deflateLock)
+    {
+      try
+      {
+        int length = serialize(msg);
+        if (length < threshold)
+          return null;
+
+        if (standaloneDeflater == null)
+          standaloneDeflater = new Deflater();
+        else
+          standaloneDeflater.reset();
+        standaloneDeflater.setDictionary(DICTIONARY);
+        standaloneDeflater.setInput(buffer.array(), 0, length);
+        standaloneDeflater.finish();
+        return deflate(standaloneDeflater, Deflater.NO_FLUSH, length, true);
+      }
+      finally
+      {
+        buffer.trim(MAX_RETAINED_BUFFER);
+      }
+    }
+  }
+
+  /**
+   * Decompresses a frame. Frames that are not standalone must be
+   * decompressed in the order in which they were compressed.
+   *
+   * @param frame the frame.
+   * @return the message it carries.
+   * @exception IOException if the frame is corrupt or the compressor
+   *  is closed.
+   * @exception ClassNotFoundException if the class of the message
+   *  cannot be found.
+   */
+  public Object decompress(Compressed frame)
+    throws IOException, ClassNotFoundException
+  {
+    checkLengths(frame);
+    ByteBuffer bytes = BufferPool.acquire(frame.getLength());
+    try
+    {
+      synchronized (inflateLock)
+      {
+        if (ended)
+          throw new IOException("compressor closed");
+
+        try
+        {
+          if (frame.isStandalone())
+          {
+            if (standaloneInflater == null)
+              standaloneInflater = new Inflater();
+            else
+              standaloneInflater.reset();
+            standaloneInflater.setInput(frame.getData());
+            inflate(standaloneInflater, bytes);
+          }
+          else
+          {
+            if (inflater == null)
+              inflater = new Inflater();
+            inflater.setInput(frame.getData());
+            inflate(inflater, bytes);
+
+            // Consume the flush marker, which produces no output, so
+            // that it is not mistaken for the start of the next frame
+            while (inflater.getRemaining() > 0)
+            {
+              int remaining = inflater.getRemaining();
+              if (inflater.inflate(marker) != 0)
+                throw new IOException("compressed frame too long");
+              if (inflater.getRemaining() == remaining)
+                break;
+            }
+          }
+        }
+        catch (DataFormatException e)
+        {
+          throw new IOException("corrupt compressed frame", e);
+        }
+      }
+
+      count(frame.getLength(), frame.getData().length);
+      bytes.flip();
+      ObjectInputStream in =
+        new ObjectInputStream(new BufferInputStream(bytes));
+      return in.readObject();
+    }
+    finally
+    {
+      BufferPool.release(bytes);
+    }
+  }
+
+  /**
+   * Checks the lengths announced by a frame read from the peer, before
+   * anything is allocated for it: the length of the message, and that
+   * of the bytes following a detached frame, which deflate may make a
+   * little larger than the message.
+   *
+   * @param frame the frame.
+   * @exception StreamCorruptedException if a length is negative or too
+   *  large.
+   */
+  public void checkLengths(Compressed frame) throws StreamCorruptedException
+  {
+    int length = frame.getLength();
+    if (length < 0 || length > maxMessageSize)
+      throw new StreamCorruptedException("compressed message of "
+        + length + " bytes; the limit is " + maxMessageSize);
+
+    // The bound zlib gives for the deflated size of the largest message
+    long bound = maxMessageSize + (maxMessageSize >> 12)
+      + (maxMessageSize >> 14) + 13;
+    int detached = frame.getDetachedLength();
+    if (frame.isDetached() && (detached < 0 || detached > bound))
+      throw new StreamCorruptedException("compressed frame of "
+        + detached + " bytes; the limit is " + bound);
+  }
+
+  /**
+   * @return the largest serialized message accepted from the peer, in
+   *  bytes.
+   */
+  public int getMaxMessageSize()
+  {
+    return maxMessageSize;
+  }
+
+  /**
+   * Releases the native memory of the compressor. It cannot be used
+   * afterwards.
+   */
+  public void end()
+  {
+    synchronized (deflateLock)
+    {
+      synchronized (inflateLock)
+      {
+        ended = true;
+        if (deflater != null)
+          deflater.end();
+        if (standaloneDeflater != null)
+          standaloneDeflater.end();
+        if (inflater != null)
+          inflater.end();
+        if (standaloneInflater != null)
+          standaloneInflater.end();
+        deflater = null;
+        standaloneDeflater = null;
+        inflater = null;
+        standaloneInflater = null;
+      }
+    }
+  }
+
+  /**
+   * Returns true if a message is known to be below the threshold
+   * without serializing it.
+   */
+  private static boolean isSmall(Object msg, int threshold)
+  {
+    return threshold <= 0 || msg == null
+      || (msg instanceof String && ((String)msg).length() < threshold);
+  }
+
+  /**
+   * Serializes a message into the buffer. Called with the deflate
+   * lock held.
+   *
+   * @param msg the message.
+   * @return its serialized length.
+   * @exception IOException if the message cannot be serialized or the
+   *  compressor is closed.
+   */
+  private int serialize(Object msg) throws IOException
+  {
+    if (ended)
+      throw new IOException("compressor closed");
+
+    buffer.reset();
+    ObjectOutputStream out = new ObjectOutputStream(buffer);
+    out.writeObject(msg);
+    out.close();
+    return buffer.size();
+  }
+
+  /**
+   * Drains a deflater whose input is set, and makes a frame of the
+   * output. Called with the deflate lock held.
+   *
+   * @param deflater the deflater.
+   * @param flush the flush mode.
+   * @param length the length of the input.
+   * @param standalone true if the input is finished, for a standalone
+   *  frame.
+   * @return the frame.
+   */
+  private Compressed deflate(Deflater deflater, int flush, int length,
+    boolean standalone)
+  {
+    ByteBuffer out = BufferPool.acquire(Math.max(64, length / 2));
+    try
+    {
+      while (true)
+      {
+        deflater.deflate(out, flush);
+        if (out.hasRemaining() && (!standalone || deflater.finished()))
+          break;
+
+        // A full output buffer means there may be more
+        if (!out.hasRemaining())
+        {
+          ByteBuffer larger = BufferPool.acquire(out.capacity() * 2);
+          larger.put(out.flip());
+          BufferPool.release(out);
+          out = larger;
+        }
+      }
+
+      // Drop the deflater's reference to the serialization buffer, so
+      // that a trimmed buffer can be collected
+      deflater.setInput(NO_INPUT);
+
+      byte[] data = new byte[out.flip().remaining()];
+      out.get(data);
+      count(length, data.length);
+      return new Compressed(data, length, standalone);
+    }
+    finally
+    {
+      BufferPool.release(out);
+    }
+  }
+
+  /**
+   * Fills a buffer, up to its limit, from an inflater whose input is
+   * set. Called with the inflate lock held.
+   *
+   * @param inflater the inflater.
+   * @param bytes the buffer to fill.
+   * @exception IOException if the input ends early.
+   * @exception DataFormatException if the input is corrupt.
+   */
+  private static void inflate(Inflater inflater, ByteBuffer bytes)
+    throws IOException, DataFormatException
+  {
+    while (bytes.hasRemaining())
+    {
+      if (inflater.inflate(bytes) == 0)
+      {
+        if (inflater.needsDictionary())
+          inflater.setDictionary(DICTIONARY);
+        else if (inflater.needsInput() || inflater.finished())
+          throw new IOException("truncated compressed frame");
+      }
+    }
+  }
+
+  /**
+   * Updates the counters, if any.
+   *
+   * @param uncompressed the serialized size of a message.
+   * @param compressed its compressed size.
+   */
+  private void count(long uncompressed, long compressed)
+  {
+    if (uncompressedBytes != null)
+      uncompressedBytes.add(uncompressed);
+    if (compressedBytes != null)
+      compressedBytes.add(compressed);
+  }
+
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Builds the preset dictionary of standalone frames. Both sides
+   * build it the same way, so it is never sent.
+   *
+   * @return the dictionary.
+   */
+  private static byte[] dictionary()
+  {
+    try
+    {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(new Batch(new Object[] {new Timestamped("", 0)}));
+      out.close();
+      return bytes.toByteArray();
+    }
+    catch (IOException e)
+    {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * An input stream reading a buffer, up to its limit.
+   */
+  private static class BufferInputStream extends InputStream
+  {
+    private final ByteBuffer buffer;
+
+    BufferInputStream(ByteBuffer buffer)
+    {
+      this.buffer = buffer;
+    }
+
+    public int read()
+    {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    public int read(byte[] b, int off, int len)
+    {
+      if (len == 0)
+        return 0;
+      if (!buffer.hasRemaining())
+        return -1;
+      len = Math.min(len, buffer.remaining());
+      buffer.get(b, off, len);
+      return len;
+    }
+
+    public int available()
+    {
+      return buffer.remaining();
+    }
+  }
+
+  /**
+   * A byte array output stream whose array can be read in place.
+   */
+  private static class Buffer extends ByteArrayOutputStream
+  {
+    Buffer()
+    {
+      super(1024);
+    }
+
+    byte[] array()
+    {
+      return buf;
+    }
+
+    /**
+     * Empties the buffer, and shrinks it back to its initial size if it
+     * has grown larger than a maximum.
+     */
+    void trim(int max)
+    {
+      reset();
+      if (buf.length > max)
+        buf = new byte[1024];
+    }
+  }
+}
+// End of MessageCompressor Class
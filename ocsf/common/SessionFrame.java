@@ -0,0 +1,132 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.common;
+
+import java.io.Serializable;
+
+/**
+* A <code> SessionFrame </code> carries one logical session's traffic
+* over a connection shared by many sessions, such as a gateway's
+* connection to the server.<p>
+*
+* The client numbers its sessions. An OPEN frame starts a session,
+* DATA frames carry its messages in both directions, and a CLOSE
+* frame ends it from either side. The server gives each session its
+* own <code>ConnectionToClient</code>, so that applications handle it
+* like any other client.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see ocsf.client.MultiplexedClient
+*/
+public final class SessionFrame implements Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Type of a frame opening a session.
+   */
+  public static final int OPEN = 0;
+
+  /**
+   * Type of a frame carrying a message.
+   */
+  public static final int DATA = 1;
+
+  /**
+   * Type of a frame closing a session.
+   */
+  public static final int CLOSE = 2;
+
+  /**
+   * The type of the frame: OPEN, DATA or CLOSE.
+   */
+  private final int type;
+
+  /**
+   * The number of the session, chosen by the client.
+   */
+  private final int session;
+
+  /**
+   * The message carried by a DATA frame; null otherwise.
+   */
+  private final Object payload;
+
+// Constructor ***************************************************************
+
+  /**
+   * Constructs a frame.
+   *
+   * @param type the type of the frame.
+   * @param session the number of the session.
+   * @param payload the message carried, or null.
+   */
+  private SessionFrame(int type, int session, Object payload)
+  {
+    this.type = type;
+    this.session = session;
+    this.payload = payload;
+  }
+
+  /**
+   * Creates a frame opening a session.
+   *
+   * @param session the number of the new session.
+   * @return the frame.
+   */
+  public static SessionFrame open(int session)
+  {
+    return new SessionFrame(OPEN, session, null);
+  }
+
+  /**
+   * Creates a frame carrying a message of a session.
+   *
+   * @param session the number of the session.
+   * @param payload the message.
+   * @return the frame.
+   */
+  public static SessionFrame data(int session, Object payload)
+  {
+    return new SessionFrame(DATA, session, payload);
+  }
+
+  /**
+   * Creates a frame closing a session.
+   *
+   * @param session the number of the session.
+   * @return the frame.
+   */
+  public static SessionFrame close(int session)
+  {
+    return new SessionFrame(CLOSE, session, null);
+  }
+
+// Accessor methods *********************************************************
+
+  /**
+   * @return the type of the frame: OPEN, DATA or CLOSE.
+   */
+  public int getType()
+  {
+    return type;
+  }
+
+  /**
+   * @return the number of the session.
+   */
+  public int getSession()
+  {
+    return session;
+  }
+
+  /**
+   * @return the message carried by a DATA frame, or null.
+   */
+  public Object getPayload()
+  {
+    return payload;
+  }
+}
@@ -0,0 +1,68 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.common;
+
+import java.io.Serializable;
+
+/**
+* A <code> Timestamped </code> frame carries a message together with
+* the time at which its originating client sent it, so that the
+* latency from <code>sendToServer</code> to the delivery of a
+* broadcast in <code>handleMessageFromServer</code> can be measured.
+* Frames are wrapped and unwrapped by the framework; applications only
+* ever see the message.<p>
+*
+* The time is taken from <code>System.nanoTime()</code>, which on
+* Linux is the system-wide monotonic clock. Latencies are therefore
+* only meaningful between processes running on the same host.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public final class Timestamped implements Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The message.
+   */
+  private final Object message;
+
+  /**
+   * The time at which the originating client sent the message.
+   */
+  private final long sentNanos;
+
+// Constructor ***************************************************************
+
+  /**
+   * Constructs a timestamped frame.
+   *
+   * @param message the message.
+   * @param sentNanos the time at which the message was first sent,
+   *  on the System.nanoTime() scale.
+   */
+  public Timestamped(Object message, long sentNanos)
+  {
+    this.message = message;
+    this.sentNanos = sentNanos;
+  }
+
+// Accessor methods *********************************************************
+
+  /**
+   * @return the message.
+   */
+  public Object getMessage()
+  {
+    return message;
+  }
+
+  /**
+   * @return the time at which the message was first sent.
+   */
+  public long getSentNanos()
+  {
+    return sentNanos;
+  }
+}
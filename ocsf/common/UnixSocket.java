@@ -0,0 +1,281 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.common;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+* A <code> UnixSocket </code> presents a connected Unix domain socket
+* channel as a <code>Socket</code>, so that clients and servers on the
+* same host can exchange messages without going through the TCP/IP
+* stack, with the same code as over TCP. The JDK gives Unix domain
+* channels no socket of their own.<p>
+*
+* The socket has no Internet address: <code>getInetAddress</code>
+* returns null. Its streams read and write the channel directly. A
+* read timeout closes the socket when it expires, whereas that of a
+* TCP socket leaves it open; the framework treats read timeouts as
+* fatal either way.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public final class UnixSocket extends Socket
+{
+  // CLASS VARIABLES ************************************************
+
+  /**
+   * The timer closing the sockets whose reads time out.
+   */
+  private static final HashedWheelTimer TIMER =
+    new HashedWheelTimer("ocsf unix socket timer", 100, 512);
+
+  /**
+   * The size requested for the send and receive buffers, in bytes.
+   * The default is a few hundred KB, where loopback TCP grows its
+   * buffers to several MB; a server broadcasting to a client that is
+   * itself sending fast would fill it much sooner.
+   */
+  private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+
+  // INSTANCE VARIABLES *********************************************
+
+  /**
+   * The connected channel.
+   */
+  private final SocketChannel channel;
+
+  /**
+   * The path of the socket file.
+   */
+  private final Path path;
+
+  /**
+   * The stream reading the channel.
+   */
+  private final InputStream input = new ChannelInput();
+
+  /**
+   * The stream writing the channel.
+   */
+  private final OutputStream output = new ChannelOutput();
+
+  /**
+   * The read timeout, in ms; zero means none.
+   */
+  private volatile int timeout = 0;
+
+  /**
+   * Set when the socket was closed by a read timeout.
+   */
+  private volatile boolean timedOut = false;
+
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Wraps a connected channel, which must be in blocking mode, and
+   * enlarges its buffers as far as the system allows.
+   *
+   * @param channel the channel.
+   * @param path the path of the socket file.
+   */
+  public UnixSocket(SocketChannel channel, Path path)
+  {
+    this.channel = channel;
+    this.path = path;
+
+    try
+    {
+      channel.setOption(StandardSocketOptions.SO_SNDBUF, BUFFER_SIZE);
+      channel.setOption(StandardSocketOptions.SO_RCVBUF, BUFFER_SIZE);
+    }
+    catch (IOException ex) {}  // Keep the default sizes
+  }
+
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Connects to the Unix domain socket at a path.
+   *
+   * @param path the path of the socket file.
+   * @return the connected socket.
+   * @exception IOException if no server listens at the path.
+   */
+  public static UnixSocket connect(Path path) throws IOException
+  {
+    return new UnixSocket(
+      SocketChannel.open(UnixDomainSocketAddress.of(path)), path);
+  }
+
+
+// INSTANCE METHODS *************************************************
+
+  public InputStream getInputStream()
+  {
+    return input;
+  }
+
+  public OutputStream getOutputStream()
+  {
+    return output;
+  }
+
+  public SocketChannel getChannel()
+  {
+    return channel;
+  }
+
+  /**
+   * @return null, since the socket has no Internet address.
+   */
+  public InetAddress getInetAddress()
+  {
+    return null;
+  }
+
+  /**
+   * @return the path of the socket file.
+   */
+  public Path getPath()
+  {
+    return path;
+  }
+
+  public SocketAddress getRemoteSocketAddress()
+  {
+    return UnixDomainSocketAddress.of(path);
+  }
+
+  public void setSoTimeout(int timeout) throws SocketException
+  {
+    if (timeout < 0)
+      throw new IllegalArgumentException("timeout < 0");
+    this.timeout = timeout;
+  }
+
+  public int getSoTimeout()
+  {
+    return timeout;
+  }
+
+  public boolean isConnected()
+  {
+    return channel.isConnected();
+  }
+
+  public boolean isClosed()
+  {
+    return !channel.isOpen();
+  }
+
+  public void shutdownInput() throws IOException
+  {
+    channel.shutdownInput();
+  }
+
+  public void shutdownOutput() throws IOException
+  {
+    channel.shutdownOutput();
+  }
+
+  public void close() throws IOException
+  {
+    channel.close();
+  }
+
+  public String toString()
+  {
+    return "unix:" + path;
+  }
+
+  /**
+   * Closes the socket when a read times out.
+   */
+  private void expire()
+  {
+    timedOut = true;
+    try
+    {
+      channel.close();
+    }
+    catch (IOException ex) {}
+  }
+
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * Reads the channel, closing the socket if a read lasts longer than
+   * the timeout.
+   */
+  private final class ChannelInput extends InputStream
+  {
+    private final byte[] one = new byte[1];
+
+    public int read() throws IOException
+    {
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+      if (len == 0)
+        return 0;
+
+      int limit = timeout;
+      HashedWheelTimer.Timeout expiry =
+        limit > 0 ? TIMER.schedule(UnixSocket.this::expire, limit) : null;
+      try
+      {
+        return channel.read(ByteBuffer.wrap(b, off, len));
+      }
+      catch (AsynchronousCloseException ex)
+      {
+        if (timedOut)
+          throw new SocketTimeoutException("Read timed out");
+        throw ex;
+      }
+      finally
+      {
+        if (expiry != null)
+          expiry.cancel();
+      }
+    }
+
+    public void close() throws IOException
+    {
+      UnixSocket.this.close();
+    }
+  }
+
+  /**
+   * Writes the channel.
+   */
+  private final class ChannelOutput extends OutputStream
+  {
+    public void write(int b) throws IOException
+    {
+      write(new byte[] {(byte)b}, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+      ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+      while (buffer.hasRemaining())
+        channel.write(buffer);
+    }
+
+    public void close() throws IOException
+    {
+      UnixSocket.this.close();
+    }
+  }
+}
+// End of UnixSocket Class
@@ -0,0 +1,69 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+* A <code> Counter </code> is a metric that only goes up, such as a
+* number of messages or bytes. It is backed by a
+* <code>LongAdder</code>, whose cells are striped across threads, so
+* that counting from many connection threads does not contend on a
+* single memory location.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class Counter extends Metric
+{
+  /**
+   * The count.
+   */
+  private final LongAdder count = new LongAdder();
+
+// Constructor ***************************************************************
+
+  /**
+   * Constructs a counter starting at zero.
+   *
+   * @param name the name of the counter.
+   * @param help a one-line description of the counter.
+   */
+  public Counter(String name, String help)
+  {
+    super(name, help);
+  }
+
+// Instance methods *********************************************************
+
+  /**
+   * Adds one to the counter.
+   */
+  public void increment()
+  {
+    count.increment();
+  }
+
+  /**
+   * Adds to the counter.
+   *
+   * @param amount the amount to add; should not be negative.
+   */
+  public void add(long amount)
+  {
+    count.add(amount);
+  }
+
+  /**
+   * @return the current count.
+   */
+  public long get()
+  {
+    return count.sum();
+  }
+
+  public String describe()
+  {
+    return Long.toString(get());
+  }
+}
@@ -0,0 +1,56 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.metrics;
+
+import java.io.*;
+
+/**
+* A <code> CountingInputStream </code> adds the number of bytes read
+* through it to a counter.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class CountingInputStream extends FilterInputStream
+{
+  /**
+   * The counter of bytes read.
+   */
+  private final Counter bytes;
+
+  /**
+   * Constructs a counting stream.
+   *
+   * @param in the stream to read from.
+   * @param bytes the counter of bytes read.
+   */
+  public CountingInputStream(InputStream in, Counter bytes)
+  {
+    super(in);
+    this.bytes = bytes;
+  }
+
+  public int read() throws IOException
+  {
+    int b = in.read();
+    if (b >= 0)
+      bytes.increment();
+    return b;
+  }
+
+  public int read(byte[] b, int off, int len) throws IOException
+  {
+    int n = in.read(b, off, len);
+    if (n > 0)
+      bytes.add(n);
+    return n;
+  }
+
+  public long skip(long n) throws IOException
+  {
+    long skipped = in.skip(n);
+    if (skipped > 0)
+      bytes.add(skipped);
+    return skipped;
+  }
+}
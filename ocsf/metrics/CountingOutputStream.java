@@ -0,0 +1,44 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.metrics;
+
+import java.io.*;
+
+/**
+* A <code> CountingOutputStream </code> adds the number of bytes
+* written through it to a counter.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class CountingOutputStream extends FilterOutputStream
+{
+  /**
+   * The counter of bytes written.
+   */
+  private final Counter bytes;
+
+  /**
+   * Constructs a counting stream.
+   *
+   * @param out the stream to write to.
+   * @param bytes the counter of bytes written.
+   */
+  public CountingOutputStream(OutputStream out, Counter bytes)
+  {
+    super(out);
+    this.bytes = bytes;
+  }
+
+  public void write(int b) throws IOException
+  {
+    out.write(b);
+    bytes.increment();
+  }
+
+  public void write(byte[] b, int off, int len) throws IOException
+  {
+    out.write(b, off, len);
+    bytes.add(len);
+  }
+}
@@ -0,0 +1,52 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+* A <code> Gauge </code> is a metric whose value is read on demand,
+* such as a number of connected clients or a queue length. Reading
+* a gauge calls its supplier, which should be cheap and must not
+* block.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class Gauge extends Metric
+{
+  /**
+   * Supplies the current value.
+   */
+  private final LongSupplier value;
+
+// Constructor ***************************************************************
+
+  /**
+   * Constructs a gauge.
+   *
+   * @param name the name of the gauge.
+   * @param help a one-line description of the gauge.
+   * @param value supplies the current value.
+   */
+  public Gauge(String name, String help, LongSupplier value)
+  {
+    super(name, help);
+    this.value = value;
+  }
+
+// Instance methods *********************************************************
+
+  /**
+   * @return the current value.
+   */
+  public long get()
+  {
+    return value.getAsLong();
+  }
+
+  public String describe()
+  {
+    return Long.toString(get());
+  }
+}
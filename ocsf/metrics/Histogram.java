@@ -0,0 +1,335 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.metrics;
+
+import java.util.concurrent.atomic.*;
+
+/**
+* A <code> Histogram </code> records the distribution of non-negative
+* values, typically durations in nanoseconds, so that percentiles can
+* be read.<p>
+*
+* Buckets are fixed and log-linear: every power of two is split into
+* 16 equal sub-buckets, so any value is known within about 6% and the
+* whole range of <code>long</code> fits in 960 buckets. Recording is a
+* few shifts and one atomic increment; it never locks.<p>
+*
+* Like a <code>LongAdder</code>, the buckets are striped: each thread
+* counts in one of up to 8 copies of them, chosen by its ID and made
+* the first time a thread needs it, so that connection threads
+* recording at once do not contend on the same memory. The sum is a
+* <code>LongAdder</code> and the maximum a <code>LongAccumulator</code>.
+* The stripes are merged when a snapshot is taken.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class Histogram extends Metric
+{
+  // Class variables ************************************************
+
+  /**
+   * The number of bits used to split a power of two into sub-buckets.
+   */
+  private static final int SUB_BITS = 4;
+
+  /**
+   * The number of sub-buckets per power of two.
+   */
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+
+  /**
+   * The total number of buckets.
+   */
+  static final int BUCKET_COUNT = (64 - SUB_BITS) * SUB_COUNT;
+
+  /**
+   * The largest number of stripes: the number of processors, rounded
+   * up to a power of two, and at most 8.
+   */
+  private static final int STRIPE_COUNT = Math.min(8,
+    Integer.highestOneBit(2 * Runtime.getRuntime().availableProcessors() - 1));
+
+  //Instance variables **********************************************
+
+  /**
+   * The unit of the recorded values, used when describing them.
+   */
+  private final String unit;
+
+  /**
+   * The number of values recorded in each bucket, by stripe; a stripe
+   * is null until a thread records in it.
+   */
+  private final AtomicReferenceArray<AtomicLongArray> stripes =
+    new AtomicReferenceArray<>(STRIPE_COUNT);
+
+  /**
+   * The sum of all values recorded.
+   */
+  private final LongAdder sum = new LongAdder();
+
+  /**
+   * The largest value recorded.
+   */
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+// Constructor ***************************************************************
+
+  /**
+   * Constructs an empty histogram.
+   *
+   * @param name the name of the histogram.
+   * @param help a one-line description of the histogram.
+   * @param unit the unit of the values, such as "ns".
+   */
+  public Histogram(String name, String help, String unit)
+  {
+    super(name, help);
+    this.unit = unit;
+  }
+
+// Instance methods *********************************************************
+
+  /**
+   * Records a value. Negative values are recorded as zero.
+   *
+   * @param value the value.
+   */
+  public void record(long value)
+  {
+    if (value < 0)
+      value = 0;
+
+    stripe().incrementAndGet(bucketOf(value));
+    sum.add(value);
+    max.accumulate(value);
+  }
+
+  /**
+   * Adds the values of a snapshot to this histogram, so that the
+   * histograms of several connections can be combined.
+   *
+   * @param snapshot the snapshot whose values are added.
+   */
+  public void add(Snapshot snapshot)
+  {
+    AtomicLongArray buckets = stripe();
+    for (int i=0; i<BUCKET_COUNT; i++)
+    {
+      if (snapshot.counts[i] != 0)
+        buckets.addAndGet(i, snapshot.counts[i]);
+    }
+    sum.add(snapshot.sum);
+    max.accumulate(snapshot.max);
+  }
+
+  /**
+   * Returns a copy of the histogram's current state. Values recorded
+   * while the copy is being made may or may not be included.
+   *
+   * @return the snapshot.
+   */
+  public Snapshot snapshot()
+  {
+    long[] counts = new long[BUCKET_COUNT];
+    for (int s=0; s<STRIPE_COUNT; s++)
+    {
+      AtomicLongArray buckets = stripes.get(s);
+      if (buckets == null)
+        continue;
+      for (int i=0; i<BUCKET_COUNT; i++)
+        counts[i] += buckets.get(i);
+    }
+
+    return new Snapshot(counts, sum.sum(), max.get());
+  }
+
+  /**
+   * @return the unit of the recorded values.
+   */
+  public String getUnit()
+  {
+    return unit;
+  }
+
+  public String describe()
+  {
+    Snapshot s = snapshot();
+    return "count=" + s.getCount()
+      + " mean=" + s.getMean() + unit
+      + " p50=" + s.getPercentile(0.5) + unit
+      + " p99=" + s.getPercentile(0.99) + unit
+      + " p999=" + s.getPercentile(0.999) + unit
+      + " max=" + s.getMax() + unit;
+  }
+
+  /**
+   * Returns the stripe of the current thread, making it if needed.
+   *
+   * @return the buckets of the stripe.
+   */
+  private AtomicLongArray stripe()
+  {
+    // Spread consecutive thread IDs over the stripes
+    long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+    int index = (int)(id >>> 32) & (STRIPE_COUNT - 1);
+
+    AtomicLongArray buckets = stripes.get(index);
+    if (buckets == null)
+    {
+      stripes.compareAndSet(index, null, new AtomicLongArray(BUCKET_COUNT));
+      buckets = stripes.get(index);
+    }
+    return buckets;
+  }
+
+  /**
+   * Returns the bucket in which a value is counted.
+   *
+   * @param value a non-negative value.
+   * @return the index of its bucket.
+   */
+  static int bucketOf(long value)
+  {
+    if (value < SUB_COUNT)
+      return (int)value;
+
+    int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    int shift = magnitude - SUB_BITS;
+    return (shift + 1) * SUB_COUNT + (int)((value >>> shift) & (SUB_COUNT - 1));
+  }
+
+  /**
+   * Returns the largest value counted in a bucket.
+   *
+   * @param bucket the index of the bucket.
+   * @return the inclusive upper bound of the bucket.
+   */
+  static long upperBoundOf(int bucket)
+  {
+    if (bucket < SUB_COUNT)
+      return bucket;
+
+    int shift = bucket / SUB_COUNT - 1;
+    long lower = (long)(SUB_COUNT + bucket % SUB_COUNT) << shift;
+    return lower + (1L << shift) - 1;
+  }
+
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * A point-in-time copy of a histogram, from which consistent
+   * percentiles can be computed.
+   */
+  public static class Snapshot
+  {
+    /**
+     * The number of values in each bucket.
+     */
+    private final long[] counts;
+
+    /**
+     * The number of values.
+     */
+    private final long count;
+
+    /**
+     * The sum of the values.
+     */
+    private final long sum;
+
+    /**
+     * The largest value.
+     */
+    private final long max;
+
+    private Snapshot(long[] counts, long sum, long max)
+    {
+      long total = 0;
+      for (int i=0; i<counts.length; i++)
+        total += counts[i];
+
+      this.counts = counts;
+      this.count = total;
+      this.sum = sum;
+      this.max = max;
+    }
+
+    /**
+     * @return the number of values recorded.
+     */
+    public long getCount()
+    {
+      return count;
+    }
+
+    /**
+     * @return the sum of the values recorded.
+     */
+    public long getSum()
+    {
+      return sum;
+    }
+
+    /**
+     * @return the largest value recorded.
+     */
+    public long getMax()
+    {
+      return max;
+    }
+
+    /**
+     * @return the mean of the values recorded, or zero if there are none.
+     */
+    public long getMean()
+    {
+      return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Returns the value below which a fraction of the values fall.
+     * The result is the upper bound of the bucket containing that
+     * value, so it may overestimate it by about 6%.
+     *
+     * @param fraction the fraction, between 0 and 1 (e.g. 0.99).
+     * @return the percentile, or zero if there are no values.
+     */
+    public long getPercentile(double fraction)
+    {
+      if (count == 0)
+        return 0;
+
+      long rank = Math.max(1L, (long)Math.ceil(fraction * count));
+      long seen = 0;
+      for (int i=0; i<counts.length; i++)
+      {
+        seen += counts[i];
+        if (seen >= rank)
+          return Math.min(upperBoundOf(i), max);
+      }
+      return max;
+    }
+
+    /**
+     * Returns the number of values less than or equal to a bound.
+     * Values in the bucket containing the bound are all counted.
+     *
+     * @param bound the bound.
+     * @return the cumulative count.
+     */
+    public long getCountAtOrBelow(long bound)
+    {
+      if (bound < 0)
+        return 0;
+
+      int last = bucketOf(bound);
+      long seen = 0;
+      for (int i=0; i<=last; i++)
+        seen += counts[i];
+      return seen;
+    }
+  }
+}
@@ -0,0 +1,66 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.metrics;
+
+/**
+* The <code> Metric </code> class is the superclass of everything
+* that can be kept in a <code>MetricsRegistry</code>. A metric has a
+* name, made of lower case letters, digits and underscores, and a
+* one-line description.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see ocsf.metrics.MetricsRegistry
+*/
+public abstract class Metric
+{
+  /**
+   * The name of the metric.
+   */
+  private final String name;
+
+  /**
+   * The description of the metric.
+   */
+  private final String help;
+
+// Constructor ***************************************************************
+
+  /**
+   * Constructs a metric.
+   *
+   * @param name the name of the metric.
+   * @param help a one-line description of the metric.
+   */
+  protected Metric(String name, String help)
+  {
+    this.name = name;
+    this.help = help;
+  }
+
+// Accessor methods *********************************************************
+
+  /**
+   * @return the name of the metric.
+   */
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * @return the description of the metric.
+   */
+  public String getHelp()
+  {
+    return help;
+  }
+
+  /**
+   * Returns a one-line, human readable summary of the current value.
+   *
+   * @return the summary.
+   */
+  public abstract String describe();
+}
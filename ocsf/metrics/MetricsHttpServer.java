@@ -0,0 +1,105 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.metrics;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import com.sun.net.httpserver.*;
+
+/**
+* The <code> MetricsHttpServer </code> class serves the metrics of a
+* registry in the Prometheus text format at <code>/metrics</code>,
+* using the JDK's built-in HTTP server. It only listens on the
+* loopback interface, so the metrics are not exposed to the network;
+* a local agent or proxy is expected to scrape them.<p>
+*
+* Requests are served by a single daemon thread, and reading the
+* metrics takes no lock, so scraping does not slow down the server
+* whose metrics are exposed.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class MetricsHttpServer
+{
+  /**
+   * The HTTP server.
+   */
+  private final HttpServer http;
+
+  /**
+   * The thread serving requests.
+   */
+  private final ExecutorService executor;
+
+// Constructor ***************************************************************
+
+  /**
+   * Starts serving metrics on a loopback port.
+   *
+   * @param port the port; zero chooses a free port.
+   * @param registry the metrics to serve.
+   * @exception IOException if the port cannot be bound.
+   */
+  public MetricsHttpServer(int port, final MetricsRegistry registry)
+    throws IOException
+  {
+    http = HttpServer.create(
+      new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    executor = Executors.newSingleThreadExecutor(task ->
+      {
+        Thread thread = new Thread(task, "ocsf metrics endpoint");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+    http.createContext("/metrics", exchange ->
+      {
+        try
+        {
+          if (!"GET".equals(exchange.getRequestMethod()))
+          {
+            exchange.sendResponseHeaders(405, -1);
+            return;
+          }
+
+          byte[] body = PrometheusFormat.format(registry)
+            .getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().set(
+            "Content-Type", PrometheusFormat.CONTENT_TYPE);
+          exchange.sendResponseHeaders(200, body.length);
+          try (OutputStream out = exchange.getResponseBody())
+          {
+            out.write(body);
+          }
+        }
+        finally
+        {
+          exchange.close();
+        }
+      });
+    http.setExecutor(executor);
+    http.start();
+  }
+
+// Instance methods *********************************************************
+
+  /**
+   * @return the port on which metrics are served.
+   */
+  public int getPort()
+  {
+    return http.getAddress().getPort();
+  }
+
+  /**
+   * Stops serving metrics.
+   */
+  public void stop()
+  {
+    http.stop(0);
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,123 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.metrics;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/**
+* The <code> MetricsRegistry </code> class holds the metrics of a
+* client or server, by name. Metrics are created once, typically when
+* their owner is constructed, and then updated without going through
+* the registry, so the registry is never on the path of a message.<p>
+*
+* Reading the registry never locks anything that the metrics'
+* owners use; it can be done from any thread at any time.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class MetricsRegistry
+{
+  /**
+   * The metrics, sorted by name.
+   */
+  private final Map<String, Metric> metrics =
+    new ConcurrentSkipListMap<>();
+
+// Instance methods *********************************************************
+
+  /**
+   * Creates and registers a counter.
+   *
+   * @param name the name of the counter.
+   * @param help a one-line description of the counter.
+   * @return the new counter.
+   * @exception IllegalArgumentException if the name is already used.
+   */
+  public Counter counter(String name, String help)
+  {
+    return register(new Counter(name, help));
+  }
+
+  /**
+   * Creates and registers a gauge.
+   *
+   * @param name the name of the gauge.
+   * @param help a one-line description of the gauge.
+   * @param value supplies the current value; must not block.
+   * @return the new gauge.
+   * @exception IllegalArgumentException if the name is already used.
+   */
+  public Gauge gauge(String name, String help, LongSupplier value)
+  {
+    return register(new Gauge(name, help, value));
+  }
+
+  /**
+   * Creates and registers a histogram.
+   *
+   * @param name the name of the histogram.
+   * @param help a one-line description of the histogram.
+   * @param unit the unit of the values, such as "ns".
+   * @return the new histogram.
+   * @exception IllegalArgumentException if the name is already used.
+   */
+  public Histogram histogram(String name, String help, String unit)
+  {
+    return register(new Histogram(name, help, unit));
+  }
+
+  /**
+   * Registers a metric created elsewhere.
+   *
+   * @param metric the metric.
+   * @return the metric.
+   * @exception IllegalArgumentException if its name is already used.
+   */
+  public <M extends Metric> M register(M metric)
+  {
+    if (metrics.putIfAbsent(metric.getName(), metric) != null)
+      throw new IllegalArgumentException(
+        "metric already registered: " + metric.getName());
+    return metric;
+  }
+
+  /**
+   * Returns a metric by name.
+   *
+   * @param name the name of the metric.
+   * @return the metric, or null if there is none by that name.
+   */
+  public Metric get(String name)
+  {
+    return metrics.get(name);
+  }
+
+  /**
+   * Returns all metrics, sorted by name.
+   *
+   * @return an unmodifiable view of the metrics.
+   */
+  public Collection<Metric> getMetrics()
+  {
+    return Collections.unmodifiableCollection(metrics.values());
+  }
+
+  /**
+   * Returns one line per metric, with its name and current value.
+   *
+   * @return the human readable listing.
+   */
+  public String format()
+  {
+    StringBuilder text = new StringBuilder();
+    for (Metric metric : metrics.values())
+    {
+      text.append(metric.getName()).append(' ')
+        .append(metric.describe()).append('\n');
+    }
+    return text.toString();
+  }
+}
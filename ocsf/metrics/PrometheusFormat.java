@@ -0,0 +1,98 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.metrics;
+
+/**
+* The <code> PrometheusFormat </code> class writes the metrics of a
+* registry in the Prometheus text exposition format (version 0.0.4).
+* Histograms are exposed with cumulative buckets bounded by powers of
+* two, which coincide with bucket boundaries of <code>Histogram</code>
+* and are therefore exact.<p>
+*
+* Formatting only reads the metrics; it takes no lock.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class PrometheusFormat
+{
+  /**
+   * The content type of the text exposition format.
+   */
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  /**
+   * The smallest power of two used as a histogram bucket bound.
+   */
+  private static final int FIRST_BOUND = 4;
+
+  /**
+   * The largest power of two used as a histogram bucket bound.
+   * With nanoseconds, 2^40 is about 18 minutes.
+   */
+  private static final int LAST_BOUND = 40;
+
+  /**
+   * Not to be instantiated.
+   */
+  private PrometheusFormat() {}
+
+  /**
+   * Formats all the metrics of a registry.
+   *
+   * @param registry the registry.
+   * @return the metrics in the text exposition format.
+   */
+  public static String format(MetricsRegistry registry)
+  {
+    StringBuilder text = new StringBuilder(4096);
+    for (Metric metric : registry.getMetrics())
+      append(text, metric);
+    return text.toString();
+  }
+
+  /**
+   * Appends one metric.
+   *
+   * @param text the text being built.
+   * @param metric the metric.
+   */
+  private static void append(StringBuilder text, Metric metric)
+  {
+    String name = metric.getName();
+    text.append("# HELP ").append(name).append(' ')
+      .append(metric.getHelp().replace("\\", "\\\\").replace("\n", "\\n"))
+      .append('\n');
+
+    if (metric instanceof Counter)
+    {
+      text.append("# TYPE ").append(name).append(" counter\n");
+      text.append(name).append(' ').append(((Counter)metric).get()).append('\n');
+    }
+    else if (metric instanceof Gauge)
+    {
+      text.append("# TYPE ").append(name).append(" gauge\n");
+      text.append(name).append(' ').append(((Gauge)metric).get()).append('\n');
+    }
+    else if (metric instanceof Histogram)
+    {
+      Histogram.Snapshot snapshot = ((Histogram)metric).snapshot();
+      text.append("# TYPE ").append(name).append(" histogram\n");
+      for (int k=FIRST_BOUND; k<=LAST_BOUND; k++)
+      {
+        long bound = (1L << k) - 1;
+        text.append(name).append("_bucket{le=\"").append(bound).append("\"} ")
+          .append(snapshot.getCountAtOrBelow(bound)).append('\n');
+      }
+      text.append(name).append("_bucket{le=\"+Inf\"} ")
+        .append(snapshot.getCount()).append('\n');
+      text.append(name).append("_sum ").append(snapshot.getSum()).append('\n');
+      text.append(name).append("_count ").append(snapshot.getCount()).append('\n');
+    }
+    else
+    {
+      text.append("# TYPE ").append(name).append(" untyped\n");
+      text.append(name).append(' ').append(metric.describe()).append('\n');
+    }
+  }
+}
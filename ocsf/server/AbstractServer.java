@@ -6,7 +6,19 @@ package ocsf.server;
 
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 import java.io.*;
+import java.nio.file.Path;
+import ocsf.common.Batch;
+import ocsf.common.Compressed;
+import ocsf.common.Goodbye;
+import ocsf.common.HashedWheelTimer;
+import ocsf.common.MessageCompressor;
+import ocsf.common.Timestamped;
+import ocsf.metrics.MetricsRegistry;
 
 /**
 * The <code> AbstractServer </code> class maintains a thread that waits
@@ -34,23 +46,58 @@ import java.io.*;
 */
 public abstract class AbstractServer implements Runnable
 {
+  // CLASS VARIABLES ************************************************
+
+  /**
+   * The name of the listener on the server's port.
+   */
+  public static final String DEFAULT_LISTENER = "default";
+
   // INSTANCE VARIABLES *********************************************
 
   /**
-   * The server socket: listens for clients who want to connect.
+   * The server sockets: listen for clients who want to connect. Each
+   * listener has one per acceptor thread, all bound to its port; the
+   * first belongs to the default listener.
    */
-  private ServerSocket serverSocket = null;
+  private ServerSocket[] serverSockets = null;
 
   /**
-   * The connection listener thread.
+   * The listener of each server socket.
+   */
+  private Listener[] socketListeners;
+
+  /**
+   * The connection listener thread, which accepts on the first server
+   * socket.
    */
   private Thread connectionListener;
 
+  /**
+   * The threads accepting on the other server sockets, if any.
+   */
+  private Thread[] acceptorThreads = new Thread[0];
+
+  /**
+   * The number of server sockets to open on the port, each with a
+   * thread of its own. Above 1, the sockets share the port with
+   * SO_REUSEPORT and the operating system spreads the incoming
+   * connections among them.
+   * Set to 1 by default.
+   */
+  private int acceptors = 1;
+
   /**
    * The port number
    */
   private int port;
 
+  /**
+   * The host name or address of the interface the server's port is
+   * bound to, or null for all interfaces.
+   */
+  private String host;
+
   /**
    * The server timeout while for accepting connections.
    * After timing out, the server will check to see if a command to
@@ -75,9 +122,237 @@ public abstract class AbstractServer implements Runnable
 
   /**
    * Indicates if the listening thread is ready to stop.  Set to
-   * false by default.
+   * false by default. Polled by the acceptor threads.
+   */
+  private volatile boolean readyToStop = false;
+
+  /**
+   * The maximum number of simultaneous connections, including those
+   * still performing their handshake. Zero means no limit.
+   */
+  private volatile int maxConnections = 0;
+
+  /**
+   * The maximum number of simultaneous connections from a single
+   * Internet address. Zero means no limit.
+   */
+  private volatile int maxConnectionsPerAddress = 0;
+
+  /**
+   * The time, in ms, a new client has to complete the object stream
+   * handshake before its connection is dropped.
+   * Set to ten seconds by default.
+   */
+  private volatile int handshakeTimeout = 10000;
+
+  /**
+   * The time, in ms, clients are given to answer the goodbye sent
+   * when the server closes. Zero means that they are closed at once,
+   * which is the default.
+   */
+  private volatile int drainTimeout = 0;
+
+  /**
+   * Released once the close in progress, if any, has drained and
+   * closed the connections. Set only by the caller of
+   * <code>close</code> that drains, so that the server is drained
+   * once however many threads close it.
+   */
+  private final AtomicReference<CountDownLatch> closing =
+    new AtomicReference<>();
+
+  /**
+   * The range, in ms, over which the reconnect delays given to
+   * clients when the server closes are spread. Zero means no delay.
+   */
+  private volatile int reconnectSpread = 0;
+
+  /**
+   * The path of the Unix domain socket on which servers sharing the
+   * port hand it off to each other, or null.
+   */
+  private volatile Path handoffPath = null;
+
+  /**
+   * Listens for handoff requests while the server is open, if a
+   * handoff path is set.
+   */
+  private volatile Handoff handoff = null;
+
+  /**
+   * The number of connections admitted and not yet terminated.
+   */
+  private final AtomicInteger admittedConnections = new AtomicInteger();
+
+  /**
+   * The time, in ms, a client may stay silent before it is
+   * disconnected. Zero means that idle clients are kept forever,
+   * which is the default.
+   */
+  private volatile int idleTimeout = 0;
+
+  /**
+   * The timer shared by all connections for their timeouts.
+   */
+  private final HashedWheelTimer timer =
+    new HashedWheelTimer("ocsf server timer", 100, 512);
+
+  /**
+   * The interval, in ms, at which clients are sent heartbeats.
+   * Zero means no heartbeats, which is the default.
+   */
+  private volatile int heartbeatInterval = 0;
+
+  /**
+   * The threads writing heartbeats and closing idle clients. Neither
+   * is done by the timer thread, so that a peer that stopped reading,
+   * or a handler holding the server's monitor, can never hold up the
+   * timeouts of the other connections.
+   */
+  private final ExecutorService heartbeatSender =
+    Executors.newCachedThreadPool(task ->
+      {
+        Thread thread = new Thread(task, "ocsf heartbeat sender");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  /**
+   * The time, in ms, during which broadcasts are collected before
+   * being sent together. Zero means that every broadcast is sent at
+   * once, which is the default.
+   */
+  private volatile int coalescingWindow = 0;
+
+  /**
+   * The broadcasts collected during the current coalescing window.
+   * Guarded by itself.
+   */
+  private final ArrayList<Object> coalesced = new ArrayList<>();
+
+  /**
+   * The number of collected broadcasts that triggers a flush before
+   * the end of the window.
+   */
+  private static final int COALESCING_LIMIT = 1024;
+
+  /**
+   * The serialized size, in bytes, from which messages are sent
+   * compressed to the clients that accept it. Zero disables
+   * compression, which is the default.
+   */
+  private volatile int compressionThreshold = 0;
+
+  /**
+   * The largest serialized message accepted compressed from a client,
+   * in bytes.
+   */
+  private volatile int maxMessageSize =
+    MessageCompressor.DEFAULT_MAX_MESSAGE_SIZE;
+
+  /**
+   * The thread sending coalesced broadcasts at the end of each
+   * window. It is created in the thread group of the server's
+   * creator, not in that of the connection whose broadcast starts
+   * the first window.
+   */
+  private final ScheduledExecutorService broadcastFlusher =
+    Executors.newSingleThreadScheduledExecutor(task ->
+      {
+        Thread thread = new Thread(clientThreadGroup.getParent(), task,
+          "ocsf broadcast flusher");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  /**
+   * The number of connection threads waiting for the server's
+   * monitor to handle a message.
+   */
+  private final AtomicInteger dispatchQueue = new AtomicInteger();
+
+  /**
+   * The metrics of this server.
+   */
+  private final ServerMetrics metrics =
+    new ServerMetrics(this, dispatchQueue::get);
+
+  /**
+   * The listener on the server's port.
+   */
+  private final Listener defaultListener =
+    new Listener(DEFAULT_LISTENER, null, 0, null, 0, metrics.registry);
+
+  /**
+   * The listeners of the server, by name, the default one first.
+   * Guarded by itself.
+   */
+  private final LinkedHashMap<String,Listener> listeners =
+    new LinkedHashMap<>(Collections.singletonMap(DEFAULT_LISTENER,
+      defaultListener));
+
+  /**
+   * Compresses each large broadcast once for all its recipients.
+   */
+  private final MessageCompressor broadcastCompressor =
+    new MessageCompressor(metrics.uncompressedBytes, metrics.compressedBytes);
+
+  /**
+   * The number of admitted connections per Internet address.
+   */
+  private final ConcurrentHashMap<InetAddress, Integer>
+    connectionsPerAddress = new ConcurrentHashMap<>();
+
+  /**
+   * The number of messages each connection may send per second.
+   * Zero or less means that connections are not rate limited.
    */
-  private boolean readyToStop = false;
+  private volatile double clientRate = 0;
+
+  /**
+   * The number of messages a connection may send at once before
+   * being rate limited.
+   */
+  private volatile int clientBurst = 0;
+
+  /**
+   * The number of messages each identity may send per second,
+   * summed over all of its connections. Zero or less means that
+   * identities are not rate limited.
+   */
+  private volatile double identityRate = 0;
+
+  /**
+   * The number of messages an identity may send at once before
+   * being rate limited.
+   */
+  private volatile int identityBurst = 0;
+
+  /**
+   * The token buckets of the identities returned by
+   * <code>getRateLimitIdentity</code>.
+   */
+  private final ConcurrentHashMap<Object, TokenBucket> identityBuckets =
+    new ConcurrentHashMap<>();
+
+  /**
+   * The number of identity buckets above which full buckets are
+   * forgotten.
+   */
+  private static final int IDENTITY_SWEEP_THRESHOLD = 1024;
+
+  /**
+   * The logical sessions open on all connections. Sessions have no
+   * running thread, so they are not in the thread group.
+   */
+  private final Set<ConnectionToClient> sessions =
+    ConcurrentHashMap.newKeySet();
+
+  /**
+   * The number of connections carrying logical sessions rather than
+   * being clients themselves.
+   */
+  private final AtomicInteger carriers = new AtomicInteger();
 
 
 // CONSTRUCTOR ******************************************************
@@ -119,18 +394,117 @@ public abstract class AbstractServer implements Runnable
   {
     if (!isListening())
     {
-      if (serverSocket == null)
+      if (serverSockets == null)
       {
-        serverSocket = new ServerSocket(getPort(), backlog);
+        try
+        {
+          openServerSockets();
+        }
+        catch (BindException ex)
+        {
+          // The port may be held by a server that does not share it
+          if (handoffPath == null)
+            throw ex;
+        }
+        takeOver();
       }
 
-      serverSocket.setSoTimeout(timeout);
+      for (int i=0; i<serverSockets.length; i++)
+        serverSockets[i].setSoTimeout(timeout);
       readyToStop = false;
+      acceptorThreads = new Thread[serverSockets.length - 1];
       connectionListener = new Thread(this);
       connectionListener.start();
     }
   }
 
+  /**
+   * Opens the server sockets of every listener. If one cannot be
+   * bound, those already opened are closed.
+   *
+   * @exception IOException if a socket cannot be bound.
+   */
+  private void openServerSockets() throws IOException
+  {
+    ArrayList<ServerSocket> sockets = new ArrayList<>();
+    ArrayList<Listener> owners = new ArrayList<>();
+    try
+    {
+      for (Listener listener : getListeners())
+      {
+        ServerSocket[] opened = listener == defaultListener
+          ? listener.open(getHost(), getPort(), backlog, acceptors,
+              handoffPath != null)
+          : listener.open(listener.host, listener.port, backlog, acceptors,
+              handoffPath != null);
+        for (int i=0; i<opened.length; i++)
+        {
+          sockets.add(opened[i]);
+          owners.add(listener);
+        }
+      }
+    }
+    catch (IOException ex)
+    {
+      Listener.close(sockets.toArray(new ServerSocket[sockets.size()]));
+      throw ex;
+    }
+    socketListeners = owners.toArray(new Listener[owners.size()]);
+    serverSockets = sockets.toArray(new ServerSocket[sockets.size()]);
+  }
+
+  /**
+   * If a handoff path is set, asks the server listening for handoff
+   * requests there, if any, to hand its port off to this one, then
+   * listens for handoff requests in its place. Called once the server
+   * sockets are bound, so that the port is never closed. If the other
+   * server does not share its port and this one could not bind it,
+   * the handoff is asked for first, and the sockets bound afterwards.
+   *
+   * @exception IOException if the sockets cannot be bound, or the other
+   *  server fails to hand off its port.
+   */
+  private void takeOver() throws IOException
+  {
+    Path path = handoffPath;
+    if (path == null)
+      return;
+
+    try
+    {
+      if (serverSockets == null)
+      {
+        if (!Handoff.request(path))
+          throw new BindException("port " + getPort() + " in use");
+        openServerSockets();
+      }
+      else
+      {
+        Handoff.request(path);
+      }
+      handoff = new Handoff(path, this);
+    }
+    catch (IOException ex)
+    {
+      if (serverSockets != null)
+        Listener.close(serverSockets);
+      serverSockets = null;
+      socketListeners = null;
+      throw ex;
+    }
+  }
+
+  /**
+   * @return the listeners, the default one first.
+   */
+  private Listener[] getListeners()
+  {
+    synchronized (listeners)
+    {
+      return listeners.values().toArray(new Listener[listeners.size()]);
+    }
+  }
+
   /**
    * Causes the server to stop accepting new connections.
    */
@@ -146,24 +520,156 @@ public abstract class AbstractServer implements Runnable
    * should be individually closed before calling this method.
    * The method also stops listening if this thread is running.
    * If the server is already closed, this
-   * call has no effect.
+   * call has no effect.<p>
+   *
+   * If a drain timeout is set, the server first drains its
+   * connections: it stops accepting, sends the coalesced broadcasts,
+   * and tells every client it is closing. Clients of this framework
+   * answer once they have received everything sent to them, and the
+   * server keeps handling their messages until each has answered, so
+   * that the last messages of every client reach all the others. The
+   * connections are closed once all clients have answered, or when
+   * the timeout runs out. Only the first caller drains; the others
+   * wait until it is done. A caller holding the server's monitor
+   * closes the connections at once, since the messages of the clients
+   * could not be handled while it waits.
+   *
+   * @exception IOException if an I/O error occurs while
+   * closing the server socket.
+   */
+  final public void close() throws IOException
+  {
+    int timeout = drainTimeout;
+    if (timeout <= 0 || Thread.holdsLock(this))
+    {
+      closeConnections();
+      return;
+    }
+
+    CountDownLatch done = new CountDownLatch(1);
+    if (!closing.compareAndSet(null, done))
+    {
+      CountDownLatch other = closing.get();
+      try
+      {
+        if (other != null)
+          other.await();
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+      }
+      closeConnections();
+      return;
+    }
+
+    try
+    {
+      drain(timeout);
+      closeConnections();
+    }
+    finally
+    {
+      closing.set(null);
+      done.countDown();
+    }
+  }
+
+  /**
+   * Stops accepting, then tells every client the server is closing
+   * and waits for them to answer. The server's monitor is not held
+   * while waiting, so that the messages clients send meanwhile can
+   * still be handled.
+   *
+   * @param timeout the time clients are given to answer, in ms.
+   */
+  private void drain(int timeout)
+  {
+    long deadline = System.nanoTime() + timeout * 1000000L;
+
+    // Clients reconnecting early are refused rather than accepted by
+    // a server about to close
+    if (!stopAccepting())
+      return;
+
+    // Deliver the broadcasts still waiting for their window
+    flushCoalesced();
+
+    Thread[] clientThreadList = getConnectionThreads();
+    CountDownLatch drained = new CountDownLatch(clientThreadList.length);
+    int spread = reconnectSpread;
+    for (int i=0; i<clientThreadList.length; i++)
+    {
+      int delay = spread > 0
+        ? ThreadLocalRandom.current().nextInt(spread) : 0;
+      ((ConnectionToClient)clientThreadList[i]).sayGoodbye(delay, drained);
+
+      // A client closing the server cannot answer while it waits
+      if (clientThreadList[i] == Thread.currentThread())
+        drained.countDown();
+    }
+
+    try
+    {
+      drained.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+    catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+    }
+
+    long late = drained.getCount();
+    metrics.drainTimeouts.add(late);
+    metrics.drainedConnections.add(clientThreadList.length - late);
+  }
+
+  /**
+   * Stops listening and closes the server sockets, leaving the
+   * connections open.
+   *
+   * @return false if the server is closed.
+   */
+  final synchronized boolean stopAccepting()
+  {
+    if (serverSockets == null)
+      return false;
+    stopListening();
+    Listener.close(serverSockets);
+    return true;
+  }
+
+  /**
+   * Closes the server sockets and the connections with all clients.
    *
    * @exception IOException if an I/O error occurs while
    * closing the server socket.
    */
-  final synchronized public void close() throws IOException
+  private synchronized void closeConnections() throws IOException
   {
-    if (serverSocket == null)
+    if (serverSockets == null)
       return;
-      stopListening();
+    Handoff listening = handoff;
+    handoff = null;
+    if (listening != null)
+    {
+      listening.close();
+    }
+
+    stopListening();
     try
     {
-      serverSocket.close();
+      Listener.close(Arrays.copyOfRange(serverSockets, 1,
+        serverSockets.length));
+      serverSockets[0].close();
     }
     finally
     {
-      // Close the client sockets of the already connected clients
-      Thread[] clientThreadList = getClientConnections();
+      // Deliver the broadcasts still waiting for their window
+      flushCoalesced();
+
+      // Close the client sockets of the already connected clients;
+      // closing a connection also ends the sessions it carries
+      Thread[] clientThreadList = getConnectionThreads();
       for (int i=0; i<clientThreadList.length; i++)
       {
          try
@@ -173,7 +679,8 @@ public abstract class AbstractServer implements Runnable
          // Ignore all exceptions when closing clients.
          catch(Exception ex) {}
       }
-      serverSocket = null;
+      serverSockets = null;
+      socketListeners = null;
       serverClosed();
     }
   }
@@ -186,66 +693,676 @@ public abstract class AbstractServer implements Runnable
    * function of sending to all clients, perhaps after some kind
    * of filtering is done. Any exception thrown while
    * sending the message to a particular client is ignored.
+   * When called while handling a message that its client timestamped,
+   * the broadcast carries the same timestamp so that recipients can
+   * measure the end-to-end latency.
+   * If a coalescing window is set, the message is only queued, and is
+   * sent at the end of the window together with the other broadcasts
+   * of the window, to the clients connected at that time.
    *
    * @param msg   Object The message to be sent
    */
   public void sendToAllClients(Object msg)
   {
-    Thread[] clientThreadList = getClientConnections();
+    msg = timestamp(msg);
 
-    for (int i=0; i<clientThreadList.length; i++)
-    {
-      try
-      {
-        ((ConnectionToClient)clientThreadList[i]).sendToClient(msg);
-      }
-      catch (Exception ex) {}
-    }
+    int window = coalescingWindow;
+    if (window > 0)
+      coalesce(msg, window);
+    else
+      broadcast(msg, null);
   }
 
-
-// ACCESSING METHODS ------------------------------------------------
-
   /**
-   * Returns true if the server is ready to accept new clients.
+   * Sends a message to the clients connected to the server that
+   * satisfy a condition, such as being in a given chat room. Like
+   * <code>sendToAllClients</code>, the message carries the timestamp
+   * of the message being handled, is compressed once for all its
+   * recipients, and is coalesced with the other broadcasts of the
+   * window if a coalescing window is set; the condition is then
+   * tested at the end of the window. Any exception thrown while
+   * sending the message to a particular client is ignored.
    *
-   * @return true if the server is listening.
+   * @param msg the message to be sent.
+   * @param recipients selects the clients to send the message to.
    */
-  final public boolean isListening()
+  public void sendToClients(Object msg,
+    Predicate<? super ConnectionToClient> recipients)
   {
-    return (connectionListener != null);
+    msg = timestamp(msg);
+
+    int window = coalescingWindow;
+    if (window > 0)
+      coalesce(new Addressed(msg, recipients), window);
+    else
+      broadcast(msg, recipients);
   }
 
   /**
-   * Returns an array containing the existing
-   * client connections. This can be used by
-   * concrete subclasses to implement messages that do something with
-   * each connection (e.g. kill it, send a message to it etc.).
-   * Remember that after this array is obtained, some clients
-   * in this migth disconnect. New clients can also connect,
-   * these later will not appear in the array.
+   * Adds a broadcast to the current coalescing window, starting one
+   * if needed.
    *
-   * @return an array of <code>Thread</code> containing
-   * <code>ConnectionToClient</code> instances.
+   * @param msg the message, or an <code>Addressed</code> message.
+   * @param window the coalescing window in ms.
    */
-  synchronized final public Thread[] getClientConnections()
+  private void coalesce(Object msg, int window)
   {
-    Thread[] clientThreadList = new
-      Thread[clientThreadGroup.activeCount()];
-
-    clientThreadGroup.enumerate(clientThreadList);
-
-    return clientThreadList;
+    synchronized (coalesced)
+    {
+      coalesced.add(msg);
+      int size = coalesced.size();
+      if (size == 1)
+        broadcastFlusher.schedule(this::flushCoalesced, window,
+          TimeUnit.MILLISECONDS);
+      else if (size == COALESCING_LIMIT)
+        broadcastFlusher.execute(this::flushCoalesced);
+    }
   }
 
   /**
-   * Counts the number of clients currently connected.
+   * Wraps a broadcast made while handling a timestamped message into
+   * a frame carrying the same timestamp.
    *
-   * @return the number of clients currently connected.
+   * @param msg the message broadcast.
+   * @return the frame, or the message itself.
+   */
+  private Object timestamp(Object msg)
+  {
+    Thread current = Thread.currentThread();
+    if (current instanceof ConnectionToClient && !(msg instanceof Timestamped))
+    {
+      long sent = ((ConnectionToClient)current).getOriginTimestamp();
+      if (sent != ConnectionToClient.NO_TIMESTAMP)
+        return new Timestamped(msg, sent);
+    }
+    return msg;
+  }
+
+  /**
+   * Sends the broadcasts collected during the current coalescing
+   * window, in one frame per client.
+   */
+  private void flushCoalesced()
+  {
+    Object[] messages;
+    synchronized (coalesced)
+    {
+      if (coalesced.isEmpty())
+        return;
+      messages = coalesced.toArray();
+      coalesced.clear();
+    }
+
+    metrics.coalescedBatchSize.record(messages.length);
+    for (int i=0; i<messages.length; i++)
+    {
+      if (messages[i] instanceof Addressed)
+      {
+        flushAddressed(messages);
+        return;
+      }
+    }
+    broadcast(messages.length == 1 ? messages[0] : new Batch(messages), null);
+  }
+
+  /**
+   * Sends the broadcasts of a coalescing window when some of them are
+   * not meant for every client. Each client is sent a frame of its
+   * own, holding the broadcasts meant for it; frames are therefore
+   * compressed by each connection rather than shared.
+   *
+   * @param messages the broadcasts of the window.
+   */
+  private void flushAddressed(Object[] messages)
+  {
+    long start = System.nanoTime();
+    Thread[] clientThreadList = getClientConnections();
+    ArrayList<Object> selected = new ArrayList<>(messages.length);
+
+    for (int i=0; i<clientThreadList.length; i++)
+    {
+      ConnectionToClient client = (ConnectionToClient)clientThreadList[i];
+      selected.clear();
+      for (int j=0; j<messages.length; j++)
+      {
+        if (!(messages[j] instanceof Addressed))
+          selected.add(messages[j]);
+        else if (((Addressed)messages[j]).recipients.test(client))
+          selected.add(((Addressed)messages[j]).msg);
+      }
+      if (selected.isEmpty())
+        continue;
+
+      try
+      {
+        client.sendToClient(selected.size() == 1 ? selected.get(0)
+          : new Batch(selected.toArray()));
+      }
+      catch (Exception ex) {}
+    }
+    metrics.broadcastDuration.record(System.nanoTime() - start);
+  }
+
+  /**
+   * Writes a message to every client connected to the server, or to
+   * those selected.
+   *
+   * @param msg   the message, or the batch of messages, to write.
+   * @param recipients selects the clients to write to, or null for
+   *  all of them.
+   */
+  private void broadcast(Object msg,
+    Predicate<? super ConnectionToClient> recipients)
+  {
+    long start = System.nanoTime();
+    Thread[] clientThreadList = getClientConnections();
+    if (recipients != null)
+    {
+      int selected = 0;
+      for (int i=0; i<clientThreadList.length; i++)
+      {
+        if (recipients.test((ConnectionToClient)clientThreadList[i]))
+          clientThreadList[selected++] = clientThreadList[i];
+      }
+      clientThreadList = Arrays.copyOf(clientThreadList, selected);
+    }
+
+    BroadcastEvent event = new BroadcastEvent();
+    event.begin();
+    int failures = 0;
+    SharedFrame shared = compressBroadcast(msg, clientThreadList);
+
+    try
+    {
+      for (int i=0; i<clientThreadList.length; i++)
+      {
+        try
+        {
+          ((ConnectionToClient)clientThreadList[i]).sendToClient(msg, shared);
+        }
+        catch (Exception ex)
+        {
+          failures++;
+        }
+      }
+    }
+    finally
+    {
+      if (shared != null)
+      {
+        metrics.broadcastBytesCopied.record(shared.getCopiedBytes());
+        shared.release();
+      }
+    }
+    metrics.broadcastDuration.record(System.nanoTime() - start);
+
+    event.end();
+    if (event.shouldCommit())
+    {
+      event.messageClass = msg == null ? null : msg.getClass().getName();
+      event.recipients = clientThreadList.length;
+      event.failures = failures;
+      event.commit();
+    }
+  }
+
+
+  /**
+   * Compresses a broadcast once, as a standalone frame that is written
+   * as is to every recipient accepting compression, when there are
+   * at least two of them. The time this takes is counted, together
+   * with an estimate of the time saved: compressing the broadcast for
+   * each of the other recipients would have taken as long. The frame
+   * is staged in a pooled buffer, to be released once written.
+   *
+   * @param msg the message, or the batch of messages, to write.
+   * @param clientThreadList the recipients.
+   * @return the frame, or null if the message is sent uncompressed or
+   *  compressed by each connection.
+   */
+  private SharedFrame compressBroadcast(Object msg, Thread[] clientThreadList)
+  {
+    int threshold = compressionThreshold;
+    if (threshold <= 0)
+      return null;
+
+    int recipients = 0;
+    for (int i=0; i<clientThreadList.length; i++)
+    {
+      if (((ConnectionToClient)clientThreadList[i]).isCompressing())
+        recipients++;
+    }
+    if (recipients < 2)
+      return null;
+
+    long start = System.nanoTime();
+    Compressed shared;
+    try
+    {
+      shared = broadcastCompressor.compressStandalone(msg, threshold);
+    }
+    catch (IOException e)
+    {
+      // Unserializable: every write would fail anyway
+      return null;
+    }
+    if (shared == null)
+      return null;
+
+    long elapsed = System.nanoTime() - start;
+    metrics.sharedCompressions.increment();
+    metrics.sharedCompressionTime.add(elapsed);
+    metrics.sharedCompressionSaved.add(elapsed * (recipients - 1));
+    metrics.sharedCompressionRecipients.add(recipients);
+    return new SharedFrame(shared);
+  }
+
+  /**
+   * Limits the rate at which each connection may send messages.
+   * Messages above the limit are dropped before they reach
+   * <code>handleMessageFromClient</code> and are counted as rejected.
+   * A connection carrying logical sessions is limited in the rate
+   * at which it opens them, each session in the rate of its messages.
+   * The limit applies immediately to existing connections.
+   *
+   * @param messagesPerSecond the sustained rate; zero or less
+   *  removes the limit.
+   * @param burst the number of messages that may be sent at once.
+   * @exception IllegalArgumentException if the rate is not a finite
+   *  number.
+   */
+  final synchronized public void setClientRateLimit(
+    double messagesPerSecond, int burst)
+  {
+    checkRate(messagesPerSecond);
+    clientRate = messagesPerSecond;
+    clientBurst = burst;
+
+    Thread[] clientThreadList = getConnectionThreads();
+    for (int i=0; i<clientThreadList.length; i++)
+    {
+      ((ConnectionToClient)clientThreadList[i]).setRateLimiter(
+        createClientBucket());
+    }
+    for (ConnectionToClient session : sessions)
+    {
+      session.setRateLimiter(createClientBucket());
+    }
+  }
+
+  /**
+   * Limits the rate at which each identity may send messages, all
+   * of its connections taken together. The identity of a connection
+   * is given by <code>getRateLimitIdentity</code>; connections
+   * without an identity are only subject to the per-connection limit.
+   *
+   * @param messagesPerSecond the sustained rate; zero or less
+   *  removes the limit.
+   * @param burst the number of messages that may be sent at once.
+   * @exception IllegalArgumentException if the rate is not a finite
+   *  number.
+   */
+  final public void setIdentityRateLimit(
+    double messagesPerSecond, int burst)
+  {
+    checkRate(messagesPerSecond);
+    identityRate = messagesPerSecond;
+    identityBurst = burst;
+    identityBuckets.clear();
+  }
+
+  /**
+   * Sets the time during which broadcasts are collected before being
+   * sent together, in a single frame per client. During bursts, this
+   * saves many writes and wakeups on both sides at the cost of up to
+   * one window of latency. The window starts with the first broadcast
+   * after a quiet period. Clients unpack the frames themselves, so
+   * <code>handleMessageFromServer</code> still receives every message
+   * on its own. Messages sent with <code>sendToClient</code> are not
+   * delayed, so they may overtake the broadcasts of the current window.
+   *
+   * @param coalescingWindow the window in ms; zero sends every
+   *  broadcast at once, which is the default.
+   */
+  final public void setCoalescingWindow(int coalescingWindow)
+  {
+    this.coalescingWindow = coalescingWindow;
+    if (coalescingWindow <= 0)
+      broadcastFlusher.execute(this::flushCoalesced);
+  }
+
+  /**
+   * Returns the coalescing window.
+   *
+   * @return the window in ms; zero if broadcasts are not coalesced.
+   */
+  final public int getCoalescingWindow()
+  {
+    return coalescingWindow;
+  }
+
+  /**
+   * Sets the size from which messages are compressed. Compression is
+   * negotiated when a client connects: only clients that asked for it,
+   * and that connect while the threshold is above zero, are sent
+   * compressed messages, in either direction. Each such connection
+   * then keeps its own deflate stream, so that content repeated from
+   * one message to the next, such as the class descriptions of the
+   * messages, is compressed away. Lowering the threshold to zero stops
+   * compression without closing the streams.
+   *
+   * @param compressionThreshold the serialized size of the smallest
+   *  message compressed, in bytes; zero disables compression, which
+   *  is the default.
+   */
+  final public void setCompressionThreshold(int compressionThreshold)
+  {
+    this.compressionThreshold = Math.max(0, compressionThreshold);
+  }
+
+  /**
+   * Sets the size of the largest message a client may send
+   * compressed. A compressed frame announcing a larger message is
+   * taken as corrupt, and the connection is closed, before memory is
+   * allocated for the message. The size applies to the connections
+   * that negotiate compression from then on.
+   *
+   * @param maxMessageSize the serialized size of the message, in
+   *  bytes.
+   * @exception IllegalArgumentException if the size is not positive.
+   */
+  final public void setMaxMessageSize(int maxMessageSize)
+  {
+    if (maxMessageSize <= 0)
+      throw new IllegalArgumentException("maxMessageSize <= 0");
+    this.maxMessageSize = maxMessageSize;
+  }
+
+  /**
+   * Returns the size of the largest message accepted compressed.
+   *
+   * @return the size in bytes.
+   */
+  final public int getMaxMessageSize()
+  {
+    return maxMessageSize;
+  }
+
+  /**
+   * Returns the size from which messages are compressed.
+   *
+   * @return the threshold in bytes; zero if compression is disabled.
+   */
+  final public int getCompressionThreshold()
+  {
+    return compressionThreshold;
+  }
+
+  /**
+   * Sets the maximum number of simultaneous connections. Connection
+   * attempts above the limit are closed as soon as they are
+   * accepted. Each logical session counts as a connection too; those
+   * above the limit are refused when opened. Existing connections are
+   * not affected.
+   *
+   * @param maxConnections the limit; zero means no limit.
+   */
+  final public void setMaxConnections(int maxConnections)
+  {
+    this.maxConnections = maxConnections;
+  }
+
+  /**
+   * Sets the maximum number of simultaneous connections from a
+   * single Internet address. Existing connections are not affected.
+   *
+   * @param maxConnections the limit; zero means no limit.
+   */
+  final public void setMaxConnectionsPerAddress(int maxConnections)
+  {
+    this.maxConnectionsPerAddress = maxConnections;
+  }
+
+  /**
+   * Sets the time a new client has to send its object stream header.
+   * A client that does not do so in time is disconnected.
+   * The default is ten seconds.
+   *
+   * @param handshakeTimeout the timeout in ms; zero means no timeout.
+   */
+  final public void setHandshakeTimeout(int handshakeTimeout)
+  {
+    this.handshakeTimeout = handshakeTimeout;
+  }
+
+  /**
+   * Sets the time clients are given to answer the goodbye sent when
+   * the server closes (see <code>close</code>). A few seconds lets a
+   * rolling restart deliver the last messages of every client instead
+   * of dropping them.
+   *
+   * @param drainTimeout the timeout in ms; zero closes the clients at
+   *  once, which is the default.
+   */
+  final public void setDrainTimeout(int drainTimeout)
+  {
+    this.drainTimeout = Math.max(0, drainTimeout);
+  }
+
+  /**
+   * Returns the time clients are given to answer when the server
+   * closes.
+   *
+   * @return the timeout in ms; zero if they are closed at once.
+   */
+  final public int getDrainTimeout()
+  {
+    return drainTimeout;
+  }
+
+  /**
+   * Sets the range over which the reconnect delays given to clients
+   * are spread when the server closes after draining. Each client is
+   * told to wait a random time below the range, so that clients do
+   * not all reconnect in the same instant.
+   *
+   * @param reconnectSpread the range in ms; zero tells clients they
+   *  may reconnect at once, which is the default.
+   */
+  final public void setReconnectSpread(int reconnectSpread)
+  {
+    this.reconnectSpread = Math.max(0, reconnectSpread);
+  }
+
+  /**
+   * Returns the range over which reconnect delays are spread.
+   *
+   * @return the range in ms.
+   */
+  final public int getReconnectSpread()
+  {
+    return reconnectSpread;
+  }
+
+  /**
+   * Sets the path of the Unix domain socket through which servers
+   * hand their port off to each other, for restarts without refused
+   * connections. A server with a handoff path binds its port with
+   * SO_REUSEPORT; when it starts listening, it asks the server
+   * listening at the path, if any, to stop accepting and close, then
+   * waits for requests at the path itself. A server that hands off
+   * its port calls <code>serverHandedOff</code>, then closes, after
+   * draining its connections if a drain timeout is set. Both servers
+   * must run as the same user: the socket is only accessible to its
+   * owner, and requests from other users are ignored. The path only
+   * takes effect the next time the server sockets are opened.
+   *
+   * @param handoffPath the path of the socket, or null to disable
+   *  handoffs, which is the default.
+   */
+  final public void setHandoffPath(Path handoffPath)
+  {
+    this.handoffPath = handoffPath;
+  }
+
+  /**
+   * Returns the path through which the server hands its port off.
+   *
+   * @return the path, or null if handoffs are disabled.
+   */
+  final public Path getHandoffPath()
+  {
+    return handoffPath;
+  }
+
+  /**
+   * Sets the time a client may stay silent before it is
+   * disconnected. Idle clients are closed with
+   * <code>ConnectionToClient.close</code>, so
+   * <code>clientDisconnected</code> is called for them as usual.
+   * Logical sessions time out separately from their carrier.
+   * The timeout applies immediately to existing connections.
+   * Timeouts are checked by a timer with a resolution of 100 ms.
+   *
+   * @param idleTimeout the timeout in ms; zero disables it.
+   */
+  final public void setIdleTimeout(int idleTimeout)
+  {
+    this.idleTimeout = idleTimeout;
+
+    Thread[] clientThreadList = getConnectionThreads();
+    for (int i=0; i<clientThreadList.length; i++)
+    {
+      ((ConnectionToClient)clientThreadList[i]).armIdleTimeout();
+    }
+    for (ConnectionToClient session : sessions)
+    {
+      session.armIdleTimeout();
+    }
+  }
+
+  /**
+   * Sets the interval at which every client is sent a heartbeat.
+   * Clients answer heartbeats automatically, which keeps their
+   * connection active and measures its round trip time (see
+   * <code>ConnectionToClient.getRoundTripTime</code>). Heartbeats are
+   * never passed to <code>handleMessageFromClient</code>.
+   * Combined with an idle timeout of a few intervals, dead peers are
+   * detected quickly even when they never close their connection.
+   * The interval applies immediately to existing connections.
+   *
+   * @param heartbeatInterval the interval in ms; zero disables
+   *  heartbeats.
+   */
+  final public void setHeartbeatInterval(int heartbeatInterval)
+  {
+    this.heartbeatInterval = heartbeatInterval;
+
+    Thread[] clientThreadList = getConnectionThreads();
+    for (int i=0; i<clientThreadList.length; i++)
+    {
+      ((ConnectionToClient)clientThreadList[i]).armHeartbeat();
+    }
+  }
+
+// ACCESSING METHODS ------------------------------------------------
+
+  /**
+   * Returns the registry holding this server's metrics: message and
+   * byte counts, handler, broadcast and write durations, dispatch
+   * queue depth, heartbeat round trip times and the counts kept by
+   * rate limiting and admission control. Metrics are updated without
+   * holding the server's monitor and may be read from any thread.
+   *
+   * @return the server's metrics.
+   */
+  final public MetricsRegistry getMetrics()
+  {
+    return metrics.registry;
+  }
+
+  /**
+   * Returns the number of clients that were disconnected because
+   * they stayed silent longer than the idle timeout.
+   *
+   * @return the number of idle disconnections.
+   */
+  final public long getIdleDisconnectCount()
+  {
+    return metrics.idleDisconnects.get();
+  }
+
+  /**
+   * Returns the number of connection attempts that were closed
+   * because a connection limit was reached.
+   *
+   * @return the number of refused connections.
+   */
+  final public long getRefusedConnectionCount()
+  {
+    return metrics.refusedConnections.get();
+  }
+
+  /**
+   * Returns the number of messages that were dropped because a
+   * rate limit was exceeded.
+   *
+   * @return the number of rejected messages.
+   */
+  final public long getRejectedMessageCount()
+  {
+    return metrics.rejectedMessages.get();
+  }
+
+  /**
+   * Returns true if the server is ready to accept new clients.
+   *
+   * @return true if the server is listening.
+   */
+  final public boolean isListening()
+  {
+    return (connectionListener != null);
+  }
+
+  /**
+   * Returns an array containing the existing
+   * client connections. This can be used by
+   * concrete subclasses to implement messages that do something with
+   * each connection (e.g. kill it, send a message to it etc.).
+   * Remember that after this array is obtained, some clients
+   * in this migth disconnect. New clients can also connect,
+   * these later will not appear in the array.
+   * Logical sessions are included; the connections carrying them
+   * are not, nor are those still in their handshake.
+   *
+   * @return an array of <code>Thread</code> containing
+   * <code>ConnectionToClient</code> instances.
+   */
+  synchronized final public Thread[] getClientConnections()
+  {
+    Thread[] clientThreadList = getConnectionThreads();
+    ArrayList<Thread> clients =
+      new ArrayList<>(clientThreadList.length + sessions.size());
+    for (int i=0; i<clientThreadList.length; i++)
+    {
+      ConnectionToClient client = (ConnectionToClient)clientThreadList[i];
+      if (client.isHandshaken() && !client.isCarrier())
+        clients.add(client);
+    }
+    clients.addAll(sessions);
+    return clients.toArray(new Thread[clients.size()]);
+  }
+
+  /**
+   * Counts the number of clients currently connected, logical
+   * sessions included.
+   *
+   * @return the number of clients currently connected.
    */
   final public int getNumberOfClients()
   {
-    return clientThreadGroup.activeCount();
+    return Math.max(0, clientThreadGroup.activeCount() - carriers.get())
+      + sessions.size();
   }
 
   /**
@@ -258,6 +1375,16 @@ public abstract class AbstractServer implements Runnable
     return port;
   }
 
+  /**
+   * Returns the interface the server's port is bound to.
+   *
+   * @return the host name or address, or null for all interfaces.
+   */
+  final public String getHost()
+  {
+    return host;
+  }
+
   /**
    * Sets the port number for the next connection.
    * The server must be closed and restarted for the port
@@ -270,6 +1397,22 @@ public abstract class AbstractServer implements Runnable
     this.port = port;
   }
 
+  /**
+   * Sets the interface the server's port is bound to, so that the
+   * server can be reached from one network only. The default is all
+   * interfaces. Listeners added with <code>addListener</code> have an
+   * interface of their own.
+   * The server must be closed and restarted for the change to be in
+   * effect.
+   *
+   * @param host the host name or address of the interface, or null for
+   *  all interfaces.
+   */
+  final public void setHost(String host)
+  {
+    this.host = host;
+  }
+
   /**
    * Sets the timeout time when accepting connections.
    * The default is half a second. This means that stopping the
@@ -285,16 +1428,162 @@ public abstract class AbstractServer implements Runnable
   }
 
   /**
-   * Sets the maximum number of waiting connections accepted by the
-   * operating system. The default is 20.
-   * The server must be closed and restarted for the backlog
-   * change to be in effect.
-   *
-   * @param backlog the maximum number of connections.
+   * Sets the maximum number of waiting connections accepted by the
+   * operating system. The default is 20.
+   * The server must be closed and restarted for the backlog
+   * change to be in effect.
+   *
+   * @param backlog the maximum number of connections.
+   */
+  final public void setBacklog(int backlog)
+  {
+    this.backlog = backlog;
+  }
+
+  /**
+   * Sets the number of acceptor threads, each accepting on a server
+   * socket of its own bound to the same port with SO_REUSEPORT, so
+   * that the operating system spreads the connections among them
+   * rather than queueing them all for one thread. This helps when
+   * many clients reconnect at once. On platforms without SO_REUSEPORT
+   * a single socket is opened. The default is 1.
+   * The server must be closed and restarted for the change to be in
+   * effect.
+   *
+   * @param acceptors the number of acceptor threads.
+   */
+  final public void setAcceptorCount(int acceptors)
+  {
+    this.acceptors = Math.max(1, acceptors);
+  }
+
+  /**
+   * @return the number of acceptor threads asked for.
+   */
+  final public int getAcceptorCount()
+  {
+    return acceptors;
+  }
+
+  /**
+   * Adds a listener: the server will also accept connections on
+   * another port or interface, with a connection limit of its own.
+   * Clients connected through any listener are served alike; their
+   * connections tell which listener accepted them. Each listener has
+   * as many acceptor threads as set by <code>setAcceptorCount</code>.
+   * The server must be closed and restarted for the change to be in
+   * effect.
+   *
+   * @param name the name of the listener, which appears in its metrics:
+   *  letters, digits and underscores.
+   * @param host the host name or address of the interface to listen
+   *  on, or null for all interfaces.
+   * @param port the port to listen on.
+   * @param maxConnections the maximum number of connections accepted
+   *  by this listener; zero means no limit.
+   * @exception IllegalArgumentException if the name is not valid or
+   *  was already used.
+   */
+  final public void addListener(String name, String host, int port,
+    int maxConnections)
+  {
+    synchronized (listeners)
+    {
+      if (listeners.containsKey(name))
+        throw new IllegalArgumentException("listener already exists: " + name);
+      listeners.put(name, new Listener(name, host, port, null,
+        maxConnections, metrics.registry));
+    }
+  }
+
+  /**
+   * Adds a listener on a Unix domain socket, through which clients on
+   * the same host connect without going through the TCP/IP stack (see
+   * <code>AbstractClient.setUnixSocketPath</code>). Its clients are
+   * served like any others and go through the same hooks, but have no
+   * Internet address: <code>getInetAddress</code> returns null for
+   * them, so the limit per address and <code>connectionRefused</code>
+   * see none. Access to the socket is controlled by the permissions of
+   * its file, which is created when the server starts listening and
+   * deleted when it is closed. A listener on a Unix domain socket has
+   * a single acceptor thread. The server must be closed and restarted
+   * for the change to be in effect.
+   *
+   * @param name the name of the listener, which appears in its metrics:
+   *  letters, digits and underscores.
+   * @param path the path of the socket file.
+   * @param maxConnections the maximum number of connections accepted
+   *  by this listener; zero means no limit.
+   * @exception IllegalArgumentException if the name is not valid or
+   *  was already used.
+   */
+  final public void addUnixListener(String name, Path path,
+    int maxConnections)
+  {
+    synchronized (listeners)
+    {
+      if (listeners.containsKey(name))
+        throw new IllegalArgumentException("listener already exists: " + name);
+      listeners.put(name, new Listener(name, null, 0, path,
+        maxConnections, metrics.registry));
+    }
+  }
+
+  /**
+   * Removes a listener added with <code>addListener</code> or
+   * <code>addUnixListener</code>. Its
+   * connections stay open; its metrics stay registered, so its name
+   * cannot be used again. The server must be closed and restarted for
+   * the change to be in effect.
+   *
+   * @param name the name of the listener.
+   * @return false if there is no such listener, or it is the default
+   *  listener, which cannot be removed.
+   */
+  final public boolean removeListener(String name)
+  {
+    synchronized (listeners)
+    {
+      return !DEFAULT_LISTENER.equals(name) && listeners.remove(name) != null;
+    }
+  }
+
+  /**
+   * @return the names of the listeners, the default one first.
+   */
+  final public List<String> getListenerNames()
+  {
+    synchronized (listeners)
+    {
+      return new ArrayList<>(listeners.keySet());
+    }
+  }
+
+  /**
+   * Returns the number of connections open on a listener, including
+   * those still performing their handshake and those carrying logical
+   * sessions.
+   *
+   * @param name the name of the listener.
+   * @return the number of connections, or -1 if there is no such
+   *  listener.
+   */
+  final public int getListenerConnectionCount(String name)
+  {
+    synchronized (listeners)
+    {
+      Listener listener = listeners.get(name);
+      return listener == null ? -1 : listener.getConnectionCount();
+    }
+  }
+
+  /**
+   * @return the number of server sockets accepting connections, zero
+   *  if the server is not listening.
    */
-  final public void setBacklog(int backlog)
+  final int getListeningSocketCount()
   {
-    this.backlog = backlog;
+    return isListening() ? acceptorThreads.length + 1 : 0;
   }
 
 // RUN METHOD -------------------------------------------------------
@@ -308,38 +1597,28 @@ public abstract class AbstractServer implements Runnable
     // call the hook method to notify that the server is starting
     serverStarted();
 
-    try
+    ServerSocket[] sockets = serverSockets;
+    Listener[] owners = socketListeners;
+    for (int i=0; i<acceptorThreads.length; i++)
     {
-      // Repeatedly waits for a new client connection, accepts it, and
-      // starts a new thread to handle data exchange.
-      while(!readyToStop)
-      {
-        try
-        {
-          // Wait here for new connection attempts, or a timeout
-          Socket clientSocket = serverSocket.accept();
-
-          // When a client is accepted, create a thread to handle
-          // the data exchange, then add it to thread group
+      ServerSocket socket = sockets[i + 1];
+      Listener listener = owners[i + 1];
+      acceptorThreads[i] = new Thread(() -> acceptOn(socket, listener),
+        "acceptor " + listener.name + " " + (i + 1));
+      acceptorThreads[i].start();
+    }
 
-          synchronized(this)
-          {
-            ConnectionToClient c = new ConnectionToClient(
-              this.clientThreadGroup, clientSocket, this);
-          }
-        }
-        catch (InterruptedIOException exception)
-        {
-          // This will be thrown when a timeout occurs.
-          // The server will continue to listen if not ready to stop.
-        }
-      }
+    try
+    {
+      accept(sockets[0], owners[0]);
 
       // call the hook method to notify that the server has stopped
+      stopAcceptors();
       serverStopped();
     }
     catch (IOException exception)
     {
+      stopAcceptors();
       if (!readyToStop)
       {
         // Closing the socket must have thrown a SocketException
@@ -357,6 +1636,110 @@ public abstract class AbstractServer implements Runnable
     }
   }
 
+  /**
+   * Runs an acceptor thread other than the listening thread. The
+   * hooks are called by the listening thread only, except for
+   * <code>listeningException</code>.
+   *
+   * @param serverSocket the socket to accept on.
+   * @param listener the listener the socket belongs to.
+   */
+  private void acceptOn(ServerSocket serverSocket, Listener listener)
+  {
+    try
+    {
+      accept(serverSocket, listener);
+    }
+    catch (IOException exception)
+    {
+      if (!readyToStop)
+        listeningException(exception);
+    }
+  }
+
+  /**
+   * Stops the other acceptor threads and waits for them to end, which
+   * takes at most the accept timeout.
+   */
+  private void stopAcceptors()
+  {
+    readyToStop = true;
+    for (int i=0; i<acceptorThreads.length; i++)
+    {
+      try
+      {
+        if (acceptorThreads[i] != null)
+          acceptorThreads[i].join();
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Accepts connections on a server socket until the server stops
+   * listening.
+   *
+   * @param serverSocket the socket.
+   * @param listener the listener the socket belongs to.
+   * @exception IOException if the socket fails or is closed.
+   */
+  private void accept(ServerSocket serverSocket, Listener listener)
+    throws IOException
+  {
+    // Repeatedly waits for a new client connection, accepts it, and
+    // starts a new thread to handle data exchange.
+    while(!readyToStop)
+    {
+      try
+      {
+        // Wait here for new connection attempts, or a timeout
+        Socket clientSocket = serverSocket.accept();
+
+        // Refuse the connection at once if a limit is reached
+        boolean admitted = admitConnection(clientSocket.getInetAddress(),
+          listener);
+        listener.count(admitted);
+
+        ConnectionAcceptEvent event = new ConnectionAcceptEvent();
+        if (event.shouldCommit())
+        {
+          event.remoteAddress = String.valueOf(clientSocket.getInetAddress());
+          event.admitted = admitted;
+          event.commit();
+        }
+
+        if (!admitted)
+        {
+          metrics.refusedConnections.increment();
+          try
+          {
+            clientSocket.close();
+          }
+          catch (IOException ex) {}
+
+          connectionRefused(clientSocket.getInetAddress());
+          continue;
+        }
+
+        // When a client is accepted, create a thread to handle
+        // the data exchange, then add it to thread group. The
+        // stream handshake happens in that thread, so accepting
+        // never waits for the client.
+
+        new ConnectionToClient(this.clientThreadGroup, clientSocket, this,
+          listener);
+      }
+      catch (InterruptedIOException exception)
+      {
+        // This will be thrown when a timeout occurs.
+        // The server will continue to listen if not ready to stop.
+      }
+    }
+  }
+
 
 // METHODS DESIGNED TO BE OVERRIDDEN BY CONCRETE SUBCLASSES ---------
 
@@ -421,6 +1804,17 @@ public abstract class AbstractServer implements Runnable
    */
   protected void serverClosed() {}
 
+  /**
+   * Hook method called when a new server has taken the port over.
+   * The server has stopped accepting; the new server waits for this
+   * method to return before going on, so that other resources it
+   * needs, such as other ports, can be released for it. The server is
+   * then closed, after draining its connections if a drain timeout is
+   * set. The default implementation does nothing. This method may be
+   * overriden by subclasses.
+   */
+  protected void serverHandedOff() {}
+
   /**
    * Handles a command sent from one client to the server.
    * This MUST be implemented by subclasses, who should respond to
@@ -435,6 +1829,42 @@ public abstract class AbstractServer implements Runnable
   protected abstract void handleMessageFromClient(
     Object msg, ConnectionToClient client);
 
+  /**
+   * Hook method called each time a connection attempt is closed
+   * because a connection limit was reached. It is called by the
+   * listening thread, or by the thread of the connection carrying a
+   * logical session that was refused. The default implementation does
+   * nothing.
+   *
+   * @param address the Internet address of the refused client.
+   */
+  protected void connectionRefused(InetAddress address) {}
+
+  /**
+   * Returns the identity under which a client is rate limited
+   * (e.g. its login ID), or null if it has none yet.
+   * The default implementation returns null.
+   * This method is called for every message, outside of the
+   * server's monitor, so it should be cheap and must not block.
+   *
+   * @param client the connection that sent a message.
+   * @return the key of the client's identity bucket, or null.
+   */
+  protected Object getRateLimitIdentity(ConnectionToClient client)
+  {
+    return null;
+  }
+
+  /**
+   * Hook method called each time a message is dropped because a
+   * rate limit was exceeded. It is called outside of the server's
+   * monitor. The default implementation does nothing.
+   *
+   * @param msg the message that was dropped.
+   * @param client the connection that sent the message.
+   */
+  protected void messageRejected(Object msg, ConnectionToClient client) {}
+
 
 // METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------
 
@@ -442,18 +1872,356 @@ public abstract class AbstractServer implements Runnable
    * Receives a command sent from the client to the server.
    * Called by the run method of <code>ConnectionToClient</code>
    * instances that are watching for messages coming from the server
-   * This method is synchronized to ensure that whatever effects it has
-   * do not conflict with work being done by other threads. The method
-   * simply calls the <code>handleMessageFromClient</code> slot method.
+   * The <code>handleMessageFromClient</code> slot method is called
+   * while holding the server's monitor, to ensure that whatever effects
+   * it has do not conflict with work being done by other threads. The
+   * time spent waiting for the monitor and in the handler is recorded
+   * in the server's metrics.
    *
    * @param msg   the message sent.
    * @param client the connection connected to the client that
    *  sent the message.
    */
-  final synchronized void receiveMessageFromClient(
+  final void receiveMessageFromClient(
     Object msg, ConnectionToClient client)
   {
-    this.handleMessageFromClient(msg, client);
+    HandlerDispatchEvent event = new HandlerDispatchEvent();
+    event.begin();
+    long start = System.nanoTime();
+    long entered;
+    dispatchQueue.incrementAndGet();
+
+    synchronized (this)
+    {
+      entered = System.nanoTime();
+      dispatchQueue.decrementAndGet();
+      metrics.dispatchWait.record(entered - start);
+
+      try
+      {
+        this.handleMessageFromClient(msg, client);
+      }
+      finally
+      {
+        metrics.handlerDuration.record(System.nanoTime() - entered);
+        metrics.messagesReceived.increment();
+      }
+    }
+
+    event.end();
+    if (event.shouldCommit())
+    {
+      event.messageClass = msg == null ? null : msg.getClass().getName();
+      event.monitorWait = entered - start;
+      event.commit();
+    }
+  }
+
+  /**
+   * Decides whether a message just read from a client may be
+   * handled. Called by <code>ConnectionToClient</code> before
+   * <code>receiveMessageFromClient</code>, without holding the
+   * server's monitor. A refused message is counted and passed to
+   * <code>messageRejected</code>.
+   *
+   * @param msg   the message sent.
+   * @param client the connection connected to the client that
+   *  sent the message.
+   * @return true if the message conforms to the rate limits.
+   */
+  final boolean admitMessage(Object msg, ConnectionToClient client)
+  {
+    if (client.tryAcquire() && tryAcquireIdentity(client))
+      return true;
+
+    metrics.rejectedMessages.increment();
+    messageRejected(msg, client);
+    return false;
+  }
+
+  /**
+   * Counts a logical session a client asks to open against the
+   * connection limits, as a connection from the address of its carrier
+   * accepted by the carrier's listener. A refused session is counted
+   * and passed to <code>connectionRefused</code>.
+   *
+   * @param address the Internet address of the carrier, or null.
+   * @param listener the listener that accepted the carrier.
+   * @return true if the session may be opened.
+   */
+  final boolean admitSession(InetAddress address, Listener listener)
+  {
+    boolean admitted = admitConnection(address, listener);
+    listener.count(admitted);
+    if (!admitted)
+    {
+      metrics.refusedConnections.increment();
+      connectionRefused(address);
+    }
+    return admitted;
+  }
+
+  /**
+   * Counts a new connection against the connection limits, those of
+   * its listener first. If a limit is reached, nothing is counted.
+   *
+   * @param address the Internet address of the client, or null if it
+   *  has none.
+   * @param listener the listener that accepted it.
+   * @return true if the connection may proceed.
+   */
+  private boolean admitConnection(InetAddress address, Listener listener)
+  {
+    if (!listener.admit())
+      return false;
+
+    int max = maxConnections;
+    if (admittedConnections.incrementAndGet() > max && max > 0)
+    {
+      admittedConnections.decrementAndGet();
+      listener.release();
+      return false;
+    }
+
+    if (address != null)
+    {
+      int count = connectionsPerAddress.merge(address, 1, Integer::sum);
+      int maxPerAddress = maxConnectionsPerAddress;
+      if (count > maxPerAddress && maxPerAddress > 0)
+      {
+        releaseConnection(address, listener);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Releases the slots taken by a connection in the connection
+   * limits. Called once per admitted connection when it terminates.
+   *
+   * @param address the Internet address of the client.
+   * @param listener the listener that accepted the connection.
+   */
+  final void releaseConnection(InetAddress address, Listener listener)
+  {
+    listener.release();
+    admittedConnections.decrementAndGet();
+    if (address != null)
+    {
+      connectionsPerAddress.computeIfPresent(address,
+        (a, count) -> count > 1 ? count - 1 : null);
+    }
+  }
+
+  /**
+   * Returns the metrics updated by connections.
+   *
+   * @return the server's metrics.
+   */
+  final ServerMetrics metrics()
+  {
+    return metrics;
+  }
+
+  /**
+   * Returns the idle timeout.
+   *
+   * @return the timeout in ms; zero if disabled.
+   */
+  final int getIdleTimeout()
+  {
+    return idleTimeout;
+  }
+
+  /**
+   * Returns the heartbeat interval.
+   *
+   * @return the interval in ms; zero if disabled.
+   */
+  final int getHeartbeatInterval()
+  {
+    return heartbeatInterval;
+  }
+
+  /**
+   * Returns the executor used to write heartbeats.
+   *
+   * @return the heartbeat executor.
+   */
+  final Executor getHeartbeatSender()
+  {
+    return heartbeatSender;
+  }
+
+  /**
+   * Returns the timer shared by all connections.
+   *
+   * @return the server's timer.
+   */
+  final HashedWheelTimer getTimer()
+  {
+    return timer;
+  }
+
+  /**
+   * Returns the threads of all connections with their own socket,
+   * including those carrying logical sessions.
+   *
+   * @return the connection threads.
+   */
+  private Thread[] getConnectionThreads()
+  {
+    Thread[] clientThreadList = new
+      Thread[clientThreadGroup.activeCount()];
+
+    int count = clientThreadGroup.enumerate(clientThreadList);
+    return count == clientThreadList.length ? clientThreadList
+      : Arrays.copyOf(clientThreadList, count);
+  }
+
+  /**
+   * Counts a connection that has started to carry logical sessions.
+   */
+  final void carrierOpened()
+  {
+    carriers.incrementAndGet();
+  }
+
+  /**
+   * Counts a connection carrying logical sessions that has closed.
+   */
+  final void carrierClosed()
+  {
+    carriers.decrementAndGet();
+  }
+
+  /**
+   * Registers a logical session just opened.
+   *
+   * @param session the session.
+   */
+  final void sessionOpened(ConnectionToClient session)
+  {
+    sessions.add(session);
+  }
+
+  /**
+   * Unregisters a logical session just closed.
+   *
+   * @param session the session.
+   */
+  final void sessionClosed(ConnectionToClient session)
+  {
+    sessions.remove(session);
+  }
+
+  /**
+   * Returns the number of logical sessions open.
+   *
+   * @return the number of sessions.
+   */
+  final int getSessionCount()
+  {
+    return sessions.size();
+  }
+
+  /**
+   * Counts a client disconnected for being idle.
+   */
+  final void countIdleDisconnect()
+  {
+    metrics.idleDisconnects.increment();
+  }
+
+  /**
+   * Returns the handshake timeout.
+   *
+   * @return the timeout in ms.
+   */
+  final int getHandshakeTimeout()
+  {
+    return handshakeTimeout;
+  }
+
+  /**
+   * Checks a rate limit before it is set, since NaN would compare as
+   * no limit and infinity break the token buckets.
+   *
+   * @param messagesPerSecond the rate.
+   * @exception IllegalArgumentException if the rate is not a finite
+   *  number.
+   */
+  private static void checkRate(double messagesPerSecond)
+  {
+    if (!Double.isFinite(messagesPerSecond))
+      throw new IllegalArgumentException(
+        "rate must be a finite number: " + messagesPerSecond);
+  }
+
+  /**
+   * Returns a new token bucket for a connection, according to the
+   * per-connection limit.
+   *
+   * @return the bucket, or null if connections are not limited.
+   */
+  final TokenBucket createClientBucket()
+  {
+    double rate = clientRate;
+    return rate > 0 ? new TokenBucket(rate, Math.max(1, clientBurst)) : null;
+  }
+
+  /**
+   * Takes a token from the bucket of the client's identity.
+   *
+   * @param client the connection that sent a message.
+   * @return false if the identity exceeded its rate limit.
+   */
+  private boolean tryAcquireIdentity(ConnectionToClient client)
+  {
+    double rate = identityRate;
+    if (rate <= 0)
+      return true;
+
+    Object identity = getRateLimitIdentity(client);
+    if (identity == null)
+      return true;
+
+    TokenBucket bucket = identityBuckets.get(identity);
+    if (bucket == null)
+    {
+      if (identityBuckets.size() >= IDENTITY_SWEEP_THRESHOLD)
+      {
+        // Full buckets carry no state worth keeping
+        identityBuckets.values().removeIf(TokenBucket::isFull);
+      }
+
+      TokenBucket created =
+        new TokenBucket(rate, Math.max(1, identityBurst));
+      bucket = identityBuckets.putIfAbsent(identity, created);
+      if (bucket == null)
+        bucket = created;
+    }
+    return bucket.tryAcquire();
+  }
+
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * A broadcast waiting in a coalescing window that is meant only for
+   * some of the clients.
+   */
+  private static final class Addressed
+  {
+    final Object msg;
+    final Predicate<? super ConnectionToClient> recipients;
+
+    Addressed(Object msg, Predicate<? super ConnectionToClient> recipients)
+    {
+      this.msg = msg;
+      this.recipients = recipients;
+    }
   }
 }
 // End of AbstractServer Class
@@ -114,6 +114,14 @@ class AdaptableServer extends AbstractServer
     server.serverClosed();
   }
 
+  /**
+   * Hook method called when a new server has taken the port over.
+   */
+  final protected void serverHandedOff()
+  {
+    server.serverHandedOff();
+  }
+
   /**
    * Handles a command sent from the client to the server.
    *
@@ -126,4 +134,38 @@ class AdaptableServer extends AbstractServer
   {
     server.handleMessageFromClient(msg, client);
   }
+
+  /**
+   * Hook method called each time a connection attempt is refused
+   * because a connection limit was reached.
+   *
+   * @param address the Internet address of the refused client.
+   */
+  final protected void connectionRefused(InetAddress address)
+  {
+    server.connectionRefused(address);
+  }
+
+  /**
+   * Returns the identity under which a client is rate limited.
+   *
+   * @param client the connection that sent a message.
+   */
+  final protected Object getRateLimitIdentity(ConnectionToClient client)
+  {
+    return server.getRateLimitIdentity(client);
+  }
+
+  /**
+   * Hook method called each time a message is dropped because a
+   * rate limit was exceeded.
+   *
+   * @param msg the message that was dropped.
+   * @param client the connection that sent the message.
+   */
+  final protected void messageRejected(Object msg,
+                                        ConnectionToClient client)
+  {
+    server.messageRejected(msg, client);
+  }
 }
@@ -0,0 +1,31 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.server;
+
+import jdk.jfr.*;
+
+/**
+* Flight Recorder event spanning a call to
+* <code>sendToAllClients</code>, from the start of the broadcast to
+* the last write. Disabled by default.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+@Name("ocsf.server.Broadcast")
+@Label("Broadcast")
+@Category({"OCSF", "Server"})
+@Description("Call to sendToAllClients")
+@Enabled(false)
+final class BroadcastEvent extends Event
+{
+  @Label("Message Class")
+  String messageClass;
+
+  @Label("Recipients")
+  int recipients;
+
+  @Label("Failures")
+  @Description("Recipients to which the message could not be written")
+  int failures;
+}
@@ -0,0 +1,29 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.server;
+
+import jdk.jfr.*;
+
+/**
+* Flight Recorder event committed each time the listening thread
+* accepts a socket, whether or not admission control lets it in.
+* Disabled by default.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+@Name("ocsf.server.ConnectionAccept")
+@Label("Connection Accept")
+@Category({"OCSF", "Server"})
+@Description("A socket was accepted by the listening thread")
+@Enabled(false)
+@StackTrace(false)
+final class ConnectionAcceptEvent extends Event
+{
+  @Label("Remote Address")
+  String remoteAddress;
+
+  @Label("Admitted")
+  @Description("False if a connection limit was reached")
+  boolean admitted;
+}
@@ -7,6 +7,21 @@ package ocsf.server;
 import java.io.*;
 import java.net.*;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import ocsf.common.Batch;
+import ocsf.common.Compressed;
+import ocsf.common.Goodbye;
+import ocsf.common.HashedWheelTimer;
+import ocsf.common.Heartbeat;
+import ocsf.common.Hello;
+import ocsf.common.MessageCompressor;
+import ocsf.common.SessionFrame;
+import ocsf.common.Timestamped;
+import ocsf.metrics.CountingInputStream;
+import ocsf.metrics.CountingOutputStream;
 
 /**
  * An instance of this class is created by the server when a client connects. It
@@ -15,6 +30,18 @@ import java.util.HashMap;
  * contains a set of instances of this class and is responsible for adding and
  * deleting them.
  * <p>
+ * A client such as a gateway may multiplex many logical sessions over its
+ * connection (see <code>SessionFrame</code>). Each session is then an
+ * instance of this class too, with its own information and rate limit, but
+ * without a socket or a running thread of its own: its messages are read by
+ * the thread of the connection carrying it, and written on that
+ * connection.
+ * <p>
+ * A client may also ask, in a <code>Hello</code> sent right after
+ * connecting, for messages above the server's compression threshold to be
+ * compressed (see <code>MessageCompressor</code>). The frames are opened
+ * here, before the message reaches the server.
+ * <p>
  * Project Name: OCSF (Object Client-Server Framework)
  * <p>
  * 
@@ -43,12 +70,19 @@ public class ConnectionToClient extends Thread {
 	/**
 	 * Stream used to read from the client.
 	 */
-	private ObjectInputStream	input;
+	private volatile ObjectInputStream	input;
+
+	/**
+	 * Stream used to write to the client. Null until the handshake has
+	 * completed.
+	 */
+	private volatile ObjectOutputStream	output;
 
 	/**
-	 * Stream used to write to the client.
+	 * The bottom of the output stack, which writes shared frames with
+	 * gathering writes.
 	 */
-	private ObjectOutputStream	output;
+	private volatile GatheringOutputStream	gatherer;
 
 	/**
 	 * Indicates if the thread is ready to stop. Set to true when closing of the
@@ -64,6 +98,123 @@ public class ConnectionToClient extends Thread {
 	 */
 	private HashMap				savedInfo	= new HashMap(10);
 
+	/**
+	 * The token bucket limiting the rate of messages from this client, or
+	 * null if the server does not limit connections.
+	 */
+	private volatile TokenBucket	rateLimiter;
+
+	/**
+	 * The number of messages from this client that were dropped because a
+	 * rate limit was exceeded. Only written by this connection's thread.
+	 */
+	private volatile long		rejectedMessages;
+
+	/**
+	 * The Internet address of the client, kept after the socket is closed
+	 * so that its slot in the connection limits can be released.
+	 */
+	private final InetAddress	address;
+
+	/**
+	 * The listener that accepted the connection, or that of the carrier.
+	 */
+	private final Listener		listener;
+
+	/**
+	 * The time, on the System.nanoTime() scale, at which the last message
+	 * was received from the client.
+	 */
+	private volatile long		lastActivity;
+
+	/**
+	 * The pending idle check, or null if the server has no idle timeout.
+	 * Guarded by timerLock.
+	 */
+	private HashedWheelTimer.Timeout	idleCheck;
+
+	/**
+	 * The pending heartbeat, or null if the server sends no heartbeats.
+	 * Guarded by timerLock.
+	 */
+	private HashedWheelTimer.Timeout	heartbeat;
+
+	/**
+	 * Lock serializing the timer tasks of this connection with their
+	 * rearming.
+	 */
+	private final Object		timerLock	= new Object();
+
+	/**
+	 * Lock serializing writes to the output stream, which may come from
+	 * several threads (handlers, the server console, heartbeats).
+	 */
+	private final ReentrantLock	writeLock	= new ReentrantLock();
+
+	/**
+	 * Value of originTimestamp when the message being handled carries no
+	 * timestamp.
+	 */
+	static final long			NO_TIMESTAMP	= Long.MIN_VALUE;
+
+	/**
+	 * The time at which the client sent the message this thread is
+	 * handling, or NO_TIMESTAMP. Only accessed by this connection's thread.
+	 */
+	private long				originTimestamp	= NO_TIMESTAMP;
+
+	/**
+	 * The smoothed round trip time in nanoseconds, or -1 before the first
+	 * heartbeat reply.
+	 */
+	private volatile long		roundTripNanos	= -1;
+
+	/**
+	 * The connection carrying this logical session, or null if this
+	 * connection has its own socket.
+	 */
+	private final ConnectionToClient	carrier;
+
+	/**
+	 * The number of this logical session, chosen by the client; -1 for a
+	 * connection with its own socket.
+	 */
+	private final int			sessionId;
+
+	/**
+	 * The logical sessions carried by this connection, by number; null for
+	 * a logical session.
+	 */
+	private final ConcurrentHashMap<Integer, ConnectionToClient>	sessions;
+
+	/**
+	 * Set once the client has opened a logical session on this connection,
+	 * which then carries sessions rather than being a client itself.
+	 */
+	private volatile boolean	carrying	= false;
+
+	/**
+	 * Set once the handshake has completed and the server has been told of
+	 * the client; until then the connection is not one of the server's
+	 * clients.
+	 */
+	private volatile boolean	handshaken	= false;
+
+	/**
+	 * The compressor of this connection, set once the client has asked for
+	 * compression and the server has accepted; null otherwise. Messages are
+	 * compressed under the write lock, so that the frames reach the client
+	 * in the order in which they were made.
+	 */
+	private volatile MessageCompressor	compressor;
+
+	/**
+	 * The latch of the server's drain, counted down once the client has
+	 * answered the goodbye or the connection has ended; empty unless the
+	 * server is draining.
+	 */
+	private final AtomicReference<CountDownLatch>	drain	= new AtomicReference<>();
+
 	// CONSTRUCTORS *****************************************************
 
 	/**
@@ -76,34 +227,49 @@ public class ConnectionToClient extends Thread {
 	 *            contains the client's socket.
 	 * @param server
 	 *            a reference to the server that created this instance
-	 * @exception IOException
-	 *                if an I/O error occur when creating the connection.
+	 * @param listener
+	 *            the listener that accepted the connection.
 	 */
-	ConnectionToClient(ThreadGroup group, Socket clientSocket, AbstractServer server) throws IOException {
+	ConnectionToClient(ThreadGroup group, Socket clientSocket, AbstractServer server, Listener listener) {
 		super(group, (Runnable) null);
 		// Initialize variables
 		this.clientSocket = clientSocket;
+		this.address = clientSocket.getInetAddress();
+		this.listener = listener;
 		this.server = server;
+		this.rateLimiter = server.createClientBucket();
+		this.carrier = null;
+		this.sessionId = -1;
+		this.sessions = new ConcurrentHashMap<Integer, ConnectionToClient>();
 
-		clientSocket.setSoTimeout(0); // make sure timeout is infinite
-
-		// Initialize the objects streams
-		try {
-			input = new ObjectInputStream(clientSocket.getInputStream());
-			output = new ObjectOutputStream(clientSocket.getOutputStream());
-		} catch (IOException ex) {
-			try {
-				closeAll();
-			} catch (Exception exc) {
-			}
-
-			throw ex; // Rethrow the exception.
-		}
-
+		// The object streams are created by this connection's own thread
+		// (see handshake), so that a slow or silent client cannot hold up
+		// the thread accepting new connections.
 		readyToStop = false;
 		start(); // Start the thread waits for data from the socket
 	}
 
+	/**
+	 * Constructs a logical session carried by another connection. The
+	 * session is never started: the carrier's thread reads its messages.
+	 * 
+	 * @param carrier
+	 *            the connection carrying the session.
+	 * @param sessionId
+	 *            the number of the session, chosen by the client.
+	 */
+	ConnectionToClient(ConnectionToClient carrier, int sessionId) {
+		super(carrier.getThreadGroup(), (Runnable) null);
+		this.carrier = carrier;
+		this.sessionId = sessionId;
+		this.sessions = null;
+		this.server = carrier.server;
+		this.address = carrier.address;
+		this.listener = carrier.listener;
+		this.rateLimiter = server.createClientBucket();
+		this.lastActivity = System.nanoTime();
+	}
+
 	// INSTANCE METHODS *************************************************
 
 	/**
@@ -115,10 +281,94 @@ public class ConnectionToClient extends Thread {
 	 *                if an I/O error occur when sending the message.
 	 */
 	final public void sendToClient(Object msg) throws IOException {
-		if (clientSocket == null || output == null)
+		sendToClient(msg, null);
+	}
+
+	/**
+	 * Sends an object to the client, writing a frame compressed once for
+	 * all the recipients of a broadcast if the client accepts compression.
+	 * Logical sessions frame their messages, so they are sent the message
+	 * itself.
+	 * 
+	 * @param msg
+	 *            the message to be sent.
+	 * @param shared
+	 *            the message compressed as a standalone frame, or null.
+	 * @exception IOException
+	 *                if an I/O error occur when sending the message.
+	 */
+	void sendToClient(Object msg, SharedFrame shared) throws IOException {
+		if (carrier != null) {
+			carrier.sendToSession(this, msg);
+			return;
+		}
+
+		ObjectOutputStream out = output;
+		if (clientSocket == null || out == null)
 			throw new SocketException("socket does not exist");
 
-		output.writeObject(msg);
+		SlowWriteEvent event = new SlowWriteEvent();
+		event.begin();
+		long start = System.nanoTime();
+		writeLock.lock();
+		try {
+			MessageCompressor codec = compressor;
+			int threshold = server.getCompressionThreshold();
+			if (codec != null && shared != null)
+				writeShared(out, shared);
+			else if (codec != null && threshold > 0 && !(msg instanceof Heartbeat))
+				out.writeObject(codec.compress(msg, threshold));
+			else
+				out.writeObject(msg);
+		} finally {
+			writeLock.unlock();
+		}
+
+		ServerMetrics metrics = server.metrics();
+		if (!(msg instanceof Heartbeat))
+			metrics.messagesSent.increment();
+		metrics.writeDuration.record(System.nanoTime() - start);
+
+		event.end();
+		if (event.shouldCommit()) {
+			event.remoteAddress = String.valueOf(address);
+			event.messageClass = msg == null ? null : msg.getClass().getName();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Writes a shared frame. Where the socket allows it, the frame is
+	 * written detached, and its bytes go from the shared buffer to the
+	 * socket in the same gathering write as this connection's header,
+	 * without being copied. Called with the write lock held.
+	 * 
+	 * @param out
+	 *            the object stream.
+	 * @param shared
+	 *            the frame.
+	 * @exception IOException
+	 *                if an I/O error occur when sending the frame.
+	 */
+	private void writeShared(ObjectOutputStream out, SharedFrame shared) throws IOException {
+		GatheringOutputStream socketOut = gatherer;
+		if (!socketOut.canGather()) {
+			shared.copied();
+			out.writeObject(shared.frame);
+			return;
+		}
+
+		socketOut.capture();
+		try {
+			out.writeObject(shared.header);
+			out.flush();
+		} catch (IOException ex) {
+			socketOut.discard();
+			throw ex;
+		}
+		ServerMetrics metrics = server.metrics();
+		metrics.bytesSent.add(socketOut.writeGathered(shared.payload()));
+		metrics.gatheredWrites.increment();
 	}
 
 	/**
@@ -127,7 +377,17 @@ public class ConnectionToClient extends Thread {
     * in some circumstances when Java refuses to send data that it thinks has been sent.
 	 */
 	final public void forceResetAfterSend() throws IOException {
-      output.reset();
+		if (carrier != null) {
+			carrier.forceResetAfterSend();
+			return;
+		}
+
+		writeLock.lock();
+		try {
+			output.reset();
+		} finally {
+			writeLock.unlock();
+		}
 	}
 
 	/**
@@ -138,6 +398,11 @@ public class ConnectionToClient extends Thread {
 	 *                if an error occurs when closing the socket.
 	 */
 	final public void close() throws IOException {
+		if (carrier != null) {
+			carrier.endSession(this, true);
+			return;
+		}
+
 		readyToStop = true; // Set the flag that tells the thread to stop
 
 		try {
@@ -152,20 +417,39 @@ public class ConnectionToClient extends Thread {
 	/**
 	 * Returns the address of the client.
 	 * 
-	 * @return the client's Internet address.
+	 * @return the client's Internet address, or null for a client connected
+	 *         through a Unix domain socket.
 	 */
 	final public InetAddress getInetAddress() {
+		if (carrier != null)
+			return carrier.getInetAddress();
 		return clientSocket == null ? null : clientSocket.getInetAddress();
 	}
 
+	/**
+	 * Returns the name of the server listener that accepted the client.
+	 * 
+	 * @return the listener's name.
+	 * @see AbstractServer#addListener(String, String, int, int)
+	 */
+	final public String getListenerName() {
+		return listener.name;
+	}
+
 	/**
 	 * Returns a string representation of the client.
 	 * 
 	 * @return the client's description.
 	 */
 	public String toString() {
-		return clientSocket == null ? null : clientSocket.getInetAddress().getHostName() + " ("
-				+ clientSocket.getInetAddress().getHostAddress() + ")";
+		if (carrier != null)
+			return carrier + " session " + sessionId;
+		Socket socket = clientSocket;
+		if (socket == null)
+			return null;
+		InetAddress inet = socket.getInetAddress();
+		// Clients on Unix domain sockets have no Internet address
+		return inet == null ? socket.toString() : inet.getHostName() + " (" + inet.getHostAddress() + ")";
 	}
 
 	/**
@@ -192,6 +476,40 @@ public class ConnectionToClient extends Thread {
 		return savedInfo.get(infoType);
 	}
 
+	/**
+	 * Returns the time elapsed since the last message was received from
+	 * the client, or since it connected.
+	 * 
+	 * @return the idle time in ms.
+	 */
+	public long getIdleTime() {
+		return (System.nanoTime() - lastActivity) / 1000000;
+	}
+
+	/**
+	 * Returns the smoothed round trip time to the client, as measured by
+	 * the server's heartbeats.
+	 * 
+	 * @return the round trip time in microseconds, or -1 if it has not been
+	 *         measured yet.
+	 */
+	public long getRoundTripTime() {
+		if (carrier != null)
+			return carrier.getRoundTripTime();
+		long rtt = roundTripNanos;
+		return rtt < 0 ? -1 : rtt / 1000;
+	}
+
+	/**
+	 * Returns the number of messages from this client that were dropped
+	 * because a rate limit was exceeded.
+	 * 
+	 * @return the number of rejected messages.
+	 */
+	public long getRejectedMessageCount() {
+		return rejectedMessages;
+	}
+
 	// RUN METHOD -------------------------------------------------------
 
 	/**
@@ -199,6 +517,29 @@ public class ConnectionToClient extends Thread {
 	 * read to the server. Not to be called.
 	 */
 	final public void run() {
+		HandshakeEvent handshakeEvent = new HandshakeEvent();
+		handshakeEvent.begin();
+		try {
+			handshake();
+		} catch (IOException exception) {
+			// The client never completed its handshake: it was never
+			// connected as far as the server is concerned.
+			try {
+				closeAll();
+			} catch (Exception ex) {
+			}
+
+			commitHandshakeEvent(handshakeEvent, false);
+			server.releaseConnection(address, listener);
+			leaveDrain();
+			return;
+		}
+		commitHandshakeEvent(handshakeEvent, true);
+
+		lastActivity = System.nanoTime();
+		armIdleTimeout();
+		armHeartbeat();
+		handshaken = true;
 		server.clientConnected(this);
 
 		// This loop reads the input stream and responds to messages
@@ -211,7 +552,58 @@ public class ConnectionToClient extends Thread {
 				// This block waits until it reads a message from the client
 				// and then sends it for handling by the server
 				msg = input.readObject();
-				server.receiveMessageFromClient(msg, this);
+				lastActivity = System.nanoTime();
+				MessageReceiveEvent event = new MessageReceiveEvent();
+				event.begin();
+
+				if (msg instanceof Compressed)
+					msg = decompress((Compressed) msg);
+
+				// Heartbeats and hellos are handled here and never reach
+				// the server
+				if (msg instanceof Heartbeat) {
+					heartbeatReceived((Heartbeat) msg);
+					continue;
+				}
+				if (msg instanceof Hello) {
+					helloReceived((Hello) msg);
+					continue;
+				}
+				if (msg instanceof Goodbye) {
+					leaveDrain();
+					continue;
+				}
+
+				// The client's send time stays with this thread while the
+				// message is handled, to be carried by its broadcast
+				originTimestamp = NO_TIMESTAMP;
+				if (msg instanceof Timestamped) {
+					originTimestamp = ((Timestamped) msg).getSentNanos();
+					msg = ((Timestamped) msg).getMessage();
+				}
+
+				// Frames of logical sessions are demultiplexed here
+				ConnectionToClient client = this;
+				if (msg instanceof SessionFrame) {
+					client = sessionFrameReceived((SessionFrame) msg);
+					if (client == null)
+						continue;
+					msg = ((SessionFrame) msg).getPayload();
+				}
+
+				boolean admitted = server.admitMessage(msg, client);
+				if (admitted)
+					server.receiveMessageFromClient(msg, client);
+				else
+					client.rejectedMessages++;
+
+				event.end();
+				if (event.shouldCommit()) {
+					event.remoteAddress = String.valueOf(address);
+					event.messageClass = msg == null ? null : msg.getClass().getName();
+					event.admitted = admitted;
+					event.commit();
+				}
 			}
 		} catch (Exception exception) {
 			if (!readyToStop) {
@@ -222,11 +614,55 @@ public class ConnectionToClient extends Thread {
 
 				server.clientException(this, exception);
 			}
+		} finally {
+			endSessions();
+			server.releaseConnection(address, listener);
+			leaveDrain();
 		}
 	}
 
 	// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------
 
+	/**
+	 * Commits a Flight Recorder event for the handshake, if such events are
+	 * enabled.
+	 * 
+	 * @param event
+	 *            the event begun before the handshake.
+	 * @param succeeded
+	 *            true if the handshake completed.
+	 */
+	private void commitHandshakeEvent(HandshakeEvent event, boolean succeeded) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.remoteAddress = String.valueOf(address);
+			event.succeeded = succeeded;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Creates the object streams. Our stream header is written first so
+	 * that the client can complete its own handshake; then the client's
+	 * header is read, waiting at most the server's handshake timeout.
+	 * 
+	 * @exception IOException
+	 *                if the client closes the connection, times out or
+	 *                sends an invalid stream header.
+	 */
+	private void handshake() throws IOException {
+		Socket socket = clientSocket;
+		if (socket == null)
+			throw new SocketException("socket does not exist");
+
+		ServerMetrics metrics = server.metrics();
+		socket.setSoTimeout(server.getHandshakeTimeout());
+		gatherer = new GatheringOutputStream(socket.getOutputStream(), socket.getChannel());
+		output = new ObjectOutputStream(new CountingOutputStream(gatherer, metrics.bytesSent));
+		input = new ObjectInputStream(new CountingInputStream(socket.getInputStream(), metrics.bytesReceived));
+		socket.setSoTimeout(0); // make sure timeout is infinite
+	}
+
 	/**
 	 * Closes all connection to the server.
 	 * 
@@ -234,6 +670,8 @@ public class ConnectionToClient extends Thread {
 	 *                if an I/O error occur when closing the connection.
 	 */
 	private void closeAll() throws IOException {
+		cancelTimers();
+
 		try {
 			// Close the socket
 			if (clientSocket != null)
@@ -254,9 +692,453 @@ public class ConnectionToClient extends Thread {
 			output = null;
 			input = null;
 			clientSocket = null;
+
+			// Frees the native memory of the compressor; any write still
+			// in progress fails on the closed socket or the ended
+			// compressor alike
+			MessageCompressor codec = compressor;
+			if (codec != null)
+				codec.end();
+		}
+	}
+
+	/**
+	 * Cancels the pending idle check and heartbeat of this connection.
+	 */
+	private void cancelTimers() {
+		synchronized (timerLock) {
+			if (idleCheck != null)
+				idleCheck.cancel();
+			if (heartbeat != null)
+				heartbeat.cancel();
+			idleCheck = null;
+			heartbeat = null;
+		}
+	}
+
+	/**
+	 * Returns the time at which the client sent the message currently
+	 * being handled by this connection's thread.
+	 * 
+	 * @return the send time on the System.nanoTime() scale, or
+	 *         NO_TIMESTAMP if the message was not timestamped.
+	 */
+	long getOriginTimestamp() {
+		return originTimestamp;
+	}
+
+	/**
+	 * Schedules the idle check of this connection according to the
+	 * server's current idle timeout, replacing any pending check. Logical
+	 * sessions have idle checks of their own, since their carrier stays
+	 * active as long as any of them is.
+	 */
+	void armIdleTimeout() {
+		synchronized (timerLock) {
+			if (idleCheck != null)
+				idleCheck.cancel();
+			idleCheck = null;
+
+			int timeout = server.getIdleTimeout();
+			if (timeout > 0 && !readyToStop && (output != null || carrier != null))
+				idleCheck = server.getTimer().schedule(this::checkIdle, timeout);
+		}
+	}
+
+	/**
+	 * Run by the server's timer when the idle timeout may have expired.
+	 * Activity only updates a timestamp, so the check is simply pushed
+	 * back here when the client has been heard from in the meantime. An
+	 * idle client is closed by the server's heartbeat sender, since closing
+	 * waits for the server's monitor, which would hold up the timer and
+	 * with it the timeouts and heartbeats of every other connection.
+	 */
+	private void checkIdle() {
+		synchronized (timerLock) {
+			int timeout = server.getIdleTimeout();
+			if (timeout <= 0 || readyToStop)
+				return;
+
+			long idle = getIdleTime();
+			if (idle < timeout) {
+				idleCheck = server.getTimer().schedule(this::checkIdle, timeout - idle);
+				return;
+			}
+			idleCheck = null;
+		}
+
+		server.getHeartbeatSender().execute(() -> {
+			server.countIdleDisconnect();
+			try {
+				close();
+			} catch (IOException e) {
+			}
+		});
+	}
+
+	/**
+	 * Schedules the heartbeats of this connection according to the
+	 * server's current heartbeat interval, replacing any pending one.
+	 */
+	void armHeartbeat() {
+		synchronized (timerLock) {
+			boolean armed = heartbeat != null;
+			if (armed)
+				heartbeat.cancel();
+			heartbeat = null;
+
+			int interval = server.getHeartbeatInterval();
+			if (interval > 0 && !readyToStop && output != null)
+				heartbeat = server.getTimer().schedule(this::sendHeartbeat, interval);
+			else if (armed)
+				ping(0); // tells the client to stop expecting heartbeats
+		}
+	}
+
+	/**
+	 * Run by the server's timer at each heartbeat interval. The ping is
+	 * written by the server's heartbeat sender; it is skipped if another
+	 * write is in progress, since the client is then busy anyway and the
+	 * write might be blocked on a peer that stopped reading.
+	 */
+	private void sendHeartbeat() {
+		final int interval;
+		synchronized (timerLock) {
+			interval = server.getHeartbeatInterval();
+			if (interval <= 0 || readyToStop)
+				return;
+			heartbeat = server.getTimer().schedule(this::sendHeartbeat, interval);
+		}
+
+		ping(interval);
+	}
+
+	/**
+	 * Has the server's heartbeat sender write a ping to the client.
+	 * 
+	 * @param interval
+	 *            the heartbeat interval announced to the client.
+	 */
+	private void ping(final int interval) {
+		server.getHeartbeatSender().execute(() -> {
+			ObjectOutputStream out = output;
+			if (out == null || !writeLock.tryLock())
+				return;
+			try {
+				out.writeObject(Heartbeat.ping(interval));
+			} catch (IOException e) {
+				// The reading thread will notice the broken connection
+			} finally {
+				writeLock.unlock();
+			}
+		});
+	}
+
+	/**
+	 * Tells the client that the server is closing. The client answers
+	 * once it has received everything sent before, and the messages it sent
+	 * until then have all been handled when the answer is read; the latch
+	 * is then counted down. It is also counted down if the connection ends
+	 * first, or if the goodbye cannot be sent.
+	 * 
+	 * @param reconnectDelay
+	 *            the time the client should wait before reconnecting, in ms.
+	 * @param latch
+	 *            the latch of the drain.
+	 */
+	void sayGoodbye(int reconnectDelay, CountDownLatch latch) {
+		drain.set(latch);
+		try {
+			sendToClient(new Goodbye(reconnectDelay));
+		} catch (IOException ex) {
+			leaveDrain();
+		}
+
+		// The connection may have ended before the latch was set
+		if (!isAlive())
+			leaveDrain();
+	}
+
+	/**
+	 * Counts this connection down from the server's drain, if it is
+	 * draining and has not been counted yet.
+	 */
+	private void leaveDrain() {
+		CountDownLatch latch = drain.getAndSet(null);
+		if (latch != null)
+			latch.countDown();
+	}
+
+	/**
+	 * Handles a heartbeat read from the client: pings are answered, and
+	 * replies to our pings update the round trip time.
+	 * 
+	 * @param beat
+	 *            the heartbeat received.
+	 * @exception IOException
+	 *                if the reply cannot be sent.
+	 */
+	private void heartbeatReceived(Heartbeat beat) throws IOException {
+		if (!beat.isReply()) {
+			sendToClient(beat.reply());
+			return;
+		}
+
+		// Smoothed like TCP's SRTT, with a gain of 1/8
+		long sample = beat.getRoundTripNanos();
+		server.metrics().roundTrip.record(sample);
+		long rtt = roundTripNanos;
+		roundTripNanos = rtt < 0 ? sample : rtt + ((sample - rtt) >> 3);
+	}
+
+	/**
+	 * Answers a hello from the client, accepting compression if the client
+	 * asks for it and the server compresses messages. The answer is written
+	 * before any compressed frame.
+	 * 
+	 * @param hello
+	 *            the hello received.
+	 * @exception IOException
+	 *                if the answer cannot be written.
+	 */
+	private void helloReceived(Hello hello) throws IOException {
+		boolean compress = hello.supports(Hello.COMPRESSION) && server.getCompressionThreshold() > 0;
+
+		writeLock.lock();
+		try {
+			ObjectOutputStream out = output;
+			if (out == null)
+				throw new SocketException("socket does not exist");
+			out.writeObject(new Hello(compress ? Hello.COMPRESSION : 0));
+
+			if (compress && compressor == null) {
+				ServerMetrics metrics = server.metrics();
+				compressor = new MessageCompressor(metrics.uncompressedBytes, metrics.compressedBytes,
+						server.getMaxMessageSize());
+			}
+		} finally {
+			writeLock.unlock();
 		}
 	}
 
+	/**
+	 * Opens a compressed frame from the client.
+	 * 
+	 * @param frame
+	 *            the frame received.
+	 * @return the message it carries.
+	 * @exception IOException
+	 *                if compression was not negotiated or the frame is
+	 *                corrupt.
+	 * @exception ClassNotFoundException
+	 *                if the class of the message cannot be found.
+	 */
+	private Object decompress(Compressed frame) throws IOException, ClassNotFoundException {
+		MessageCompressor codec = compressor;
+		if (codec == null)
+			throw new StreamCorruptedException("compression was not negotiated");
+		return codec.decompress(frame);
+	}
+
+	/**
+	 * Handles a frame of a logical session carried by this connection.
+	 * OPEN and CLOSE frames are handled here; frames of sessions that are
+	 * not open are dropped. An OPEN frame counts as a message against the
+	 * rate limits, and the session as a connection from the carrier's
+	 * address and listener against the connection limits; a session that
+	 * is refused is closed at once with a CLOSE frame.
+	 * 
+	 * @param frame
+	 *            the frame received.
+	 * @return the session whose message a DATA frame carries, or null if
+	 *         there is nothing more to do.
+	 * @exception IOException
+	 *                if the frame cannot be handled.
+	 */
+	private ConnectionToClient sessionFrameReceived(SessionFrame frame) throws IOException {
+		ConnectionToClient session = sessions.get(frame.getSession());
+
+		switch (frame.getType()) {
+		case SessionFrame.OPEN:
+			if (session != null)
+				return null;
+			if (!server.admitMessage(frame, this)) {
+				rejectedMessages++;
+				sendToClient(SessionFrame.close(frame.getSession()));
+				return null;
+			}
+			if (!server.admitSession(address, listener)) {
+				sendToClient(SessionFrame.close(frame.getSession()));
+				return null;
+			}
+			if (!carrying) {
+				server.carrierOpened();
+				carrying = true;
+			}
+			session = new ConnectionToClient(this, frame.getSession());
+			sessions.put(frame.getSession(), session);
+			server.sessionOpened(session);
+			session.armIdleTimeout();
+			server.clientConnected(session);
+			return null;
+
+		case SessionFrame.DATA:
+			if (session != null)
+				session.lastActivity = lastActivity;
+			return session;
+
+		case SessionFrame.CLOSE:
+			if (session != null)
+				endSession(session, false);
+			return null;
+
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Writes a message of one of the logical sessions carried by this
+	 * connection. Each message of a batch is framed separately, so that the
+	 * client unpacks the batch before demultiplexing.
+	 * 
+	 * @param session
+	 *            the session sending the message.
+	 * @param msg
+	 *            the message.
+	 * @exception IOException
+	 *                if the session is closed or the message cannot be
+	 *                written.
+	 */
+	private void sendToSession(ConnectionToClient session, Object msg) throws IOException {
+		if (sessions.get(session.sessionId) != session)
+			throw new SocketException("session closed");
+
+		if (msg instanceof Batch) {
+			Batch batch = (Batch) msg;
+			Object[] frames = new Object[batch.size()];
+			for (int i = 0; i < frames.length; i++)
+				frames[i] = frame(session.sessionId, batch.get(i));
+			sendToClient(new Batch(frames));
+		} else {
+			sendToClient(frame(session.sessionId, msg));
+		}
+	}
+
+	/**
+	 * Frames a message of a logical session. A timestamp stays outside of
+	 * the frame, where the client looks for it.
+	 * 
+	 * @param sessionId
+	 *            the number of the session.
+	 * @param msg
+	 *            the message.
+	 * @return the frame.
+	 */
+	private static Object frame(int sessionId, Object msg) {
+		if (msg instanceof Timestamped) {
+			Timestamped stamped = (Timestamped) msg;
+			return new Timestamped(SessionFrame.data(sessionId, stamped.getMessage()), stamped.getSentNanos());
+		}
+		return SessionFrame.data(sessionId, msg);
+	}
+
+	/**
+	 * Ends one of the logical sessions carried by this connection. The
+	 * server is told only once, whichever side ends the session first, and
+	 * the slot of the session in the connection limits is then released.
+	 * 
+	 * @param session
+	 *            the session.
+	 * @param notifyClient
+	 *            true if the client must be sent a CLOSE frame.
+	 * @exception IOException
+	 *                if the CLOSE frame cannot be written.
+	 */
+	private void endSession(ConnectionToClient session, boolean notifyClient) throws IOException {
+		if (!sessions.remove(session.sessionId, session))
+			return;
+
+		session.readyToStop = true;
+		session.cancelTimers();
+		server.sessionClosed(session);
+		try {
+			if (notifyClient)
+				sendToClient(SessionFrame.close(session.sessionId));
+		} finally {
+			server.releaseConnection(address, listener);
+			server.clientDisconnected(session);
+		}
+	}
+
+	/**
+	 * Ends all the logical sessions carried by this connection, once it is
+	 * closed.
+	 */
+	private void endSessions() {
+		if (!carrying)
+			return;
+
+		for (ConnectionToClient session : sessions.values()) {
+			try {
+				endSession(session, false);
+			} catch (Exception e) {
+			}
+		}
+		server.carrierClosed();
+	}
+
+	/**
+	 * Returns true if the client accepts compressed frames on this
+	 * connection. Logical sessions are framed by their carrier, so they
+	 * never accept shared frames.
+	 * 
+	 * @return true if shared compressed frames may be sent to the client.
+	 */
+	boolean isCompressing() {
+		return carrier == null && compressor != null;
+	}
+
+	/**
+	 * Returns true once the client has completed its handshake.
+	 * 
+	 * @return true if the connection is ready to be sent messages.
+	 */
+	boolean isHandshaken() {
+		return handshaken;
+	}
+
+	/**
+	 * Returns true if the client opened logical sessions on this
+	 * connection, which then only carries them.
+	 * 
+	 * @return true if this connection carries sessions.
+	 */
+	boolean isCarrier() {
+		return carrying;
+	}
+
+	/**
+	 * Replaces the token bucket limiting the rate of messages from this
+	 * client.
+	 * 
+	 * @param rateLimiter
+	 *            the new bucket, or null to remove the limit.
+	 */
+	void setRateLimiter(TokenBucket rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Takes a token from this connection's bucket.
+	 * 
+	 * @return false if the connection exceeded its rate limit.
+	 */
+	boolean tryAcquire() {
+		TokenBucket bucket = rateLimiter;
+		return bucket == null || bucket.tryAcquire();
+	}
+
 	/**
 	 * This method is called by garbage collection.
 	 */
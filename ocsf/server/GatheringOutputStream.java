@@ -0,0 +1,160 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import ocsf.common.BufferPool;
+
+/**
+* The <code> GatheringOutputStream </code> class is the bottom of a
+* connection's output stack. It passes the bytes of the object stream
+* through to the socket, except while a frame header is captured: the
+* header is then held back and written together with a payload buffer
+* in a single gathering write on the socket's channel, so that the
+* payload is neither copied into the object stream nor split into its
+* 1 KB blocks.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+final class GatheringOutputStream extends OutputStream
+{
+  // INSTANCE VARIABLES *********************************************
+
+  /**
+   * The socket's output stream.
+   */
+  private final OutputStream out;
+
+  /**
+   * The socket's channel, or null if it has none.
+   */
+  private final SocketChannel channel;
+
+  /**
+   * The header captured so far.
+   */
+  private byte[] header = new byte[256];
+
+  /**
+   * The number of bytes captured.
+   */
+  private int count;
+
+  /**
+   * True while a header is captured.
+   */
+  private boolean capturing = false;
+
+
+// CONSTRUCTOR ******************************************************
+
+  /**
+   * Constructs the stream of a socket.
+   *
+   * @param out the socket's output stream.
+   * @param channel the socket's channel, or null.
+   */
+  GatheringOutputStream(OutputStream out, SocketChannel channel)
+  {
+    this.out = out;
+    this.channel = channel;
+  }
+
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * @return true if the socket supports gathering writes.
+   */
+  boolean canGather()
+  {
+    return channel != null;
+  }
+
+  /**
+   * Starts capturing a header: the bytes written are held back until
+   * <code>writeGathered</code> or <code>discard</code>.
+   */
+  void capture()
+  {
+    count = 0;
+    capturing = true;
+  }
+
+  /**
+   * Drops the header captured.
+   */
+  void discard()
+  {
+    capturing = false;
+  }
+
+  /**
+   * Writes the header captured followed by a payload, in as few
+   * gathering writes as the socket accepts.
+   *
+   * @param payload the payload, written from its position to its limit.
+   * @return the number of payload bytes written.
+   * @exception IOException if the write fails.
+   */
+  long writeGathered(ByteBuffer payload) throws IOException
+  {
+    capturing = false;
+    long length = payload.remaining();
+    ByteBuffer head = BufferPool.acquire(count);
+    try
+    {
+      head.put(header, 0, count).flip();
+      ByteBuffer[] buffers = {head, payload};
+      while (payload.hasRemaining())
+        channel.write(buffers);
+    }
+    finally
+    {
+      BufferPool.release(head);
+    }
+    return length;
+  }
+
+  public void write(int b) throws IOException
+  {
+    if (!capturing)
+    {
+      out.write(b);
+      return;
+    }
+    if (count == header.length)
+      header = Arrays.copyOf(header, count * 2);
+    header[count++] = (byte)b;
+  }
+
+  public void write(byte[] b, int off, int len) throws IOException
+  {
+    if (!capturing)
+    {
+      out.write(b, off, len);
+      return;
+    }
+    if (count + len > header.length)
+      header = Arrays.copyOf(header,
+        Math.max(count + len, header.length * 2));
+    System.arraycopy(b, off, header, count, len);
+    count += len;
+  }
+
+  public void flush() throws IOException
+  {
+    if (!capturing)
+      out.flush();
+  }
+
+  public void close() throws IOException
+  {
+    out.close();
+  }
+}
+// End of GatheringOutputStream Class
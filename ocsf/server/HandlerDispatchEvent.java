@@ -0,0 +1,29 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.server;
+
+import jdk.jfr.*;
+
+/**
+* Flight Recorder event spanning a call to
+* <code>handleMessageFromClient</code>, including the wait for the
+* server's monitor. Disabled by default.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+@Name("ocsf.server.HandlerDispatch")
+@Label("Handler Dispatch")
+@Category({"OCSF", "Server"})
+@Description("Call to handleMessageFromClient, monitor wait included")
+@Enabled(false)
+final class HandlerDispatchEvent extends Event
+{
+  @Label("Message Class")
+  String messageClass;
+
+  @Label("Monitor Wait")
+  @Description("Time spent waiting for the server's monitor")
+  @Timespan(Timespan.NANOSECONDS)
+  long monitorWait;
+}
@@ -0,0 +1,316 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.server;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import jdk.net.ExtendedSocketOptions;
+import jdk.net.UnixDomainPrincipal;
+
+/**
+* The <code> Handoff </code> class lets a new server process take over
+* the port of a running one without a moment in which connections are
+* refused. Each server listens for handoff requests on a Unix domain
+* socket at an agreed path. A new server binds its listening sockets
+* with SO_REUSEPORT while the old one still has its own, then asks the
+* old one to hand off: the old server closes its listening sockets,
+* releases whatever else the new one needs in
+* <code>serverHandedOff</code>, answers, and drains and closes its
+* connections, while the new one accepts every new connection. The
+* new server then listens for handoff requests at the same path, ready
+* for the next upgrade.<p>
+*
+* The listening sockets themselves cannot be passed from one process
+* to the other, since Java cannot send file descriptors over a Unix
+* domain socket; sharing the port is what keeps it open. Connections
+* still waiting in the old server's backlog when it closes its sockets
+* are reset by the operating system, and retried by their clients.<p>
+*
+* Only the user running the server may hand its port off: the socket
+* file is only accessible to its owner, and requests from a peer
+* running as another user are ignored where the platform tells who the
+* peer is. A peer must send its request within a second of
+* connecting, and a new server waits at most ten seconds for the old
+* one to answer it.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see ocsf.server.AbstractServer#setHandoffPath(Path)
+*/
+final class Handoff
+{
+  // CLASS VARIABLES ************************************************
+
+  /**
+   * The byte a new server sends to ask for the port.
+   */
+  private static final byte REQUEST = 'H';
+
+  /**
+   * The byte the old server answers once it has stopped accepting.
+   */
+  private static final byte DONE = 'D';
+
+  /**
+   * The time a peer has to send its request once connected, in ms.
+   */
+  private static final int REQUEST_TIMEOUT = 1000;
+
+  /**
+   * The time the old server has to stop accepting and answer a
+   * request, in ms.
+   */
+  private static final int ANSWER_TIMEOUT = 10000;
+
+  // INSTANCE VARIABLES *********************************************
+
+  /**
+   * The path of the Unix domain socket.
+   */
+  private final Path path;
+
+  /**
+   * The server handing off its port when asked to.
+   */
+  private final AbstractServer server;
+
+  /**
+   * The channel on which handoff requests are accepted.
+   */
+  private final ServerSocketChannel channel;
+
+  /**
+   * The owner of the socket file: the user the server runs as.
+   */
+  private final UserPrincipal owner;
+
+  /**
+   * Set once the port has been handed off; the path then belongs to
+   * the new server.
+   */
+  private volatile boolean handedOff = false;
+
+
+// CONSTRUCTOR ******************************************************
+
+  /**
+   * Listens for handoff requests at a path, replacing any socket file
+   * left there by a server that handed off or died. The socket file is
+   * made accessible to its owner only.
+   *
+   * @param path the path of the Unix domain socket.
+   * @param server the server to hand off when asked to.
+   * @exception IOException if the socket cannot be bound.
+   */
+  Handoff(Path path, AbstractServer server) throws IOException
+  {
+    this.path = path;
+    this.server = server;
+
+    Files.deleteIfExists(path);
+    channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    try
+    {
+      channel.bind(UnixDomainSocketAddress.of(path));
+      Files.setPosixFilePermissions(path,
+        PosixFilePermissions.fromString("rw-------"));
+      owner = Files.getOwner(path);
+    }
+    catch (IOException | UnsupportedOperationException ex)
+    {
+      channel.close();
+      throw ex;
+    }
+
+    Thread thread = new Thread(this::serve, "ocsf handoff");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Stops listening for handoff requests. The socket file is deleted,
+   * unless the port was handed off.
+   */
+  void close()
+  {
+    try
+    {
+      channel.close();
+      if (!handedOff)
+        Files.deleteIfExists(path);
+    }
+    catch (IOException ex) {}
+  }
+
+  /**
+   * Waits for a handoff request, then hands the port off. Other
+   * connections to the socket are ignored. An exception thrown by
+   * <code>serverHandedOff</code> is passed to
+   * <code>listeningException</code>; the port is handed off all the
+   * same, since the server has already stopped accepting.
+   */
+  private void serve()
+  {
+    while (!handedOff)
+    {
+      try (SocketChannel peer = channel.accept())
+      {
+        if (!isOwner(peer) || !readRequest(peer))
+          continue;
+
+        handedOff = true;
+        server.stopAccepting();
+        try
+        {
+          server.serverHandedOff();
+        }
+        catch (RuntimeException ex)
+        {
+          server.listeningException(ex);
+        }
+        peer.configureBlocking(true);
+        peer.write(ByteBuffer.wrap(new byte[] {DONE}));
+      }
+      catch (IOException ex)
+      {
+        // The channel was closed by the server
+        if (!channel.isOpen())
+          return;
+      }
+    }
+
+    try
+    {
+      channel.close();
+      server.close();
+    }
+    catch (IOException ex) {}
+  }
+
+
+  /**
+   * Tells whether a peer runs as the owner of the socket file, where
+   * the platform can tell.
+   *
+   * @param peer the connected peer.
+   * @return false if the peer runs as another user.
+   * @exception IOException if the credentials cannot be read.
+   */
+  private boolean isOwner(SocketChannel peer) throws IOException
+  {
+    if (!peer.supportedOptions().contains(ExtendedSocketOptions.SO_PEERCRED))
+      return true;
+    UnixDomainPrincipal principal =
+      peer.getOption(ExtendedSocketOptions.SO_PEERCRED);
+    return owner.equals(principal.user());
+  }
+
+  /**
+   * Reads the request of a peer, waiting at most the request timeout,
+   * so that a peer sending nothing cannot hold up later requests.
+   *
+   * @param peer the connected peer, left in non-blocking mode.
+   * @return true if the peer asked for the port.
+   * @exception IOException if the peer cannot be read.
+   */
+  private static boolean readRequest(SocketChannel peer) throws IOException
+  {
+    try
+    {
+      return read(peer, REQUEST_TIMEOUT) == REQUEST;
+    }
+    catch (SocketTimeoutException ex)
+    {
+      return false;
+    }
+  }
+
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Asks the server listening for handoff requests at a path, if any,
+   * to stop accepting, and waits until it has.
+   *
+   * @param path the path of the Unix domain socket.
+   * @return true if a server handed off its port; false if none was
+   *  listening.
+   * @exception IOException if the server failed to answer.
+   */
+  static boolean request(Path path) throws IOException
+  {
+    SocketChannel peer;
+    try
+    {
+      peer = SocketChannel.open(UnixDomainSocketAddress.of(path));
+    }
+    // No socket file, or one left by a server that is gone
+    catch (SocketException ex)
+    {
+      return false;
+    }
+
+    try
+    {
+      peer.write(ByteBuffer.wrap(new byte[] {REQUEST}));
+      if (read(peer, ANSWER_TIMEOUT) != DONE)
+        throw new IOException("handoff refused by the server at " + path);
+      return true;
+    }
+    catch (SocketTimeoutException ex)
+    {
+      throw new SocketTimeoutException("no handoff from the server at "
+        + path + " within " + ANSWER_TIMEOUT + " ms");
+    }
+    finally
+    {
+      peer.close();
+    }
+  }
+
+  /**
+   * Reads one byte from a peer, waiting at most a timeout, so that a
+   * peer that hangs cannot block the reader forever.
+   *
+   * @param peer the connected peer, left in non-blocking mode.
+   * @param timeout the time to wait, in ms.
+   * @return the byte, or -1 if the peer closed the connection.
+   * @exception SocketTimeoutException if the timeout expires.
+   * @exception IOException if the peer cannot be read.
+   */
+  private static int read(SocketChannel peer, int timeout) throws IOException
+  {
+    ByteBuffer data = ByteBuffer.allocate(1);
+    peer.configureBlocking(false);
+    try (Selector selector = Selector.open())
+    {
+      peer.register(selector, SelectionKey.OP_READ);
+      long deadline = System.nanoTime() + timeout * 1000000L;
+      while (data.hasRemaining())
+      {
+        if (peer.read(data) < 0)
+          return -1;
+        long wait = (deadline - System.nanoTime()) / 1000000;
+        if (data.hasRemaining() && wait <= 0)
+          throw new SocketTimeoutException("read timed out");
+        if (data.hasRemaining())
+          selector.select(wait);
+      }
+    }
+    return data.get(0);
+  }
+}
+// End of Handoff Class
@@ -0,0 +1,27 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.server;
+
+import jdk.jfr.*;
+
+/**
+* Flight Recorder event spanning the object stream handshake of a new
+* connection. Disabled by default.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+@Name("ocsf.server.Handshake")
+@Label("Handshake")
+@Category({"OCSF", "Server"})
+@Description("Object stream handshake with a new client")
+@Enabled(false)
+@StackTrace(false)
+final class HandshakeEvent extends Event
+{
+  @Label("Remote Address")
+  String remoteAddress;
+
+  @Label("Succeeded")
+  boolean succeeded;
+}
@@ -0,0 +1,259 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.server;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import ocsf.metrics.Counter;
+import ocsf.metrics.MetricsRegistry;
+
+/**
+* The <code> Listener </code> class describes one of the addresses on
+* which an <code>AbstractServer</code> accepts connections, with a
+* connection limit and metrics of its own: a TCP port, or the path of
+* a Unix domain socket. All the listeners of a server share its
+* clients, handlers and broadcasts; the server-wide connection limits
+* apply to all of them together, except the limit per Internet address,
+* which does not apply to Unix domain sockets.<p>
+*
+* The metrics of a listener are named after it:
+* <code>ocsf_listener_</code><i>name</i><code>_connections</code>,
+* <code>_accepted_total</code> and <code>_refused_total</code>.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see ocsf.server.AbstractServer#addListener(String, String, int, int)
+*/
+final class Listener
+{
+  // INSTANCE VARIABLES *********************************************
+
+  /**
+   * The name of the listener.
+   */
+  final String name;
+
+  /**
+   * The host name or address to bind, or null for all interfaces.
+   * Ignored for the server's default listener, which binds the
+   * server's interface.
+   */
+  final String host;
+
+  /**
+   * The port to bind. Ignored for the server's default listener,
+   * which binds the server's port.
+   */
+  final int port;
+
+  /**
+   * The path of the Unix domain socket to bind instead of a TCP port,
+   * or null.
+   */
+  final Path path;
+
+  /**
+   * The maximum number of connections accepted here, including those
+   * still performing their handshake. Zero means no limit.
+   */
+  final int maxConnections;
+
+  /**
+   * The number of connections admitted here and not yet terminated.
+   */
+  private final AtomicInteger connections = new AtomicInteger();
+
+  /**
+   * Connections admitted here.
+   */
+  private final Counter accepted;
+
+  /**
+   * Connections refused here, by this listener's limit or a
+   * server-wide one.
+   */
+  private final Counter refused;
+
+
+// CONSTRUCTOR ******************************************************
+
+  /**
+   * Constructs a listener and registers its metrics.
+   *
+   * @param name the name of the listener: letters, digits and
+   *  underscores.
+   * @param host the host name or address to bind, or null for all
+   *  interfaces.
+   * @param port the port to bind.
+   * @param path the path of the Unix domain socket to bind instead of
+   *  a TCP port, or null.
+   * @param maxConnections the connection limit; zero means no limit.
+   * @param registry the registry of the server's metrics.
+   * @exception IllegalArgumentException if the name is not valid or
+   *  is already used.
+   */
+  Listener(String name, String host, int port, Path path,
+    int maxConnections, MetricsRegistry registry)
+  {
+    if (!name.matches("[A-Za-z0-9_]+"))
+      throw new IllegalArgumentException("invalid listener name: " + name);
+    this.name = name;
+    this.host = host;
+    this.port = port;
+    this.path = path;
+    this.maxConnections = maxConnections;
+
+    String prefix = "ocsf_listener_" + name;
+    if (registry.get(prefix + "_connections") != null)
+      throw new IllegalArgumentException("listener already exists: " + name);
+    registry.gauge(prefix + "_connections",
+      "Connections open on listener " + name, connections::get);
+    accepted = registry.counter(prefix + "_accepted_total",
+      "Connections admitted on listener " + name);
+    refused = registry.counter(prefix + "_refused_total",
+      "Connections refused on listener " + name);
+  }
+
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Opens the server sockets of this listener, one per acceptor. Above
+   * one acceptor, the sockets share the port with SO_REUSEPORT; a
+   * single socket is opened if only one acceptor is wanted, or if the
+   * platform does not support SO_REUSEPORT. The sockets are those of
+   * blocking channels, so that the sockets they accept have channels
+   * too, for gathering writes. A Unix domain socket is always opened
+   * alone, since its path cannot be shared.
+   *
+   * @param host the host name or address to bind, or null for all
+   *  interfaces.
+   * @param port the port to bind.
+   * @param backlog the maximum queue length of each socket.
+   * @param acceptors the number of acceptors wanted.
+   * @param shared true if the port must be shared with another process
+   *  even with a single acceptor, for a handoff.
+   * @return the server sockets.
+   * @exception IOException if a socket cannot be bound.
+   */
+  ServerSocket[] open(String host, int port, int backlog, int acceptors,
+    boolean shared) throws IOException
+  {
+    if (path != null)
+      return new ServerSocket[] {new UnixServerSocket(path, backlog)};
+
+    boolean reusePort = (acceptors > 1 || shared) && supportsReusePort();
+    if (acceptors <= 1 || !reusePort)
+      acceptors = 1;
+
+    ServerSocket[] sockets = new ServerSocket[acceptors];
+    try
+    {
+      for (int i=0; i<sockets.length; i++)
+      {
+        // All on the port of the first, in case an ephemeral port
+        // was asked for
+        sockets[i] = ServerSocketChannel.open().socket();
+        if (reusePort)
+          sockets[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        int bound = i == 0 ? port : sockets[0].getLocalPort();
+        sockets[i].bind(host == null ? new InetSocketAddress(bound)
+          : new InetSocketAddress(host, bound), backlog);
+      }
+    }
+    catch (IOException ex)
+    {
+      close(sockets);
+      throw ex;
+    }
+    return sockets;
+  }
+
+  /**
+   * Takes a slot in this listener's connection limit.
+   *
+   * @return false if the limit is reached.
+   */
+  boolean admit()
+  {
+    int max = maxConnections;
+    if (connections.incrementAndGet() > max && max > 0)
+    {
+      connections.decrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Releases the slot of a connection admitted, or refused by a
+   * server-wide limit after this listener admitted it.
+   */
+  void release()
+  {
+    connections.decrementAndGet();
+  }
+
+  /**
+   * Counts a connection that was finally admitted or refused.
+   *
+   * @param admitted true if it was admitted.
+   */
+  void count(boolean admitted)
+  {
+    if (admitted)
+      accepted.increment();
+    else
+      refused.increment();
+  }
+
+  /**
+   * @return the number of connections open on this listener.
+   */
+  int getConnectionCount()
+  {
+    return connections.get();
+  }
+
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Closes server sockets, ignoring any exception.
+   *
+   * @param sockets the sockets; null elements are skipped.
+   */
+  static void close(ServerSocket[] sockets)
+  {
+    for (int i=0; i<sockets.length; i++)
+    {
+      try
+      {
+        if (sockets[i] != null)
+          sockets[i].close();
+      }
+      catch (IOException ex) {}
+    }
+  }
+
+  /**
+   * @return true if server sockets support SO_REUSEPORT here.
+   */
+  private static boolean supportsReusePort()
+  {
+    try (ServerSocketChannel channel = ServerSocketChannel.open())
+    {
+      return channel.supportedOptions()
+        .contains(StandardSocketOptions.SO_REUSEPORT);
+    }
+    catch (IOException ex)
+    {
+      return false;
+    }
+  }
+}
+// End of Listener Class
@@ -0,0 +1,32 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.server;
+
+import jdk.jfr.*;
+
+/**
+* Flight Recorder event spanning the processing of one message read
+* from a client: unwrapping, rate limiting and dispatch. Disabled by
+* default.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+@Name("ocsf.server.MessageReceive")
+@Label("Message Receive")
+@Category({"OCSF", "Server"})
+@Description("A message read from a client, up to the end of its handling")
+@Enabled(false)
+@StackTrace(false)
+final class MessageReceiveEvent extends Event
+{
+  @Label("Remote Address")
+  String remoteAddress;
+
+  @Label("Message Class")
+  String messageClass;
+
+  @Label("Admitted")
+  @Description("False if the message was dropped by a rate limit")
+  boolean admitted;
+}
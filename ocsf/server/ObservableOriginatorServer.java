@@ -162,4 +162,17 @@ public class ObservableOriginatorServer extends ObservableServer
     setChanged();
     notifyObservers(new OriginatorMessage(null, SERVER_CLOSED));
   }
+
+  /**
+   * Method called when the server has handed its port off to a new
+   * server. It notifies observers by sending an
+   * <code> OriginatorMessage </code> instance
+   * containing the message defined by the static variable
+   * SERVER_HANDED_OFF. The originator is set to null.
+   */
+  synchronized protected void serverHandedOff()
+  {
+    setChanged();
+    notifyObservers(new OriginatorMessage(null, SERVER_HANDED_OFF));
+  }
 }
@@ -7,6 +7,9 @@ package ocsf.server;
 import java.util.*;
 import java.io.*;
 import java.net.*;
+import java.nio.file.Path;
+import java.util.function.Predicate;
+import ocsf.metrics.MetricsRegistry;
 
 /**
  * This class acts as a subclass of <code>AbstractServer</code>
@@ -60,6 +63,12 @@ public class ObservableServer extends Observable
    * The string sent to the observers when the server has stopped.
    */
   public static final String SERVER_STOPPED= "#OS:Server stopped.";
+
+  /**
+   * The string sent to the observers when a new server has taken the
+   * port over.
+   */
+  public static final String SERVER_HANDED_OFF= "#OS:Server handed off.";
   
 
   //Instance variables **********************************************
@@ -118,6 +127,19 @@ public class ObservableServer extends Observable
     service.sendToAllClients(msg);
   }
 
+  /**
+   * Sends a message to the clients connected to the server that
+   * satisfy a condition.
+   *
+   * @param msg the message to be sent.
+   * @param recipients selects the clients to send the message to.
+   */
+  public void sendToClients(Object msg,
+    Predicate<? super ConnectionToClient> recipients)
+  {
+    service.sendToClients(msg, recipients);
+  }
+
 // ACCESSING METHODS ------------------------------------------------
 
   /**
@@ -169,6 +191,27 @@ public class ObservableServer extends Observable
     service.setPort(port);
   }
 
+  /**
+   * @return the interface the server's port is bound to, or null for
+   *  all interfaces.
+   */
+  final public String getHost()
+  {
+    return service.getHost();
+  }
+
+  /**
+   * Sets the interface the server's port is bound to.
+   * Only has effect if the server is not currently listening.
+   *
+   * @param host the host name or address of the interface, or null for
+   *  all interfaces.
+   */
+  final public void setHost(String host)
+  {
+    service.setHost(host);
+  }
+
   /**
    * Sets the timeout time when accepting connection.
    * The default is half a second.
@@ -196,6 +239,327 @@ public class ObservableServer extends Observable
     service.setBacklog(backlog);
   }
 
+  /**
+   * Sets the number of acceptor threads, each accepting on a server
+   * socket of its own bound to the same port with SO_REUSEPORT.
+   * The server must be closed and restarted for the change to be in
+   * effect.
+   *
+   * @param acceptors the number of acceptor threads.
+   */
+  final public void setAcceptorCount(int acceptors)
+  {
+    service.setAcceptorCount(acceptors);
+  }
+
+  /**
+   * @return the number of acceptor threads asked for.
+   */
+  final public int getAcceptorCount()
+  {
+    return service.getAcceptorCount();
+  }
+
+  /**
+   * Sets the maximum number of simultaneous connections.
+   *
+   * @param maxConnections the limit; zero means no limit.
+   */
+  final public void setMaxConnections(int maxConnections)
+  {
+    service.setMaxConnections(maxConnections);
+  }
+
+  /**
+   * Sets the maximum number of simultaneous connections
+   * from a single Internet address.
+   *
+   * @param maxConnections the limit; zero means no limit.
+   */
+  final public void setMaxConnectionsPerAddress(int maxConnections)
+  {
+    service.setMaxConnectionsPerAddress(maxConnections);
+  }
+
+  /**
+   * Adds a listener on another port or interface, with a connection
+   * limit of its own. The server must be closed and restarted for the
+   * change to be in effect.
+   *
+   * @param name the name of the listener: letters, digits and
+   *  underscores.
+   * @param host the interface to listen on, or null for all.
+   * @param port the port to listen on.
+   * @param maxConnections the listener's limit; zero means no limit.
+   * @see AbstractServer#addListener(String, String, int, int)
+   */
+  final public void addListener(String name, String host, int port,
+    int maxConnections)
+  {
+    service.addListener(name, host, port, maxConnections);
+  }
+
+  /**
+   * Adds a listener on a Unix domain socket, for clients on the same
+   * host. The server must be closed and restarted for the change to
+   * be in effect.
+   *
+   * @param name the name of the listener: letters, digits and
+   *  underscores.
+   * @param path the path of the socket file.
+   * @param maxConnections the listener's limit; zero means no limit.
+   * @see AbstractServer#addUnixListener(String, Path, int)
+   */
+  final public void addUnixListener(String name, Path path,
+    int maxConnections)
+  {
+    service.addUnixListener(name, path, maxConnections);
+  }
+
+  /**
+   * Removes a listener added with <code>addListener</code> or
+   * <code>addUnixListener</code>.
+   *
+   * @param name the name of the listener.
+   * @return false if there is no such listener.
+   */
+  final public boolean removeListener(String name)
+  {
+    return service.removeListener(name);
+  }
+
+  /**
+   * @return the names of the listeners, the default one first.
+   */
+  final public List<String> getListenerNames()
+  {
+    return service.getListenerNames();
+  }
+
+  /**
+   * @param name the name of a listener.
+   * @return the number of connections open on it, or -1 if there is
+   *  no such listener.
+   */
+  final public int getListenerConnectionCount(String name)
+  {
+    return service.getListenerConnectionCount(name);
+  }
+
+  /**
+   * Sets the time a new client has to complete its handshake.
+   * The default is ten seconds.
+   *
+   * @param handshakeTimeout the timeout in ms; zero means no timeout.
+   */
+  final public void setHandshakeTimeout(int handshakeTimeout)
+  {
+    service.setHandshakeTimeout(handshakeTimeout);
+  }
+
+  /**
+   * Sets the time clients are given to answer the goodbye sent when
+   * the server closes.
+   *
+   * @param drainTimeout the timeout in ms; zero closes them at once.
+   */
+  final public void setDrainTimeout(int drainTimeout)
+  {
+    service.setDrainTimeout(drainTimeout);
+  }
+
+  /**
+   * @return the time clients are given to answer when the server
+   * closes, in ms.
+   */
+  final public int getDrainTimeout()
+  {
+    return service.getDrainTimeout();
+  }
+
+  /**
+   * Sets the range over which the reconnect delays given to clients
+   * are spread when the server closes.
+   *
+   * @param reconnectSpread the range in ms.
+   */
+  final public void setReconnectSpread(int reconnectSpread)
+  {
+    service.setReconnectSpread(reconnectSpread);
+  }
+
+  /**
+   * @return the range over which reconnect delays are spread, in ms.
+   */
+  final public int getReconnectSpread()
+  {
+    return service.getReconnectSpread();
+  }
+
+  /**
+   * Sets the path of the Unix domain socket through which servers
+   * hand their port off to each other.
+   *
+   * @param handoffPath the path, or null to disable handoffs.
+   */
+  final public void setHandoffPath(Path handoffPath)
+  {
+    service.setHandoffPath(handoffPath);
+  }
+
+  /**
+   * @return the path through which the server hands its port off, or
+   * null.
+   */
+  final public Path getHandoffPath()
+  {
+    return service.getHandoffPath();
+  }
+
+  /**
+   * @return the number of connection attempts refused because
+   * a connection limit was reached.
+   */
+  final public long getRefusedConnectionCount()
+  {
+    return service.getRefusedConnectionCount();
+  }
+
+  /**
+   * Sets the time a client may stay silent before it is
+   * disconnected.
+   *
+   * @param idleTimeout the timeout in ms; zero disables it.
+   */
+  final public void setIdleTimeout(int idleTimeout)
+  {
+    service.setIdleTimeout(idleTimeout);
+  }
+
+  /**
+   * Sets the interval at which every client is sent a heartbeat.
+   *
+   * @param heartbeatInterval the interval in ms; zero disables
+   *  heartbeats.
+   */
+  final public void setHeartbeatInterval(int heartbeatInterval)
+  {
+    service.setHeartbeatInterval(heartbeatInterval);
+  }
+
+  /**
+   * Sets the time during which broadcasts are collected before being
+   * sent together.
+   *
+   * @param coalescingWindow the window in ms; zero sends every
+   *  broadcast at once.
+   */
+  final public void setCoalescingWindow(int coalescingWindow)
+  {
+    service.setCoalescingWindow(coalescingWindow);
+  }
+
+  /**
+   * @return the coalescing window in ms; zero if broadcasts are not
+   *  coalesced.
+   */
+  final public int getCoalescingWindow()
+  {
+    return service.getCoalescingWindow();
+  }
+
+  /**
+   * Sets the size from which messages are compressed.
+   *
+   * @param compressionThreshold the threshold in bytes; zero disables
+   *  compression.
+   */
+  final public void setCompressionThreshold(int compressionThreshold)
+  {
+    service.setCompressionThreshold(compressionThreshold);
+  }
+
+  /**
+   * @return the size from which messages are compressed, in bytes;
+   *  zero if compression is disabled.
+   */
+  final public int getCompressionThreshold()
+  {
+    return service.getCompressionThreshold();
+  }
+
+  /**
+   * Sets the size of the largest message a client may send
+   * compressed.
+   *
+   * @param maxMessageSize the size in bytes.
+   */
+  final public void setMaxMessageSize(int maxMessageSize)
+  {
+    service.setMaxMessageSize(maxMessageSize);
+  }
+
+  /**
+   * @return the size of the largest message accepted compressed, in
+   *  bytes.
+   */
+  final public int getMaxMessageSize()
+  {
+    return service.getMaxMessageSize();
+  }
+
+  /**
+   * @return the number of clients disconnected for being idle.
+   */
+  final public long getIdleDisconnectCount()
+  {
+    return service.getIdleDisconnectCount();
+  }
+
+  /**
+   * Limits the rate at which each connection may send messages.
+   *
+   * @param messagesPerSecond the sustained rate; zero or less
+   *  removes the limit.
+   * @param burst the number of messages that may be sent at once.
+   */
+  final public void setClientRateLimit(double messagesPerSecond, int burst)
+  {
+    service.setClientRateLimit(messagesPerSecond, burst);
+  }
+
+  /**
+   * Limits the rate at which each identity may send messages, all
+   * of its connections taken together.
+   *
+   * @param messagesPerSecond the sustained rate; zero or less
+   *  removes the limit.
+   * @param burst the number of messages that may be sent at once.
+   */
+  final public void setIdentityRateLimit(double messagesPerSecond, int burst)
+  {
+    service.setIdentityRateLimit(messagesPerSecond, burst);
+  }
+
+  /**
+   * Returns the registry holding the server's metrics.
+   *
+   * @return the server's metrics.
+   */
+  final public MetricsRegistry getMetrics()
+  {
+    return service.getMetrics();
+  }
+
+  /**
+   * @return the number of messages dropped because a rate limit
+   * was exceeded.
+   */
+  final public long getRejectedMessageCount()
+  {
+    return service.getRejectedMessageCount();
+  }
+
   /**
    * Hook method called each time a new client connection is
    * accepted. The method may be overridden by subclasses.
@@ -279,6 +643,17 @@ public class ObservableServer extends Observable
     notifyObservers(SERVER_CLOSED);
   }
 
+  /**
+   * This method is called when a new server has taken the port
+   * over, before this one is closed.
+   * This method may be overriden by subclasses.
+   */
+  synchronized protected void serverHandedOff()
+  {
+    setChanged();
+    notifyObservers(SERVER_HANDED_OFF);
+  }
+
   /**
    * This method is called when the server starts listening for
    * connections. The method may be overridden by subclasses.
@@ -306,4 +681,41 @@ public class ObservableServer extends Observable
      setChanged();
      notifyObservers(message);
   }
+
+  /**
+   * This method is called each time a connection attempt is
+   * refused because a connection limit was reached. It is not
+   * synchronized, so that a connection flood does not contend for
+   * the server's monitor. This implementation does nothing.
+   *
+   * @param address the Internet address of the refused client.
+   */
+  protected void connectionRefused(InetAddress address)
+  {
+  }
+
+  /**
+   * Returns the identity under which a client is rate limited, or
+   * null if it has none. This implementation returns null.
+   * It is called for every message and is not synchronized.
+   *
+   * @param client the connection that sent a message.
+   */
+  protected Object getRateLimitIdentity(ConnectionToClient client)
+  {
+    return null;
+  }
+
+  /**
+   * This method is called each time a message is dropped because
+   * a rate limit was exceeded. It is not synchronized, so that a
+   * flooding client does not contend for the server's monitor.
+   * This implementation does nothing.
+   *
+   * @param message The message that was dropped.
+   * @param client The connection to the client.
+   */
+  protected void messageRejected(Object message, ConnectionToClient client)
+  {
+  }
 }
@@ -0,0 +1,220 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.server;
+
+import java.util.function.LongSupplier;
+import ocsf.common.BufferPool;
+import ocsf.metrics.*;
+
+/**
+* The <code> ServerMetrics </code> class creates the metrics of an
+* <code>AbstractServer</code> and keeps direct references to them, so
+* that the server and its connections update them without looking
+* them up.<p>
+*
+* Durations are recorded in nanoseconds.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see ocsf.server.AbstractServer#getMetrics()
+*/
+class ServerMetrics
+{
+  /**
+   * The registry holding all of the metrics below.
+   */
+  final MetricsRegistry registry = new MetricsRegistry();
+
+  /**
+   * Messages read from clients, heartbeats excluded.
+   */
+  final Counter messagesReceived = registry.counter(
+    "ocsf_messages_received_total", "Messages read from clients");
+
+  /**
+   * Messages written to clients, heartbeats excluded.
+   */
+  final Counter messagesSent = registry.counter(
+    "ocsf_messages_sent_total", "Messages written to clients");
+
+  /**
+   * Bytes read from client sockets.
+   */
+  final Counter bytesReceived = registry.counter(
+    "ocsf_bytes_received_total", "Bytes read from client sockets");
+
+  /**
+   * Bytes written to client sockets.
+   */
+  final Counter bytesSent = registry.counter(
+    "ocsf_bytes_sent_total", "Bytes written to client sockets");
+
+  /**
+   * Serialized size of the messages sent or received compressed. The
+   * ratio to compressedBytes is the compression ratio.
+   */
+  final Counter uncompressedBytes = registry.counter(
+    "ocsf_compression_uncompressed_bytes_total",
+    "Serialized size of the messages sent or received compressed");
+
+  /**
+   * Compressed size of the messages sent or received compressed.
+   */
+  final Counter compressedBytes = registry.counter(
+    "ocsf_compression_compressed_bytes_total",
+    "Compressed size of the messages sent or received compressed");
+
+  /**
+   * Broadcasts compressed once for all their recipients.
+   */
+  final Counter sharedCompressions = registry.counter(
+    "ocsf_broadcast_compressions_total",
+    "Broadcasts compressed once for all their recipients");
+
+  /**
+   * Recipients of broadcasts compressed once, which were all written
+   * the same frame.
+   */
+  final Counter sharedCompressionRecipients = registry.counter(
+    "ocsf_broadcast_compression_recipients_total",
+    "Recipients written a broadcast's shared compressed frame");
+
+  /**
+   * Time spent compressing broadcasts once for all their recipients.
+   */
+  final Counter sharedCompressionTime = registry.counter(
+    "ocsf_broadcast_compression_nanoseconds_total",
+    "Time spent compressing broadcasts once for all their recipients");
+
+  /**
+   * Estimated time that compressing each broadcast for every
+   * recipient would have added.
+   */
+  final Counter sharedCompressionSaved = registry.counter(
+    "ocsf_broadcast_compression_saved_nanoseconds_total",
+    "Estimated compression time saved by sharing frames among recipients");
+
+  /**
+   * Bytes of each shared broadcast frame copied: once into the buffer
+   * written to every recipient, and once more for each recipient whose
+   * socket cannot take gathering writes.
+   */
+  final Histogram broadcastBytesCopied = registry.histogram(
+    "ocsf_broadcast_bytes_copied",
+    "Bytes of a shared broadcast frame copied per broadcast", "bytes");
+
+  /**
+   * Shared frames written with a gathering write of a header and the
+   * shared payload.
+   */
+  final Counter gatheredWrites = registry.counter(
+    "ocsf_gathered_writes_total",
+    "Shared frames written as a header plus the shared payload");
+
+  /**
+   * Messages dropped by the rate limits.
+   */
+  final Counter rejectedMessages = registry.counter(
+    "ocsf_messages_rejected_total", "Messages dropped by a rate limit");
+
+  /**
+   * Connection attempts closed by the connection limits.
+   */
+  final Counter refusedConnections = registry.counter(
+    "ocsf_connections_refused_total",
+    "Connections closed by a connection limit");
+
+  /**
+   * Clients disconnected by the idle timeout.
+   */
+  final Counter idleDisconnects = registry.counter(
+    "ocsf_idle_disconnects_total", "Clients closed by the idle timeout");
+
+  /**
+   * Clients that answered the goodbye of a closing server, or left,
+   * before the drain timeout.
+   */
+  final Counter drainedConnections = registry.counter(
+    "ocsf_drained_connections_total",
+    "Clients that answered the goodbye of a closing server in time");
+
+  /**
+   * Clients that had not answered the goodbye when the drain timeout
+   * ran out.
+   */
+  final Counter drainTimeouts = registry.counter(
+    "ocsf_drain_timeouts_total",
+    "Clients still draining when the drain timeout ran out");
+
+  /**
+   * Time spent in handleMessageFromClient.
+   */
+  final Histogram handlerDuration = registry.histogram(
+    "ocsf_handler_duration_nanoseconds",
+    "Time spent in handleMessageFromClient", "ns");
+
+  /**
+   * Time connection threads waited for the server's monitor before
+   * handling a message.
+   */
+  final Histogram dispatchWait = registry.histogram(
+    "ocsf_dispatch_wait_nanoseconds",
+    "Time waited for the server monitor before handling a message", "ns");
+
+  /**
+   * Time spent writing a broadcast, or a window of coalesced
+   * broadcasts, to every client.
+   */
+  final Histogram broadcastDuration = registry.histogram(
+    "ocsf_broadcast_duration_nanoseconds",
+    "Time spent writing a broadcast to every client", "ns");
+
+  /**
+   * The number of broadcasts sent together at the end of each
+   * coalescing window.
+   */
+  final Histogram coalescedBatchSize = registry.histogram(
+    "ocsf_coalesced_batch_size",
+    "Broadcasts sent together per coalescing window", "messages");
+
+  /**
+   * Time spent writing one message to one client, waiting for the
+   * connection's write lock included.
+   */
+  final Histogram writeDuration = registry.histogram(
+    "ocsf_write_duration_nanoseconds",
+    "Time spent writing a message to a client", "ns");
+
+  /**
+   * Round trip times measured by heartbeats, all clients together.
+   */
+  final Histogram roundTrip = registry.histogram(
+    "ocsf_heartbeat_rtt_nanoseconds",
+    "Round trip time measured by heartbeats", "ns");
+
+  /**
+   * Constructs the metrics of a server, including the gauges that read
+   * its state.
+   *
+   * @param server the server.
+   * @param dispatchQueue supplies the number of connection threads
+   *  waiting for the server's monitor.
+   */
+  ServerMetrics(AbstractServer server, LongSupplier dispatchQueue)
+  {
+    registry.gauge("ocsf_clients", "Clients currently connected",
+      server::getNumberOfClients);
+    registry.gauge("ocsf_sessions",
+      "Logical sessions open on multiplexed connections",
+      server::getSessionCount);
+    registry.gauge("ocsf_acceptors",
+      "Server sockets accepting connections, each with its own thread",
+      server::getListeningSocketCount);
+    registry.gauge("ocsf_dispatch_queue_depth",
+      "Connection threads waiting for the server monitor", dispatchQueue);
+    registry.gauge("ocsf_timer_pending", "Timeouts pending on the server timer",
+      () -> server.getTimer().getPendingCount());
+    BufferPool.registerMetrics(registry);
+  }
+}
@@ -0,0 +1,102 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.server;
+
+import java.io.ObjectStreamConstants;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import ocsf.common.BufferPool;
+import ocsf.common.Compressed;
+
+/**
+* The <code> SharedFrame </code> class holds a broadcast compressed
+* once for all its recipients, ready to be written to each of them.
+* The deflated bytes are copied once, into a direct buffer, as a long
+* block of object stream data; each connection writes its own header,
+* the detached frame, followed by a read-only view of that buffer.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+final class SharedFrame
+{
+  // INSTANCE VARIABLES *********************************************
+
+  /**
+   * The complete frame, for connections that cannot gather.
+   */
+  final Compressed frame;
+
+  /**
+   * The detached frame, written before the payload.
+   */
+  final Compressed header;
+
+  /**
+   * The block header and deflated bytes, in a pooled direct buffer.
+   */
+  private final ByteBuffer payload;
+
+  /**
+   * The bytes of the frame copied so far, into the payload buffer or
+   * into the object streams of connections that cannot gather.
+   */
+  private final AtomicLong copiedBytes = new AtomicLong();
+
+
+// CONSTRUCTOR ******************************************************
+
+  /**
+   * Prepares a frame for gathering writes.
+   *
+   * @param frame the compressed broadcast.
+   */
+  SharedFrame(Compressed frame)
+  {
+    byte[] data = frame.getData();
+    this.frame = frame;
+    this.header = frame.detach();
+    payload = BufferPool.acquire(5 + data.length);
+    payload.put(ObjectStreamConstants.TC_BLOCKDATALONG).putInt(data.length)
+      .put(data).flip();
+    copiedBytes.set(data.length);
+  }
+
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * @return a read-only view of the payload, with a position of its own.
+   */
+  ByteBuffer payload()
+  {
+    return payload.asReadOnlyBuffer();
+  }
+
+  /**
+   * Counts a copy of the frame's bytes made by a connection that
+   * cannot gather.
+   */
+  void copied()
+  {
+    copiedBytes.addAndGet(frame.getData().length);
+  }
+
+  /**
+   * @return the bytes of the frame copied so far.
+   */
+  long getCopiedBytes()
+  {
+    return copiedBytes.get();
+  }
+
+  /**
+   * Returns the payload buffer to the pool, once every recipient has
+   * been written to.
+   */
+  void release()
+  {
+    BufferPool.release(payload);
+  }
+}
+// End of SharedFrame Class
@@ -0,0 +1,28 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.server;
+
+import jdk.jfr.*;
+
+/**
+* Flight Recorder event committed when writing one message to one
+* client takes longer than the threshold (20 ms by default), usually
+* because the client does not read fast enough. Disabled by default.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+@Name("ocsf.server.SlowWrite")
+@Label("Slow Write")
+@Category({"OCSF", "Server"})
+@Description("A write to a client that took longer than the threshold")
+@Enabled(false)
+@Threshold("20 ms")
+final class SlowWriteEvent extends Event
+{
+  @Label("Remote Address")
+  String remoteAddress;
+
+  @Label("Message Class")
+  String messageClass;
+}
@@ -0,0 +1,142 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* The <code> TokenBucket </code> class limits the rate at which
+* messages are admitted. Tokens are refilled continuously at
+* nanosecond resolution and up to <code>burst</code> tokens may be
+* spent at once.<p>
+*
+* The bucket is kept as a single theoretical arrival time (the
+* generic cell rate algorithm), so <code>tryAcquire</code> is one
+* read and at most a few compare-and-set operations; no lock is
+* ever taken.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see ocsf.server.AbstractServer#setClientRateLimit(double, int)
+*/
+public class TokenBucket
+{
+  // CONSTANTS *******************************************************
+
+  /**
+   * The longest refill time, in nanoseconds, kept by a bucket (about
+   * 73 years). Slower rates and larger bursts are clamped to it so
+   * that the arithmetic relative to <code>System.nanoTime()</code>
+   * cannot overflow.
+   */
+  private static final long MAX_NANOS = Long.MAX_VALUE / 4;
+
+
+  // INSTANCE VARIABLES *********************************************
+
+  /**
+   * The time, in nanoseconds, needed to refill one token.
+   */
+  private final long nanosPerToken;
+
+  /**
+   * The time, in nanoseconds, needed to refill a full bucket.
+   */
+  private final long capacityNanos;
+
+  /**
+   * The theoretical arrival time of the next conforming message,
+   * on the <code>System.nanoTime()</code> scale.
+   */
+  private final AtomicLong arrival;
+
+  /**
+   * The number of messages refused by this bucket.
+   */
+  private final AtomicLong rejected = new AtomicLong();
+
+
+// CONSTRUCTOR ******************************************************
+
+  /**
+   * Constructs a full token bucket.
+   *
+   * @param tokensPerSecond the refill rate.
+   * @param burst the maximum number of tokens that can be held.
+   * @exception IllegalArgumentException if the rate is not positive
+   *  and finite, or the burst is not positive.
+   */
+  public TokenBucket(double tokensPerSecond, int burst)
+  {
+    if (!(tokensPerSecond > 0) || Double.isInfinite(tokensPerSecond)
+      || burst <= 0)
+      throw new IllegalArgumentException(
+        "rate must be positive and finite, and burst positive");
+
+    this.nanosPerToken =
+      Math.min(MAX_NANOS, Math.max(1L, (long)(1e9 / tokensPerSecond)));
+
+    long capacity;
+    try
+    {
+      capacity = Math.multiplyExact(nanosPerToken, (long)burst);
+    }
+    catch (ArithmeticException ex)
+    {
+      capacity = MAX_NANOS;
+    }
+    this.capacityNanos = Math.min(MAX_NANOS, capacity);
+    this.arrival = new AtomicLong(System.nanoTime() - capacityNanos);
+  }
+
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Takes one token from the bucket if one is available.
+   *
+   * @return true if the message conforms to the rate limit.
+   */
+  public boolean tryAcquire()
+  {
+    long now = System.nanoTime();
+
+    while (true)
+    {
+      long current = arrival.get();
+      long next = (current - now > -capacityNanos ? current : now - capacityNanos)
+        + nanosPerToken;
+
+      if (next - now > 0)
+      {
+        rejected.incrementAndGet();
+        return false;
+      }
+      if (arrival.compareAndSet(current, next))
+        return true;
+    }
+  }
+
+  /**
+   * Returns true if the bucket has been refilled completely, i.e.
+   * if forgetting it would not change any future decision.
+   *
+   * @return true if the bucket is full.
+   */
+  public boolean isFull()
+  {
+    return arrival.get() - (System.nanoTime() - capacityNanos) <= 0;
+  }
+
+  /**
+   * Returns the number of messages refused by this bucket.
+   *
+   * @return the number of rejected messages.
+   */
+  public long getRejectedCount()
+  {
+    return rejected.get();
+  }
+}
+// End of TokenBucket Class
@@ -0,0 +1,204 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package ocsf.server;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import ocsf.common.UnixSocket;
+
+/**
+* A <code> UnixServerSocket </code> presents a Unix domain server
+* socket channel as a <code>ServerSocket</code>, so that the server's
+* acceptor threads accept local clients as they do TCP ones. Accepted
+* connections are <code>UnixSocket</code>s. The channel is polled with
+* a selector, so that accepts time out like those of a TCP server
+* socket and the acceptor sees when to stop.<p>
+*
+* The socket file is created when the socket is bound, replacing any
+* file left by a server that died, and deleted when it is closed,
+* unless another server has replaced it meanwhile.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+final class UnixServerSocket extends ServerSocket
+{
+  // INSTANCE VARIABLES *********************************************
+
+  /**
+   * The listening channel, in non-blocking mode.
+   */
+  private final ServerSocketChannel channel;
+
+  /**
+   * The selector waiting for connections on the channel.
+   */
+  private final Selector selector;
+
+  /**
+   * The path of the socket file.
+   */
+  private final Path path;
+
+  /**
+   * The identity of the socket file created, to recognize it when
+   * closing; may be null.
+   */
+  private final Object fileKey;
+
+  /**
+   * The accept timeout, in ms; zero means none.
+   */
+  private volatile int timeout = 0;
+
+
+// CONSTRUCTOR ******************************************************
+
+  /**
+   * Binds a Unix domain socket at a path.
+   *
+   * @param path the path of the socket file.
+   * @param backlog the maximum queue length.
+   * @exception IOException if the socket cannot be bound.
+   */
+  UnixServerSocket(Path path, int backlog) throws IOException
+  {
+    this.path = path;
+    Files.deleteIfExists(path);
+    channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    try
+    {
+      channel.bind(UnixDomainSocketAddress.of(path), backlog);
+      channel.configureBlocking(false);
+      selector = Selector.open();
+      channel.register(selector, SelectionKey.OP_ACCEPT);
+      fileKey = Files.readAttributes(path, BasicFileAttributes.class)
+        .fileKey();
+    }
+    catch (IOException ex)
+    {
+      channel.close();
+      throw ex;
+    }
+  }
+
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Waits for a connection, at most the accept timeout.
+   *
+   * @return the socket of the connection.
+   * @exception SocketTimeoutException if the timeout expires first.
+   * @exception IOException if the socket is closed.
+   */
+  public Socket accept() throws IOException
+  {
+    try
+    {
+      while (true)
+      {
+        SocketChannel accepted = channel.accept();
+        if (accepted != null)
+        {
+          accepted.configureBlocking(true);
+          return new UnixSocket(accepted, path);
+        }
+
+        int limit = timeout;
+        int ready = selector.select(limit);
+        selector.selectedKeys().clear();
+        if (!channel.isOpen())
+          throw new SocketException("Socket is closed");
+        if (ready == 0 && limit > 0)
+          throw new SocketTimeoutException("Accept timed out");
+      }
+    }
+    catch (ClosedSelectorException ex)
+    {
+      throw new SocketException("Socket is closed");
+    }
+  }
+
+  public void setSoTimeout(int timeout) throws SocketException
+  {
+    if (timeout < 0)
+      throw new IllegalArgumentException("timeout < 0");
+    this.timeout = timeout;
+  }
+
+  public int getSoTimeout()
+  {
+    return timeout;
+  }
+
+  public boolean isBound()
+  {
+    return true;
+  }
+
+  public boolean isClosed()
+  {
+    return !channel.isOpen();
+  }
+
+  /**
+   * @return null, since the socket has no Internet address.
+   */
+  public InetAddress getInetAddress()
+  {
+    return null;
+  }
+
+  public int getLocalPort()
+  {
+    return -1;
+  }
+
+  public SocketAddress getLocalSocketAddress()
+  {
+    return UnixDomainSocketAddress.of(path);
+  }
+
+  /**
+   * Closes the socket, and deletes its file if it is still the one
+   * created when binding.
+   *
+   * @exception IOException if the channel cannot be closed.
+   */
+  public void close() throws IOException
+  {
+    if (!channel.isOpen())
+      return;
+    try
+    {
+      channel.close();
+      selector.close();
+    }
+    finally
+    {
+      try
+      {
+        if (fileKey != null && Objects.equals(fileKey, Files.readAttributes(
+          path, BasicFileAttributes.class).fileKey()))
+          Files.delete(path);
+      }
+      catch (IOException ex) {}
+    }
+  }
+
+  public String toString()
+  {
+    return "unix:" + path;
+  }
+}
+// End of UnixServerSocket Class
@@ -3,7 +3,14 @@
 // license found at www.lloseng.com 
 
 import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import ocsf.server.*;
+import ocsf.metrics.MetricsHttpServer;
+import cluster.ClusterListener;
+import cluster.ClusterNode;
 
 /**
  * This class overrides some of the methods in the abstract
@@ -23,6 +30,61 @@ public class EchoServer extends ObservableOriginatorServer
    * The default port to listen on.
    */
   final public static int DEFAULT_PORT = 5555;
+
+  /**
+   * The room clients are in when they log in.
+   */
+  final public static String DEFAULT_ROOM = "lobby";
+
+  /**
+   * The time, in ms, clients are given to leave when the server hands
+   * its port off to a new one, and over which they reconnect.
+   */
+  final public static int HANDOFF_DRAIN_TIMEOUT = 5000;
+
+  //Instance variables **********************************************
+
+  /**
+   * The endpoint serving the server's metrics, or null if metrics
+   * are not exposed.
+   */
+  private MetricsHttpServer metricsEndpoint;
+
+  /**
+   * The node linking this server to the other servers of its
+   * cluster, or null if the server runs alone.
+   */
+  private volatile ClusterNode cluster;
+
+  /**
+   * Lock keeping the room and login of each client in step with the
+   * cluster's count of local members and presence directory.
+   */
+  private final Object roomLock = new Object();
+
+  /**
+   * The clients logged in on this server, by login ID. Guarded by
+   * roomLock.
+   */
+  private final HashMap<String,ConnectionToClient> logins = new HashMap<>();
+
+  /**
+   * The room of each client that is in one. Written under roomLock,
+   * but read without it by the threads sending to a room, relays from
+   * the other servers included.
+   */
+  private final ConcurrentHashMap<ConnectionToClient,String> rooms =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Set once a new server has taken the port over.
+   */
+  private volatile boolean handedOff = false;
+
+  /**
+   * Released when the server closes after handing its port off.
+   */
+  private final CountDownLatch handoffClosed = new CountDownLatch(1);
   
   //Constructors ****************************************************
 
@@ -68,9 +130,23 @@ public class EchoServer extends ObservableOriginatorServer
               return;
           }
 
-          // 1.2 Save loginId
+          // 1.2 Save loginId, unless it is taken here or on another server
           loginId = parts[1].trim();
-          client.setInfo("loginId", loginId);
+          synchronized (roomLock) {
+              ClusterNode node = cluster;
+              if (findClient(loginId) != null || (node != null && node.locate(loginId) != null)) {
+                  try {
+                      client.sendToClient("Error: " + loginId + " is already logged in");
+                  } catch (IOException e) { /* Ignore */ }
+                  return;
+              }
+              client.setInfo("loginId", loginId);
+              logins.put(loginId, client);
+              if (node != null) {
+                  node.loggedIn(loginId);
+              }
+              joinRoom(client, DEFAULT_ROOM);
+          }
 
           setChanged();
           notifyObservers("Client logged in with ID: " + loginId);
@@ -94,15 +170,61 @@ public class EchoServer extends ObservableOriginatorServer
           return;
       }
 
-      // 3. Prefix message with login id and broadcast
+      // 3. Move to another room
+      if (message.startsWith("#join")) {
+          String[] parts = message.split("\\s+", 2);
+          try {
+              if (parts.length < 2 || parts[1].trim().isEmpty()) {
+                  client.sendToClient("Error: CMD Usage is #join <room>");
+              } else {
+                  joinRoom(client, parts[1].trim());
+                  client.sendToClient("Joined room " + parts[1].trim());
+              }
+          } catch (IOException e) { /* Ignore */ }
+          return;
+      }
+
+      // 4. Send a message to one user, here or on another server
+      if (message.startsWith("#msg")) {
+          String[] parts = message.split("\\s+", 3);
+          try {
+              if (parts.length < 3) {
+                  client.sendToClient("Error: CMD Usage is #msg <loginId> <message>");
+              } else if (!sendToUser(parts[1], loginId + " (private)> " + parts[2])) {
+                  client.sendToClient("Error: " + parts[1] + " is not logged in");
+              }
+          } catch (IOException e) { /* Ignore */ }
+          return;
+      }
+
+      // 5. Prefix message with login id and send it to the room
+      String room = rooms.get(client);
       setChanged();
-      notifyObservers("Message received from " + loginId + ": " + message);
+      notifyObservers("Message received from " + loginId + " in " + room + ": " + message);
+
+      sendToRoom(room, loginId + "> " + message);
 
-      this.sendToAllClients(loginId + "> " + message);
+      // 6. Relay it to the members of the room on the other servers
+      ClusterNode node = cluster;
+      if (node != null) {
+          node.publish(room, loginId + "> " + message);
+      }
 
       // Note: We don't call super.handleMessageFromClient() because we're doing custom processing
   }
 
+  /**
+   * Rate limits clients by login ID, so that a user cannot escape
+   * the limit by opening several connections.
+   *
+   * @param client The connection that sent a message.
+   * @return the client's login ID, or null before #login.
+   */
+  @Override
+  protected Object getRateLimitIdentity(ConnectionToClient client) {
+      return client.getInfo("loginId");
+  }
+
   /**
    * This method is invoked when a new client connects.
    * Notifies observers about the new connection.
@@ -113,7 +235,7 @@ public class EchoServer extends ObservableOriginatorServer
   protected void clientConnected(ConnectionToClient client) {
       super.clientConnected(client); // Sends OriginatorMessage notification
       setChanged();
-      notifyObservers("Client connected: " + client);
+      notifyObservers("Client connected: " + client + " on listener " + client.getListenerName());
   }
 
   /**
@@ -124,11 +246,111 @@ public class EchoServer extends ObservableOriginatorServer
    */
   @Override
   protected void clientDisconnected(ConnectionToClient client) {
+      logOut(client);
       super.clientDisconnected(client); // Sends OriginatorMessage notification
       setChanged();
       notifyObservers("Client disconnected: " + client);
   }
     
+  /**
+   * This method is invoked when the connection to a client fails.
+   * The client leaves its room and is logged out.
+   *
+   * @param client The connection that failed.
+   * @param exception The exception raised.
+   */
+  @Override
+  protected void clientException(ConnectionToClient client, Throwable exception) {
+      logOut(client);
+      super.clientException(client, exception);
+  }
+
+  /**
+   * Sends a message to the clients of this server that are in a room.
+   *
+   * @param room the room.
+   * @param msg the message.
+   */
+  public void sendToRoom(String room, Object msg) {
+      sendToClients(msg, client -> room.equals(rooms.get(client)));
+  }
+
+  /**
+   * Sends a message to a user, whether logged in on this server or
+   * on another server of the cluster.
+   *
+   * @param loginId the user's login ID.
+   * @param msg the message.
+   * @return false if the user is not logged in.
+   */
+  public boolean sendToUser(String loginId, Object msg) {
+      ConnectionToClient client = findClient(loginId);
+      if (client != null) {
+          try {
+              client.sendToClient(msg);
+          } catch (IOException e) { /* Ignore */ }
+          return true;
+      }
+      ClusterNode node = cluster;
+      return node != null && node.sendDirect(loginId, msg);
+  }
+
+  /**
+   * Finds the connection of a user logged in on this server.
+   *
+   * @param loginId the user's login ID.
+   * @return the connection, or null if the user is not logged in here.
+   */
+  private ConnectionToClient findClient(String loginId) {
+      synchronized (roomLock) {
+          return logins.get(loginId);
+      }
+  }
+
+  /**
+   * Takes a client out of its room and, if it was logged in, out of
+   * the cluster's presence directory.
+   *
+   * @param client the client.
+   */
+  private void logOut(ConnectionToClient client) {
+      synchronized (roomLock) {
+          joinRoom(client, null);
+          String loginId = (String) client.getInfo("loginId");
+          ClusterNode node = cluster;
+          if (loginId != null && logins.remove(loginId, client) && node != null) {
+              node.loggedOut(loginId);
+          }
+      }
+  }
+
+  /**
+   * Moves a client to another room, keeping the cluster's count of
+   * local members up to date.
+   *
+   * @param client the client.
+   * @param room the new room, or null if the client leaves.
+   */
+  private void joinRoom(ConnectionToClient client, String room) {
+      synchronized (roomLock) {
+          String previous = room == null ? rooms.remove(client)
+              : rooms.put(client, room);
+          if (previous == null ? room == null : previous.equals(room)) {
+              return;
+          }
+
+          ClusterNode node = cluster;
+          if (node != null) {
+              if (previous != null) {
+                  node.memberLeft(previous);
+              }
+              if (room != null) {
+                  node.memberJoined(room);
+              }
+          }
+      }
+  }
+
   /**
    * This method overrides the one in the superclass.  Called
    * when the server starts listening for connections.
@@ -154,7 +376,168 @@ public class EchoServer extends ObservableOriginatorServer
     setChanged();
     notifyObservers("Server has stopped listening for connections.");
   }
+
+  /**
+   * This method overrides the one in the superclass.  Called
+   * when a new server process has taken the port over.
+   * Releases the metrics and cluster ports for the new server.
+   */
+  @Override
+  protected void serverHandedOff()
+  {
+    super.serverHandedOff(); // Sends OriginatorMessage notification
+    handedOff = true;
+    stopMetricsEndpoint();
+    stopCluster();
+    setChanged();
+    notifyObservers("Port handed off to a new server; draining clients.");
+  }
+
+  /**
+   * This method overrides the one in the superclass.  Called
+   * when the server is closed. Releases awaitHandoff if the port
+   * was handed off to a new server.
+   */
+  @Override
+  protected void serverClosed()
+  {
+    super.serverClosed(); // Sends OriginatorMessage notification
+    if (handedOff) {
+        setChanged();
+        notifyObservers("Clients drained; exiting.");
+        handoffClosed.countDown();
+    }
+  }
+
+  /**
+   * Waits until the port has been handed off to a new server and
+   * this server has closed. The close is then over, since it is
+   * completed under the server's monitor, which close() waits for.
+   *
+   * @exception InterruptedException if the thread is interrupted.
+   */
+  public void awaitHandoff() throws InterruptedException
+  {
+    handoffClosed.await();
+    try
+    {
+      close();
+    }
+    catch (IOException ex) {}
+  }
   
+  /**
+   * Exposes the server's metrics in Prometheus text format at
+   * http://localhost:port/metrics. Only the loopback interface is
+   * bound. Any previous endpoint is stopped first.
+   *
+   * @param metricsPort the loopback port to serve metrics on.
+   * @exception IOException if the port cannot be bound.
+   */
+  public synchronized void startMetricsEndpoint(int metricsPort) throws IOException {
+      stopMetricsEndpoint();
+      metricsEndpoint = new MetricsHttpServer(metricsPort, getMetrics());
+      setChanged();
+      notifyObservers("Metrics available at http://localhost:" + metricsEndpoint.getPort() + "/metrics");
+  }
+
+  /**
+   * Stops exposing the server's metrics, if they are exposed.
+   */
+  public synchronized void stopMetricsEndpoint() {
+      if (metricsEndpoint != null) {
+          metricsEndpoint.stop();
+          metricsEndpoint = null;
+      }
+  }
+
+  /**
+   * Joins a cluster of servers: messages sent to a room here are
+   * relayed to the members of the room on the other servers, and
+   * theirs to the members here; users logged in on any server can be
+   * sent direct messages, and cannot log in again elsewhere. Any
+   * previous cluster node is shut down first.
+   *
+   * @param nodeId the ID of this server, unique in the cluster.
+   * @param clusterHost the interface on which the other servers link
+   *          to this one, or null for the loopback interface.
+   * @param clusterPort the port on which the other servers link to
+   *          this one.
+   * @param key the key shared by the servers of the cluster.
+   * @exception IOException if the port cannot be bound.
+   */
+  public void startCluster(String nodeId, String clusterHost, int clusterPort, String key)
+      throws IOException {
+      stopCluster();
+      ClusterNode node = new ClusterNode(nodeId, clusterHost, clusterPort, key, new ClusterListener() {
+          public void relayReceived(String origin, String room, Object msg) {
+              setChanged();
+              notifyObservers("Message relayed from node " + origin + " in " + room + ": " + msg);
+              sendToRoom(room, msg);
+          }
+
+          public void directReceived(String origin, String loginId, Object msg) {
+              ConnectionToClient client = findClient(loginId);
+              if (client != null) {
+                  try {
+                      client.sendToClient(msg);
+                  } catch (IOException e) { /* Ignore */ }
+              }
+          }
+
+          public void loginLost(String loginId, String winner) {
+              ConnectionToClient client = findClient(loginId);
+              if (client != null) {
+                  setChanged();
+                  notifyObservers("Client " + loginId + " also logged in on node " + winner
+                      + ", which keeps it; disconnecting " + client);
+                  try {
+                      client.sendToClient("Error: " + loginId + " is logged in on another server");
+                      client.close();
+                  } catch (IOException e) { /* Ignore */ }
+              }
+          }
+      });
+      node.listen();
+
+      // The node must know the rooms and logins of the clients already logged in
+      synchronized (roomLock) {
+          for (Map.Entry<String,ConnectionToClient> login : logins.entrySet()) {
+              String room = rooms.get(login.getValue());
+              if (room != null) {
+                  node.memberJoined(room);
+              }
+              node.loggedIn(login.getKey());
+          }
+          cluster = node;
+      }
+      setChanged();
+      notifyObservers("Cluster node " + nodeId + " listening for peers on "
+          + node.getHost() + ":" + clusterPort);
+  }
+
+  /**
+   * Leaves the cluster, if this server is in one.
+   */
+  public void stopCluster() {
+      // Not synchronized: the node's threads notify our observers,
+      // which locks this server, while the node is shut down
+      ClusterNode node = cluster;
+      cluster = null;
+      if (node != null) {
+          node.shutdown();
+      }
+  }
+
+  /**
+   * Returns the node linking this server to its cluster.
+   *
+   * @return the node, or null if the server runs alone.
+   */
+  public ClusterNode getCluster() {
+      return cluster;
+  }
+
   //Class methods ***************************************************
   
   /**
@@ -163,6 +546,11 @@ public class EchoServer extends ObservableOriginatorServer
    *
    * @param args[0] The port number to listen on.  Defaults to 5555 
    *          if no argument is entered.
+   * @param args[1] The loopback port on which to expose metrics.
+   *          Metrics are not exposed if no argument is entered.
+   * @param args[2] The path of the Unix domain socket through which
+   *          a server started later with the same path takes the port
+   *          over, while this one drains its clients and exits.
    */
     public static void main(String[] args) {
         int port; // Port to listen on
@@ -175,12 +563,38 @@ public class EchoServer extends ObservableOriginatorServer
 
         ServerConsole console = new ServerConsole(port);
 
+        if (args.length > 2) {
+            console.server.setHandoffPath(Path.of(args[2]));
+            console.server.setDrainTimeout(HANDOFF_DRAIN_TIMEOUT);
+            console.server.setReconnectSpread(HANDOFF_DRAIN_TIMEOUT);
+        }
+
         try {
             console.server.listen(); // start listening
         } catch (Exception ex) {
             console.display("ERROR - Could not listen for clients!");
         }
 
+        if (args.length > 1) {
+            try {
+                console.server.startMetricsEndpoint(Integer.parseInt(args[1]));
+            } catch (Exception ex) {
+                console.display("ERROR - Could not expose metrics on port " + args[1] + "!");
+            }
+        }
+
+        // With a handoff path, the console is read on its own thread
+        // and the process ends here once the port was handed off
+        if (args.length > 2) {
+            new Thread(console::accept, "console").start();
+            try {
+                console.server.awaitHandoff();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            System.exit(0);
+        }
+
         // Start reading from console input
         console.accept();
     }
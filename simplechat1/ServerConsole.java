@@ -1,4 +1,5 @@
 import java.io.*;
+import java.nio.file.Path;
 import ocsf.server.*;
 import common.*;
 import java.util.Observer;
@@ -106,6 +107,8 @@ public class ServerConsole implements ChatIF, Observer {
         String cmd = parts[0].toLowerCase();
         switch (cmd) {
             case "#quit":
+                server.stopMetricsEndpoint();
+                server.stopCluster();
                 try { server.close(); } catch (IOException ignored) {}
                 System.exit(0);
                 break;
@@ -135,9 +138,257 @@ public class ServerConsole implements ChatIF, Observer {
                     try { server.listen(); } catch (Exception e) { display("Start failed."); }
                 else display("Server already listening.");
                 break;
+            case "#acceptors":
+                if (parts.length < 2) {
+                    display("Usage: #acceptors <threads>; currently " + server.getAcceptorCount());
+                } else {
+                    try {
+                        server.setAcceptorCount(Integer.parseInt(parts[1]));
+                        display("Acceptor threads set to " + server.getAcceptorCount()
+                            + "; use #close and #start for the change to take effect.");
+                    } catch (NumberFormatException nfe) {
+                        display("Threads must be a number.");
+                    }
+                }
+                break;
+            case "#listen":
+                int sep = parts.length < 3 ? -1 : parts[2].lastIndexOf(':');
+                if (parts.length < 3) {
+                    display("Usage: #listen <name> [host:]<port> [maxConnections]"
+                        + " | #listen <name> unix:<path> [maxConnections]");
+                } else if (parts[2].startsWith("unix:")) {
+                    try {
+                        int max = parts.length > 3 ? Integer.parseInt(parts[3]) : 0;
+                        server.addUnixListener(parts[1], Path.of(parts[2].substring(5)), max);
+                        display("Listener " + parts[1] + " added; use #close and #start for it to take effect.");
+                    } catch (NumberFormatException nfe) {
+                        display("Limit must be a number.");
+                    } catch (IllegalArgumentException e) {
+                        display(e.getMessage());
+                    }
+                } else {
+                    try {
+                        int listenPort = Integer.parseInt(parts[2].substring(sep + 1));
+                        int max = parts.length > 3 ? Integer.parseInt(parts[3]) : 0;
+                        server.addListener(parts[1], sep > 0 ? parts[2].substring(0, sep) : null, listenPort, max);
+                        display("Listener " + parts[1] + " added; use #close and #start for it to take effect.");
+                    } catch (NumberFormatException nfe) {
+                        display("Port and limit must be numbers.");
+                    } catch (IllegalArgumentException e) {
+                        display(e.getMessage());
+                    }
+                }
+                break;
+            case "#unlisten":
+                if (parts.length < 2) {
+                    display("Usage: #unlisten <name>");
+                } else if (server.removeListener(parts[1])) {
+                    display("Listener " + parts[1] + " removed; use #close and #start for it to take effect.");
+                } else {
+                    display("No listener " + parts[1] + " to remove.");
+                }
+                break;
+            case "#listeners":
+                for (String name : server.getListenerNames()) {
+                    display("  " + name + ": " + server.getListenerConnectionCount(name) + " connection(s)");
+                }
+                break;
             case "#getport":
                 display("Port: " + server.getPort());
                 break;
+            case "#maxclients":
+                if (parts.length < 2) {
+                    display("Usage: #maxclients <total> [perAddress]");
+                } else {
+                    try {
+                        int total = Integer.parseInt(parts[1]);
+                        int perAddress = parts.length > 2 ? Integer.parseInt(parts[2]) : 0;
+                        server.setMaxConnections(total);
+                        server.setMaxConnectionsPerAddress(perAddress);
+                        display("Connection limits set to " + total + " total, " + perAddress
+                            + " per address (" + server.getRefusedConnectionCount() + " refused so far).");
+                    } catch (NumberFormatException nfe) {
+                        display("Limits must be numbers.");
+                    }
+                }
+                break;
+            case "#idletimeout":
+                if (parts.length < 2) {
+                    display("Usage: #idletimeout <seconds> (0 to disable)");
+                } else {
+                    try {
+                        int seconds = Integer.parseInt(parts[1]);
+                        server.setIdleTimeout(seconds * 1000);
+                        display("Idle timeout set to " + seconds + " s ("
+                            + server.getIdleDisconnectCount() + " idle clients disconnected so far).");
+                    } catch (NumberFormatException nfe) {
+                        display("Timeout must be a number.");
+                    }
+                }
+                break;
+            case "#heartbeat":
+                if (parts.length < 2) {
+                    display("Usage: #heartbeat <seconds> (0 to disable)");
+                } else {
+                    try {
+                        int seconds = Integer.parseInt(parts[1]);
+                        // Clients silent for three heartbeats are dead
+                        server.setHeartbeatInterval(seconds * 1000);
+                        server.setIdleTimeout(seconds * 3000);
+                        display("Heartbeat set to " + seconds + " s, idle timeout to " + (seconds * 3) + " s.");
+                    } catch (NumberFormatException nfe) {
+                        display("Interval must be a number.");
+                    }
+                }
+                break;
+            case "#coalesce":
+                if (parts.length < 2) {
+                    display("Usage: #coalesce <ms> (0 to disable); currently "
+                        + server.getCoalescingWindow() + " ms");
+                } else {
+                    try {
+                        int window = Integer.parseInt(parts[1]);
+                        server.setCoalescingWindow(window);
+                        display("Broadcasts coalesced over " + window + " ms.");
+                    } catch (NumberFormatException nfe) {
+                        display("Window must be a number.");
+                    }
+                }
+                break;
+            case "#drain":
+                if (parts.length < 2) {
+                    display("Usage: #drain <seconds> [reconnectSpreadSeconds] (0 to close at once); currently "
+                        + server.getDrainTimeout() / 1000 + " s, spread " + server.getReconnectSpread() / 1000 + " s");
+                } else {
+                    try {
+                        int seconds = Integer.parseInt(parts[1]);
+                        int spread = parts.length > 2 ? Integer.parseInt(parts[2]) : seconds;
+                        server.setDrainTimeout(seconds * 1000);
+                        server.setReconnectSpread(spread * 1000);
+                        display("Clients given " + seconds + " s to leave on #close, reconnecting over "
+                            + spread + " s.");
+                    } catch (NumberFormatException nfe) {
+                        display("Times must be numbers.");
+                    }
+                }
+                break;
+            case "#compress":
+                if (parts.length < 2) {
+                    display("Usage: #compress <bytes> (0 to disable); currently "
+                        + server.getCompressionThreshold() + " bytes");
+                } else {
+                    try {
+                        int threshold = Integer.parseInt(parts[1]);
+                        server.setCompressionThreshold(threshold);
+                        display("Messages of " + threshold + " bytes or more compressed"
+                            + " for clients connecting from now on.");
+                    } catch (NumberFormatException nfe) {
+                        display("Threshold must be a number.");
+                    }
+                }
+                break;
+            case "#cluster":
+                if (parts.length == 2 && parts[1].equalsIgnoreCase("off")) {
+                    server.stopCluster();
+                    display("Left the cluster.");
+                } else if (parts.length == 4) {
+                    // [<host>:]<port>, the loopback interface by default
+                    int hostEnd = parts[2].lastIndexOf(':');
+                    try {
+                        server.startCluster(parts[1],
+                            hostEnd < 0 ? null : parts[2].substring(0, hostEnd),
+                            Integer.parseInt(parts[2].substring(hostEnd + 1)), parts[3]);
+                    } catch (NumberFormatException nfe) {
+                        display("Port must be a number.");
+                    } catch (IOException e) {
+                        display("Could not start cluster node: " + e.getMessage());
+                    }
+                } else if (server.getCluster() == null) {
+                    display("Usage: #cluster <nodeId> [<host>:]<port> <key> | #cluster off");
+                } else {
+                    display("Node " + server.getCluster().getNodeId() + ", peers:");
+                    for (String peer : server.getCluster().describePeers()) {
+                        display("  " + peer);
+                    }
+                    display(server.getCluster().getUserCount() + " user(s) logged in on the cluster.");
+                    display("Rooms:");
+                    for (String room : server.getCluster().describeRooms()) {
+                        display("  " + room);
+                    }
+                }
+                break;
+            case "#peer":
+                int colon = parts.length < 2 ? -1 : parts[1].lastIndexOf(':');
+                if (colon <= 0) {
+                    display("Usage: #peer <host>:<port>");
+                } else if (server.getCluster() == null) {
+                    display("Start a cluster node first with #cluster <nodeId> [<host>:]<port> <key>.");
+                } else {
+                    try {
+                        int peerPort = Integer.parseInt(parts[1].substring(colon + 1));
+                        server.getCluster().connectPeer(parts[1].substring(0, colon), peerPort);
+                        display("Linking to " + parts[1] + ".");
+                    } catch (NumberFormatException nfe) {
+                        display("Port must be a number.");
+                    }
+                }
+                break;
+            case "#clients":
+                Thread[] clients = server.getClientConnections();
+                display(clients.length + " client(s) connected.");
+                for (Thread t : clients) {
+                    ConnectionToClient c = (ConnectionToClient) t;
+                    long rtt = c.getRoundTripTime();
+                    display("  " + c.getInfo("loginId") + " at " + c
+                        + ", rtt " + (rtt < 0 ? "n/a" : (rtt / 1000.0) + " ms")
+                        + ", idle " + (c.getIdleTime() / 1000) + " s");
+                }
+                break;
+            case "#stats":
+                for (String line : server.getMetrics().format().split("\n")) {
+                    display(line);
+                }
+                break;
+            case "#metrics":
+                if (parts.length < 2) {
+                    display("Usage: #metrics <port> | #metrics off");
+                } else if (parts[1].equalsIgnoreCase("off")) {
+                    server.stopMetricsEndpoint();
+                    display("Metrics endpoint stopped.");
+                } else {
+                    try {
+                        server.startMetricsEndpoint(Integer.parseInt(parts[1]));
+                    } catch (NumberFormatException nfe) {
+                        display("Port must be a number.");
+                    } catch (IOException e) {
+                        display("Could not expose metrics: " + e.getMessage());
+                    }
+                }
+                break;
+            case "#ratelimit":
+                if (parts.length < 2) {
+                    display("Usage: #ratelimit <messages/sec> [burst] | #ratelimit off");
+                } else if (parts[1].equalsIgnoreCase("off")) {
+                    server.setClientRateLimit(0, 0);
+                    server.setIdentityRateLimit(0, 0);
+                    display("Rate limit removed.");
+                } else {
+                    try {
+                        double rate = Double.parseDouble(parts[1]);
+                        if (!Double.isFinite(rate)) {
+                            // parseDouble accepts "NaN" and "Infinity"
+                            throw new NumberFormatException(parts[1]);
+                        }
+                        int burst = parts.length > 2 ? Integer.parseInt(parts[2]) : (int) Math.ceil(rate);
+                        server.setClientRateLimit(rate, burst);
+                        server.setIdentityRateLimit(rate, burst);
+                        display("Rate limit set to " + rate + " messages/sec, burst " + burst
+                            + " (" + server.getRejectedMessageCount() + " rejected so far).");
+                    } catch (NumberFormatException nfe) {
+                        display("Rate and burst must be numbers.");
+                    }
+                }
+                break;
             default:
                 display("Unknown command.");
         }
@@ -7,6 +7,8 @@ package client;
 import ocsf.client.*;
 import common.*;
 import java.io.*;
+import java.nio.file.Path;
+import ocsf.metrics.Histogram;
 
 /**
  * This class overrides some of the methods defined in the abstract
@@ -24,6 +26,22 @@ public class ChatClient extends ObservableClient
   private boolean manualDisconnect = false;
   private String loginId;
 
+  /**
+   * The number of attempts to reconnect after the server closed.
+   */
+  private static final int RECONNECT_ATTEMPTS = 10;
+
+  /**
+   * The time between two attempts to reconnect, in ms.
+   */
+  private static final int RECONNECT_INTERVAL = 2000;
+
+  /**
+   * The prefix of a host naming the Unix domain socket of a server on
+   * this machine, as in unix:/tmp/chat.sock.
+   */
+  private static final String UNIX_PREFIX = "unix:";
+
   
   //Constructors ****************************************************
 
@@ -31,7 +49,8 @@ public class ChatClient extends ObservableClient
    * Constructs an instance of the chat client.
    *
    * @param loginId The user's login ID.
-   * @param host The server to connect to.
+   * @param host The server to connect to, or unix:<path> for the Unix
+   *  domain socket of a server on this machine.
    * @param port The port number to connect on.
    */
 
@@ -40,6 +59,7 @@ public class ChatClient extends ObservableClient
   {
     super(host, port); //Call the superclass constructor
     this.loginId = loginId;
+    setServer(host);
     openConnection();
   }
 
@@ -52,6 +72,16 @@ public class ChatClient extends ObservableClient
    */
   @Override
   protected void connectionClosed() {
+      // A server closing gracefully says when to come back; the
+      // console is not told of the closure, so that it does not exit
+      int delay = getReconnectDelay();
+      if (delay >= 0 && !manualDisconnect) {
+        setChanged();
+        notifyObservers("Server closing; reconnecting in " + delay + " ms.");
+        reconnectLater(delay);
+        return;
+      }
+
       super.connectionClosed(); // Notifies observers with CONNECTION_CLOSED
 
       boolean oldStatus = manualDisconnect;
@@ -101,6 +131,38 @@ public class ChatClient extends ObservableClient
   }
 
 
+  /**
+   * Reconnects to the server after a delay, retrying for a while
+   * since the server may be restarting. The client exits if the
+   * server does not come back.
+   *
+   * @param delay the time to wait first, in ms.
+   */
+  private void reconnectLater(int delay) {
+      Thread reconnector = new Thread(() -> {
+          try {
+              Thread.sleep(delay);
+              for (int i = 0; i < RECONNECT_ATTEMPTS; i++) {
+                  try {
+                      openConnection();
+                      setChanged();
+                      notifyObservers("Reconnected to " + getHost() + ":" + getPort());
+                      return;
+                  } catch (IOException e) {
+                      Thread.sleep(RECONNECT_INTERVAL);
+                  }
+              }
+          } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+          }
+          setChanged();
+          notifyObservers("Could not reconnect.");
+          super.connectionClosed();
+      }, "reconnector");
+      reconnector.setDaemon(true);
+      reconnector.start();
+  }
+
   /**
    * This method handles all data that comes in from the server.
    * The super method already notifies observers with the message.
@@ -148,9 +210,9 @@ public class ChatClient extends ObservableClient
               notifyObservers("Error: must log off first.");
             } else if (parts.length < 2 || parts[1].isBlank()) {
               setChanged();
-              notifyObservers("Usage: #sethost <host>");
+              notifyObservers("Usage: #sethost <host> | #sethost unix:<path>");
             } else {
-              setHost(parts[1].trim());
+              setServer(parts[1].trim());
               setChanged();
               notifyObservers("Host set to: " + getHost());
             }
@@ -189,6 +251,67 @@ public class ChatClient extends ObservableClient
             notifyObservers("Already connected.");
           }
           break;
+          case "#timestamps":
+              if (parts.length < 2 || !(parts[1].trim().equalsIgnoreCase("on") || parts[1].trim().equalsIgnoreCase("off"))) {
+                  setChanged();
+                  notifyObservers("Usage: #timestamps on|off");
+              } else {
+                  setTimestamping(parts[1].trim().equalsIgnoreCase("on"));
+                  setChanged();
+                  notifyObservers("Timestamping " + (isTimestamping() ? "enabled." : "disabled."));
+              }
+              break;
+          case "#compress":
+              if (parts.length < 2) {
+                  setChanged();
+                  notifyObservers("Usage: #compress <bytes> (0 to disable)");
+              } else {
+                  try {
+                      setCompressionThreshold(Integer.parseInt(parts[1].trim()));
+                      setChanged();
+                      notifyObservers("Compression threshold set to " + getCompressionThreshold()
+                          + " bytes; takes effect at the next #login.");
+                  } catch (NumberFormatException nfe) {
+                      setChanged();
+                      notifyObservers("Threshold must be a number.");
+                  }
+              }
+              break;
+          case "#latency":
+              Histogram.Snapshot latency = getEndToEndLatency().snapshot();
+              setChanged();
+              notifyObservers("End-to-end latency over " + latency.getCount() + " messages:"
+                  + " p50 " + latency.getPercentile(0.5) / 1000 + " us,"
+                  + " p99 " + latency.getPercentile(0.99) / 1000 + " us,"
+                  + " p999 " + latency.getPercentile(0.999) / 1000 + " us,"
+                  + " max " + latency.getMax() / 1000 + " us");
+              break;
+          case "#join":
+              if (parts.length < 2 || parts[1].isBlank()) {
+                  setChanged();
+                  notifyObservers("Usage: #join <room>");
+              } else {
+                  try {
+                      sendToServer("#join " + parts[1].trim());
+                  } catch (IOException e) {
+                      setChanged();
+                      notifyObservers("Could not send message to server.");
+                  }
+              }
+              break;
+          case "#msg":
+              if (parts.length < 2 || parts[1].trim().split("\\s+", 2).length < 2) {
+                  setChanged();
+                  notifyObservers("Usage: #msg <loginId> <message>");
+              } else {
+                  try {
+                      sendToServer("#msg " + parts[1].trim());
+                  } catch (IOException e) {
+                      setChanged();
+                      notifyObservers("Could not send message to server.");
+                  }
+              }
+              break;
           case "#gethost":
               setChanged();
               notifyObservers("Host: " + getHost());
@@ -240,5 +363,18 @@ public class ChatClient extends ObservableClient
     catch(IOException e) {}
     System.exit(0);
   }
+
+  /**
+   * Sets the server to connect to next: a host, or the Unix domain
+   * socket of a server on this machine if prefixed with unix:.
+   *
+   * @param host The host, or unix:<path>.
+   */
+  private void setServer(String host)
+  {
+    setHost(host);
+    setUnixSocketPath(host.startsWith(UNIX_PREFIX)
+      ? Path.of(host.substring(UNIX_PREFIX.length())) : null);
+  }
 }
 //End of ChatClient class
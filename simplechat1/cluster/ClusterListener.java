@@ -0,0 +1,48 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package cluster;
+
+/**
+ * A <code> ClusterListener </code> is told by a <code>ClusterNode</code>
+ * of the broadcasts made on the other nodes of its cluster, so that it
+ * can deliver them to its own clients in the same chat room, of the
+ * messages sent from them to its own users, and of the users logged
+ * in on two nodes at once.
+ *
+ * Project Name: OCSF (Object Client-Server Framework)<p>
+ */
+public interface ClusterListener
+{
+  /**
+   * Delivers a broadcast relayed from another node. Called once per
+   * broadcast, by the thread of the link it arrived on.
+   *
+   * @param origin the ID of the node where the broadcast was made.
+   * @param room the chat room the message was sent to.
+   * @param msg the message broadcast.
+   */
+  void relayReceived(String origin, String room, Object msg);
+
+  /**
+   * Delivers a message sent from another node to a user of this one.
+   * Called by the thread of the link it arrived on.
+   *
+   * @param origin the ID of the node where the message was sent.
+   * @param loginId the login ID of the user.
+   * @param msg the message.
+   */
+  void directReceived(String origin, String loginId, Object msg);
+
+  /**
+   * Tells that a user of this node also logged in on another node,
+   * whose ID is lower, and keeps the login ID: the user must be logged
+   * out here. Called by the thread of the link the news arrived on,
+   * once per conflict.
+   *
+   * @param loginId the login ID of the user.
+   * @param winner the ID of the node that keeps the user.
+   */
+  void loginLost(String loginId, String winner);
+}
+//End of ClusterListener interface
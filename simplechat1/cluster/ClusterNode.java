@@ -0,0 +1,938 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package cluster;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import ocsf.metrics.Counter;
+import ocsf.server.*;
+
+/**
+ * A <code> ClusterNode </code> links a chat server to the other servers
+ * of a cluster, so that a message sent to a chat room on any of them
+ * reaches the members of the room on all of them.<p>
+ *
+ * Each node listens on a cluster port of its own, separate from the
+ * port of its clients, and opens a <code>PeerLink</code> to the
+ * cluster port of each peer it is given. Links carry messages both
+ * ways, so it is enough for one of two nodes to know the other, but
+ * every node must be linked to every other one.<p>
+ *
+ * The cluster port is bound to one interface, the loopback one unless
+ * another is given, and the nodes of a cluster share a key. Both sides
+ * of a link prove that they hold it before they introduce themselves
+ * (see <code>PeerLink</code>); a connection that sends anything else
+ * first, or a wrong proof, is closed, so that a host that can reach
+ * the port cannot relay messages or fake presence.<p>
+ *
+ * Each room is owned by one node, chosen by consistent hashing of the
+ * room's name over the nodes currently linked (see
+ * <code>HashRing</code>). A node with local members in a room
+ * subscribes to the room at its owner. A message sent to the room is
+ * relayed to the owner, which fans it out to the subscribed nodes
+ * only, so cluster traffic grows with the number of nodes that have
+ * members in the room, not with the size of the cluster. When nodes
+ * join or leave, rooms change owner and every node subscribes again
+ * to its rooms at their new owners.<p>
+ *
+ * Each relay is numbered by its origin node, and nodes drop those they
+ * have already seen, so that a relay that reaches a node twice while
+ * the owners change is delivered once.<p>
+ *
+ * Every node also keeps a <code>PresenceDirectory</code> of the users
+ * logged in on the cluster, which it updates with the deltas the
+ * other nodes send as their users log in and out, and with the
+ * snapshots they send when they join. A message for one user is sent
+ * straight to the node the directory gives for the user. A user who
+ * manages to log in on two nodes at once is kept by the node with
+ * the lowest ID, and logged out of the other.<p>
+ *
+ * Project Name: OCSF (Object Client-Server Framework)<p>
+ */
+public class ClusterNode extends AbstractServer
+{
+  //Class variables *************************************************
+
+  /**
+   * The delay before a lost link is reopened, in ms.
+   */
+  private static final int RECONNECT_DELAY = 2000;
+
+  //Instance variables **********************************************
+
+  /**
+   * The ID of this node, unique in the cluster.
+   */
+  private final String nodeId;
+
+  /**
+   * The key shared by the nodes of the cluster.
+   */
+  private final byte[] key;
+
+  /**
+   * Distinguishes this run of the node from the previous ones.
+   */
+  private final long incarnation = System.currentTimeMillis();
+
+  /**
+   * The number of the last relay made by this node.
+   */
+  private final AtomicLong sequence = new AtomicLong();
+
+  /**
+   * Recognizes the relays already delivered.
+   */
+  private final DuplicateFilter filter = new DuplicateFilter();
+
+  /**
+   * The links this node opened.
+   */
+  private final List<PeerLink> links = new CopyOnWriteArrayList<>();
+
+  /**
+   * The links other nodes opened to this one, once they have
+   * introduced themselves. Kept here rather than read from the
+   * server, whose monitor the chat server's threads must not need
+   * when they publish: this node's threads hold it while they deliver
+   * relays to the chat server.
+   */
+  private final List<ConnectionToClient> inbound = new CopyOnWriteArrayList<>();
+
+  /**
+   * The ring assigning rooms to the nodes currently linked. Replaced,
+   * under ringLock, whenever they change.
+   */
+  private volatile HashRing ring;
+
+  /**
+   * Lock serializing the changes of the ring.
+   */
+  private final Object ringLock = new Object();
+
+  /**
+   * The nodes subscribed to each room this node owns.
+   */
+  private final ConcurrentHashMap<String,Set<String>> subscribers =
+    new ConcurrentHashMap<>();
+
+  /**
+   * The number of local members of each room. Guarded by itself, which
+   * also keeps the subscriptions of a room in order.
+   */
+  private final HashMap<String,Integer> localRooms = new HashMap<>();
+
+  /**
+   * The users logged in on the cluster.
+   */
+  private final PresenceDirectory presence;
+
+  /**
+   * Delivers relays to the chat server.
+   */
+  private final ClusterListener listener;
+
+  /**
+   * Reopens lost links.
+   */
+  private final ScheduledExecutorService reconnector =
+    Executors.newSingleThreadScheduledExecutor(task ->
+      {
+        Thread thread = new Thread(task, "cluster reconnector");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  /**
+   * Set once the node has been shut down.
+   */
+  private volatile boolean shutDown = false;
+
+  /**
+   * Messages sent to a room on this node and relayed to the cluster.
+   */
+  private final Counter published = getMetrics().counter(
+    "cluster_relays_published_total", "Room messages relayed to the cluster");
+
+  /**
+   * Relays from other nodes delivered to this node's clients.
+   */
+  private final Counter delivered = getMetrics().counter(
+    "cluster_relays_delivered_total", "Relays delivered to local clients");
+
+  /**
+   * Connections closed because they did not prove they hold the key.
+   */
+  private final Counter refused = getMetrics().counter(
+    "cluster_links_refused_total",
+    "Cluster connections closed for lack of a valid introduction");
+
+  /**
+   * Relays sent by this node, as owner of their room, to the nodes
+   * subscribed to it.
+   */
+  private final Counter fannedOut = getMetrics().counter(
+    "cluster_relays_fanned_out_total",
+    "Relays sent by room owners to subscribed nodes");
+
+  /**
+   * Relays sent to every node because the room's owner could not be
+   * reached.
+   */
+  private final Counter fallbacks = getMetrics().counter(
+    "cluster_relay_fallbacks_total",
+    "Relays sent to every node because the room owner was unreachable");
+
+  /**
+   * Relays received again and dropped.
+   */
+  private final Counter duplicates = getMetrics().counter(
+    "cluster_relays_duplicate_total", "Relays received more than once");
+
+  /**
+   * Presence updates received from other nodes.
+   */
+  private final Counter presenceUpdates = getMetrics().counter(
+    "cluster_presence_updates_total", "Presence updates received from other nodes");
+
+  /**
+   * Users of this node logged out because a node with a lower ID has
+   * them too.
+   */
+  private final Counter loginConflicts = getMetrics().counter(
+    "cluster_login_conflicts_total",
+    "Users logged out because they also logged in on a node with a lower ID");
+
+  /**
+   * Snapshots asked for after a presence delta was missed.
+   */
+  private final Counter presenceResyncs = getMetrics().counter(
+    "cluster_presence_resyncs_total",
+    "Presence snapshots requested after a missed delta");
+
+  /**
+   * Messages for one user sent to the node the user is on.
+   */
+  private final Counter directSent = getMetrics().counter(
+    "cluster_direct_messages_sent_total", "Direct messages sent to other nodes");
+
+  /**
+   * Messages for one user received from other nodes.
+   */
+  private final Counter directDelivered = getMetrics().counter(
+    "cluster_direct_messages_delivered_total",
+    "Direct messages received from other nodes");
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs a node, which is not listening yet.
+   *
+   * @param nodeId the ID of the node, unique in the cluster.
+   * @param host the interface to bind the cluster port to, or null
+   *  for the loopback interface.
+   * @param port the cluster port.
+   * @param key the key shared by the nodes of the cluster.
+   * @param listener delivers relays to the chat server.
+   * @exception IllegalArgumentException if the key is empty.
+   */
+  public ClusterNode(String nodeId, String host, int port, String key,
+    ClusterListener listener)
+  {
+    super(port);
+    if (key == null || key.isEmpty())
+      throw new IllegalArgumentException("the cluster key is empty");
+    setHost(host != null ? host
+      : InetAddress.getLoopbackAddress().getHostAddress());
+    this.nodeId = nodeId;
+    this.key = key.getBytes(StandardCharsets.UTF_8);
+    this.listener = listener;
+    this.presence = new PresenceDirectory(nodeId, incarnation);
+    this.ring = new HashRing(Collections.singleton(nodeId));
+    getMetrics().gauge("cluster_nodes", "Nodes in the cluster, this one included",
+      () -> ring.getNodes().size());
+    getMetrics().gauge("cluster_subscriptions",
+      "Node subscriptions to the rooms this node owns",
+      () -> subscribers.values().stream().mapToLong(Set::size).sum());
+    getMetrics().gauge("cluster_presence_users",
+      "Users logged in on the cluster, as known to this node", presence::size);
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * @return the ID of this node.
+   */
+  public String getNodeId()
+  {
+    return nodeId;
+  }
+
+  /**
+   * Returns the node that owns a room.
+   *
+   * @param room the room.
+   * @return the ID of its owner.
+   */
+  public String getOwner(String room)
+  {
+    return ring.owner(room);
+  }
+
+  /**
+   * Relays a message sent to a room on this node to the members of
+   * the room on the other nodes.
+   *
+   * @param room the room.
+   * @param msg the message.
+   */
+  public void publish(String room, Object msg)
+  {
+    RelayMessage relay = new RelayMessage(nodeId, incarnation,
+      sequence.incrementAndGet(), room, msg);
+    published.increment();
+
+    String owner = ring.owner(room);
+    if (owner.equals(nodeId))
+    {
+      fanOut(relay);
+    }
+    else if (!send(owner, relay))
+    {
+      // Lost in the meantime: nodes without members drop the relay
+      fallbacks.increment();
+      for (String node : ring.getNodes())
+      {
+        if (!node.equals(nodeId))
+          send(node, relay.fanOut());
+      }
+    }
+  }
+
+  /**
+   * Records that a local client joined a room. The node subscribes to
+   * the room when it gains its first local member.
+   *
+   * @param room the room.
+   */
+  public void memberJoined(String room)
+  {
+    synchronized (localRooms)
+    {
+      if (localRooms.merge(room, 1, Integer::sum) == 1)
+        subscribe(room, true);
+    }
+  }
+
+  /**
+   * Records that a local client left a room. The node unsubscribes
+   * from the room when it loses its last local member.
+   *
+   * @param room the room.
+   */
+  public void memberLeft(String room)
+  {
+    synchronized (localRooms)
+    {
+      Integer count = localRooms.get(room);
+      if (count == null)
+        return;
+      if (count > 1)
+      {
+        localRooms.put(room, count - 1);
+        return;
+      }
+      localRooms.remove(room);
+      subscribe(room, false);
+    }
+  }
+
+  /**
+   * Records that a user logged in on this node, and tells the other
+   * nodes.
+   *
+   * @param loginId the user's login ID.
+   */
+  public void loggedIn(String loginId)
+  {
+    synchronized (presence)
+    {
+      sendToAllNodes(presence.loggedIn(loginId));
+    }
+  }
+
+  /**
+   * Records that a user logged out of this node, and tells the other
+   * nodes.
+   *
+   * @param loginId the user's login ID.
+   */
+  public void loggedOut(String loginId)
+  {
+    synchronized (presence)
+    {
+      sendToAllNodes(presence.loggedOut(loginId));
+    }
+  }
+
+  /**
+   * Finds the node a user is logged in on, this one included, without
+   * asking the other nodes.
+   *
+   * @param loginId the user's login ID.
+   * @return the node's ID, or null if the user is not logged in.
+   */
+  public String locate(String loginId)
+  {
+    return presence.locate(loginId);
+  }
+
+  /**
+   * @return the number of users logged in on the cluster.
+   */
+  public int getUserCount()
+  {
+    return presence.size();
+  }
+
+  /**
+   * Sends a message to a user logged in on another node.
+   *
+   * @param loginId the user's login ID.
+   * @param msg the message.
+   * @return false if the user is not logged in on another node, or
+   *  the node cannot be reached.
+   */
+  public boolean sendDirect(String loginId, Object msg)
+  {
+    String node = presence.locate(loginId);
+    if (node == null || node.equals(nodeId)
+      || !send(node, new DirectMessage(nodeId, loginId, msg)))
+      return false;
+    directSent.increment();
+    return true;
+  }
+
+  /**
+   * Links this node to a peer. The link is reopened whenever it is
+   * lost, until the node shuts down.
+   *
+   * @param host the peer's host name.
+   * @param port the peer's cluster port.
+   */
+  public void connectPeer(String host, int port)
+  {
+    PeerLink link = new PeerLink(this, host, port);
+    links.add(link);
+    reconnector.execute(() -> open(link));
+  }
+
+  /**
+   * Returns a description of the links of this node.
+   *
+   * @return one line per link.
+   */
+  public List<String> describePeers()
+  {
+    List<String> peers = new ArrayList<>();
+    for (PeerLink link : links)
+      peers.add("to " + link.getPeerId() + " at " + link
+        + (link.isReady() ? "" : " (connecting)"));
+    for (ConnectionToClient connection : inbound)
+      peers.add("from " + connection.getInfo("nodeId") + " at " + connection);
+    return peers;
+  }
+
+  /**
+   * Returns a description of the rooms with local members.
+   *
+   * @return one line per room.
+   */
+  public List<String> describeRooms()
+  {
+    List<String> rooms = new ArrayList<>();
+    synchronized (localRooms)
+    {
+      for (Map.Entry<String,Integer> room : new TreeMap<>(localRooms).entrySet())
+      {
+        String owner = ring.owner(room.getKey());
+        Set<String> nodes = subscribers.get(room.getKey());
+        rooms.add(room.getKey() + ": " + room.getValue() + " local member(s), owner "
+          + owner + (owner.equals(nodeId) ? ", subscribers " + nodes : ""));
+      }
+    }
+    return rooms;
+  }
+
+  /**
+   * Closes the links and the cluster port.
+   */
+  public void shutdown()
+  {
+    shutDown = true;
+    reconnector.shutdownNow();
+    for (PeerLink link : links)
+    {
+      try
+      {
+        link.closeConnection();
+      }
+      catch (IOException e) {}
+    }
+    try
+    {
+      close();
+    }
+    catch (IOException e) {}
+  }
+
+  /**
+   * Challenges a new connection to prove that it holds the cluster key.
+   *
+   * @param client the connection.
+   */
+  protected void clientConnected(ConnectionToClient client)
+  {
+    String challenge = PeerLink.newChallenge();
+    client.setInfo("challenge", challenge);
+    try
+    {
+      client.sendToClient(PeerLink.CHALLENGE + challenge);
+    }
+    catch (IOException e) {}
+  }
+
+  /**
+   * Handles the introductions, subscriptions and relays of the nodes
+   * linked to this one.
+   *
+   * @param msg the message from the peer.
+   * @param client the peer's link.
+   */
+  protected void handleMessageFromClient(Object msg, ConnectionToClient client)
+  {
+    if (client.getInfo("nodeId") == null)
+    {
+      introductionReceived(msg, client);
+      return;
+    }
+
+    if (msg instanceof RelayMessage)
+    {
+      relayReceived((RelayMessage)msg);
+    }
+    else if (msg instanceof RoomSubscription)
+    {
+      subscriptionReceived((RoomSubscription)msg);
+    }
+    else if (msg instanceof PresenceUpdate)
+    {
+      presenceReceived((PresenceUpdate)msg);
+    }
+    else if (msg instanceof DirectMessage)
+    {
+      directReceived((DirectMessage)msg);
+    }
+    else if (msg instanceof String && ((String)msg).startsWith(PeerLink.SYNC))
+    {
+      syncRequested(((String)msg).substring(PeerLink.SYNC.length()));
+    }
+  }
+
+  /**
+   * Answers the challenge of a node that opened a link to this one,
+   * and checks its introduction. The connection is closed if it sends
+   * anything else or a wrong proof.
+   *
+   * @param msg a message received before the node's introduction.
+   * @param client the connection.
+   */
+  private void introductionReceived(Object msg, ConnectionToClient client)
+  {
+    String text = msg instanceof String ? (String)msg : "";
+    if (text.startsWith(PeerLink.CHALLENGE))
+    {
+      try
+      {
+        client.sendToClient(introduction(PeerLink.NODE_ROLE,
+          text.substring(PeerLink.CHALLENGE.length())));
+      }
+      catch (IOException e) {}
+      return;
+    }
+
+    String id = verifyIntroduction(text, PeerLink.LINK_ROLE,
+      (String)client.getInfo("challenge"));
+    if (id != null)
+    {
+      client.setInfo("nodeId", id);
+      inbound.add(client);
+      membershipChanged();
+      return;
+    }
+
+    refused.increment();
+    try
+    {
+      client.close();
+    }
+    catch (IOException e) {}
+  }
+
+  /**
+   * Makes the introduction of this node, answering a challenge.
+   *
+   * @param role the role of this node on the link.
+   * @param challenge the challenge of the other side.
+   * @return the introduction.
+   */
+  String introduction(String role, String challenge)
+  {
+    return PeerLink.HELLO + nodeId + " "
+      + PeerLink.prove(key, role, challenge, nodeId);
+  }
+
+  /**
+   * Checks the introduction of another node.
+   *
+   * @param msg the message received.
+   * @param role the role of the other node on the link.
+   * @param challenge the challenge sent to it, or null if none was.
+   * @return the ID of the node, or null if the message is not an
+   *  introduction or its proof is wrong.
+   */
+  String verifyIntroduction(String msg, String role, String challenge)
+  {
+    int space = msg.lastIndexOf(' ');
+    if (challenge == null || !msg.startsWith(PeerLink.HELLO)
+      || space < PeerLink.HELLO.length())
+      return null;
+
+    String id = msg.substring(PeerLink.HELLO.length(), space);
+    byte[] expected = PeerLink.prove(key, role, challenge, id)
+      .getBytes(StandardCharsets.UTF_8);
+    byte[] proof = msg.substring(space + 1).getBytes(StandardCharsets.UTF_8);
+    return id.isEmpty() || id.equals(nodeId)
+      || !MessageDigest.isEqual(expected, proof) ? null : id;
+  }
+
+  /**
+   * Forgets the link of a node that disconnected.
+   *
+   * @param client the link.
+   */
+  protected void clientDisconnected(ConnectionToClient client)
+  {
+    if (inbound.remove(client))
+      membershipChanged();
+  }
+
+  /**
+   * Forgets the link of a node that was lost.
+   *
+   * @param client the link.
+   * @param exception the exception raised.
+   */
+  protected void clientException(ConnectionToClient client, Throwable exception)
+  {
+    if (inbound.remove(client))
+      membershipChanged();
+  }
+
+  /**
+   * Delivers a relay to the chat server if the room has local members,
+   * and fans it out if this node received it as the room's owner.
+   *
+   * @param relay the relay received.
+   */
+  void relayReceived(RelayMessage relay)
+  {
+    if (relay.getOrigin().equals(nodeId) || !filter.accept(relay))
+    {
+      duplicates.increment();
+      return;
+    }
+
+    if (hasLocalMembers(relay.getRoom()))
+    {
+      delivered.increment();
+      listener.relayReceived(relay.getOrigin(), relay.getRoom(),
+        relay.getMessage());
+    }
+    if (!relay.isFannedOut())
+      fanOut(relay);
+  }
+
+  /**
+   * Applies a presence update from another node, and asks the node for
+   * a snapshot if a delta was missed. The listener is told of the users
+   * of this node that the update shows to be kept by a node with a
+   * lower ID.
+   *
+   * @param update the update.
+   */
+  void presenceReceived(PresenceUpdate update)
+  {
+    presenceUpdates.increment();
+    List<String> lost = new ArrayList<>();
+    if (!presence.apply(update, lost))
+    {
+      presenceResyncs.increment();
+      send(update.getOrigin(), PeerLink.SYNC + nodeId);
+    }
+
+    // Outside the directory's lock, which logging the users out takes
+    for (String loginId : lost)
+    {
+      loginConflicts.increment();
+      listener.loginLost(loginId, update.getOrigin());
+    }
+  }
+
+  /**
+   * Sends a snapshot of the users of this node to a node that asked
+   * for one.
+   *
+   * @param node the node's ID.
+   */
+  void syncRequested(String node)
+  {
+    synchronized (presence)
+    {
+      send(node, presence.snapshot());
+    }
+  }
+
+  /**
+   * Delivers a message for one user to the chat server.
+   *
+   * @param message the message received.
+   */
+  void directReceived(DirectMessage message)
+  {
+    directDelivered.increment();
+    listener.directReceived(message.getOrigin(), message.getLoginId(),
+      message.getMessage());
+  }
+
+  /**
+   * Records a node's subscription to a room this node owns.
+   *
+   * @param subscription the subscription.
+   */
+  void subscriptionReceived(RoomSubscription subscription)
+  {
+    subscribers.compute(subscription.getRoom(), (room, nodes) ->
+      {
+        if (subscription.isSubscribe())
+        {
+          if (nodes == null)
+            nodes = ConcurrentHashMap.newKeySet();
+          nodes.add(subscription.getNode());
+        }
+        else if (nodes != null)
+        {
+          nodes.remove(subscription.getNode());
+        }
+        return nodes == null || nodes.isEmpty() ? null : nodes;
+      });
+  }
+
+  /**
+   * Rebuilds the ring after a node joined or left. Subscriptions of
+   * nodes that left, and of rooms this node no longer owns, are
+   * dropped; this node then subscribes again to its rooms, at their
+   * new owners. The users of nodes that left are forgotten, and the
+   * nodes that joined are sent a snapshot of the users of this one.
+   */
+  void membershipChanged()
+  {
+    Set<String> joined;
+    synchronized (ringLock)
+    {
+      Set<String> members = new TreeSet<>();
+      members.add(nodeId);
+      for (PeerLink link : links)
+      {
+        if (link.isReady())
+          members.add(link.getPeerId());
+      }
+      for (ConnectionToClient connection : inbound)
+        members.add((String)connection.getInfo("nodeId"));
+
+      if (members.equals(ring.getNodes()))
+        return;
+      joined = new TreeSet<>(members);
+      joined.removeAll(ring.getNodes());
+      HashRing newRing = new HashRing(members);
+      ring = newRing;
+      presence.retainNodes(members);
+
+      subscribers.keySet().removeIf(room -> !newRing.owner(room).equals(nodeId));
+      for (Set<String> nodes : subscribers.values())
+        nodes.retainAll(members);
+    }
+
+    synchronized (localRooms)
+    {
+      for (String room : localRooms.keySet())
+        subscribe(room, true);
+    }
+
+    synchronized (presence)
+    {
+      PresenceUpdate snapshot = presence.snapshot();
+      for (String node : joined)
+        send(node, snapshot);
+    }
+  }
+
+  /**
+   * Sends the relays of a room this node owns to the nodes subscribed
+   * to it, except the origin.
+   *
+   * @param relay the relay.
+   */
+  private void fanOut(RelayMessage relay)
+  {
+    Set<String> nodes = subscribers.get(relay.getRoom());
+    if (nodes == null)
+      return;
+
+    RelayMessage copy = relay.fanOut();
+    for (String node : nodes)
+    {
+      if (!node.equals(relay.getOrigin()) && !node.equals(nodeId)
+        && send(node, copy))
+        fannedOut.increment();
+    }
+  }
+
+  /**
+   * Tells the owner of a room that this node subscribes to it or not.
+   * The owner needs no subscription of its own. Called with the lock
+   * of localRooms held.
+   *
+   * @param room the room.
+   * @param subscribe true to subscribe.
+   */
+  private void subscribe(String room, boolean subscribe)
+  {
+    String owner = ring.owner(room);
+    if (!owner.equals(nodeId))
+      send(owner, new RoomSubscription(room, nodeId, subscribe));
+  }
+
+  /**
+   * Sends a presence delta to every other node in the ring. Called
+   * with the lock of the presence directory held, so that the deltas
+   * leave in the order of their versions.
+   *
+   * @param delta the delta, or null if there is none.
+   */
+  private void sendToAllNodes(PresenceUpdate delta)
+  {
+    if (delta == null)
+      return;
+    for (String node : ring.getNodes())
+    {
+      if (!node.equals(nodeId))
+        send(node, delta);
+    }
+  }
+
+  /**
+   * Returns true if a room has local members.
+   *
+   * @param room the room.
+   */
+  private boolean hasLocalMembers(String room)
+  {
+    synchronized (localRooms)
+    {
+      return localRooms.containsKey(room);
+    }
+  }
+
+  /**
+   * Sends a message to a node, on a link opened by either side.
+   *
+   * @param node the node's ID.
+   * @param msg the message.
+   * @return false if the node is not linked or the write failed.
+   */
+  private boolean send(String node, Object msg)
+  {
+    try
+    {
+      for (PeerLink link : links)
+      {
+        if (link.isReady() && node.equals(link.getPeerId()))
+        {
+          link.sendToServer(msg);
+          return true;
+        }
+      }
+      for (ConnectionToClient connection : inbound)
+      {
+        if (node.equals(connection.getInfo("nodeId")))
+        {
+          connection.sendToClient(msg);
+          return true;
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      // The reading thread will notice the broken link
+    }
+    return false;
+  }
+
+  /**
+   * Opens a link, or tries again later.
+   *
+   * @param link the link.
+   */
+  private void open(PeerLink link)
+  {
+    if (shutDown)
+      return;
+    try
+    {
+      link.openConnection();
+    }
+    catch (IOException e)
+    {
+      linkLost(link);
+    }
+  }
+
+  /**
+   * Updates the ring and schedules the reopening of a lost link.
+   *
+   * @param link the link.
+   */
+  void linkLost(PeerLink link)
+  {
+    if (shutDown)
+      return;
+    membershipChanged();
+    try
+    {
+      reconnector.schedule(() -> open(link), RECONNECT_DELAY,
+        TimeUnit.MILLISECONDS);
+    }
+    catch (RejectedExecutionException e)
+    {
+      // Shut down in the meantime
+    }
+  }
+}
+//End of ClusterNode class
@@ -0,0 +1,76 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package cluster;
+
+import java.io.Serializable;
+
+/**
+ * A <code> DirectMessage </code> carries a message for one user from
+ * the node where it was sent to the node the user is logged in on, as
+ * found in the presence directory.
+ *
+ * Project Name: OCSF (Object Client-Server Framework)<p>
+ */
+public final class DirectMessage implements Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The ID of the node where the message was sent.
+   */
+  private final String origin;
+
+  /**
+   * The login ID of the user the message is for.
+   */
+  private final String loginId;
+
+  /**
+   * The message.
+   */
+  private final Object message;
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs a direct message.
+   *
+   * @param origin the ID of the node where the message was sent.
+   * @param loginId the login ID of the user the message is for.
+   * @param message the message.
+   */
+  public DirectMessage(String origin, String loginId, Object message)
+  {
+    this.origin = origin;
+    this.loginId = loginId;
+    this.message = message;
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * @return the ID of the node where the message was sent.
+   */
+  public String getOrigin()
+  {
+    return origin;
+  }
+
+  /**
+   * @return the login ID of the user the message is for.
+   */
+  public String getLoginId()
+  {
+    return loginId;
+  }
+
+  /**
+   * @return the message.
+   */
+  public Object getMessage()
+  {
+    return message;
+  }
+}
+//End of DirectMessage class
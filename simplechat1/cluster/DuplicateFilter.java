@@ -0,0 +1,100 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package cluster;
+
+import java.util.HashMap;
+
+/**
+ * A <code> DuplicateFilter </code> recognizes the relays a node has
+ * already seen. For each origin it keeps the highest sequence number
+ * seen and a bit mask of the 64 numbers below it, like the replay
+ * window of IPsec: relays arriving by different paths may overtake
+ * each other a little, but a relay more than 64 numbers behind the
+ * newest one from its origin is taken as a duplicate.
+ *
+ * Project Name: OCSF (Object Client-Server Framework)<p>
+ */
+class DuplicateFilter
+{
+  //Instance variables **********************************************
+
+  /**
+   * The window of each origin, by node ID. Guarded by this filter.
+   */
+  private final HashMap<String,Window> windows = new HashMap<>();
+
+  //Instance methods ************************************************
+
+  /**
+   * Records a relay, and tells if it had been seen before.
+   *
+   * @param relay the relay received.
+   * @return true if the relay is new.
+   */
+  synchronized boolean accept(RelayMessage relay)
+  {
+    Window window = windows.get(relay.getOrigin());
+    if (window == null || relay.getIncarnation() > window.incarnation)
+    {
+      // First relay from this run of the origin
+      window = new Window(relay.getIncarnation(), relay.getSequence());
+      windows.put(relay.getOrigin(), window);
+      return true;
+    }
+    if (relay.getIncarnation() < window.incarnation)
+      return false;
+
+    long sequence = relay.getSequence();
+    if (sequence > window.highest)
+    {
+      // The previous highest number moves into the mask
+      long shift = sequence - window.highest;
+      if (shift > 64)
+        window.seen = 0;
+      else
+        window.seen = (shift == 64 ? 0 : window.seen << shift) | 1L << (shift - 1);
+      window.highest = sequence;
+      return true;
+    }
+
+    long behind = window.highest - sequence;
+    if (behind == 0 || behind > 64)
+      return false;
+    long bit = 1L << (behind - 1);
+    if ((window.seen & bit) != 0)
+      return false;
+    window.seen |= bit;
+    return true;
+  }
+
+  //Inner classes ***************************************************
+
+  /**
+   * The relays seen from one origin.
+   */
+  private static class Window
+  {
+    /**
+     * The run of the origin.
+     */
+    final long incarnation;
+
+    /**
+     * The highest sequence number seen.
+     */
+    long highest;
+
+    /**
+     * Bit n is set if the number highest - n - 1 was seen.
+     */
+    long seen;
+
+    Window(long incarnation, long highest)
+    {
+      this.incarnation = incarnation;
+      this.highest = highest;
+    }
+  }
+}
+//End of DuplicateFilter class
@@ -0,0 +1,111 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * A <code> HashRing </code> assigns keys, such as room names, to the
+ * nodes of a cluster by consistent hashing. Each node is placed at
+ * many points of a ring of 64-bit hashes, and a key belongs to the
+ * node at the first point after the key's own hash. When a node joins
+ * or leaves, only the keys next to its points change owner, about
+ * one in n of them, and the virtual points keep the share of each
+ * node close to even.<p>
+ *
+ * Rings are immutable; nodes build the same ring from the same set of
+ * node IDs, since the hash does not depend on the JVM.
+ *
+ * Project Name: OCSF (Object Client-Server Framework)<p>
+ */
+class HashRing
+{
+  //Class variables *************************************************
+
+  /**
+   * The number of points of each node on the ring.
+   */
+  private static final int VIRTUAL_NODES = 128;
+
+  //Instance variables **********************************************
+
+  /**
+   * The node IDs, by point.
+   */
+  private final TreeMap<Long,String> points = new TreeMap<>();
+
+  /**
+   * The node IDs.
+   */
+  private final Set<String> nodes;
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs the ring of a set of nodes.
+   *
+   * @param nodes the node IDs; there must be at least one.
+   */
+  HashRing(Collection<String> nodes)
+  {
+    this.nodes = Collections.unmodifiableSet(new TreeSet<>(nodes));
+    for (String node : this.nodes)
+    {
+      for (int i=0; i<VIRTUAL_NODES; i++)
+        points.put(hash(node + "#" + i), node);
+    }
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * Returns the node that owns a key.
+   *
+   * @param key the key.
+   * @return the owner's ID.
+   */
+  String owner(String key)
+  {
+    Map.Entry<Long,String> point = points.ceilingEntry(hash(key));
+    return point != null ? point.getValue() : points.firstEntry().getValue();
+  }
+
+  /**
+   * @return the IDs of the nodes on the ring, sorted.
+   */
+  Set<String> getNodes()
+  {
+    return nodes;
+  }
+
+  //Class methods ***************************************************
+
+  /**
+   * Hashes a string to a point of the ring: the first 8 bytes of its
+   * MD5 digest, which are evenly spread.
+   *
+   * @param s the string.
+   * @return the point.
+   */
+  private static long hash(String s)
+  {
+    try
+    {
+      byte[] digest = MessageDigest.getInstance("MD5")
+        .digest(s.getBytes(StandardCharsets.UTF_8));
+      long h = 0;
+      for (int i=0; i<8; i++)
+        h = h << 8 | (digest[i] & 0xff);
+      return h;
+    }
+    catch (NoSuchAlgorithmException e)
+    {
+      throw new IllegalStateException(e); // every JVM provides MD5
+    }
+  }
+}
+//End of HashRing class
@@ -0,0 +1,277 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package cluster;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.Base64;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import ocsf.client.AbstractClient;
+
+/**
+ * A <code> PeerLink </code> is the connection a cluster node opens to
+ * another node's cluster port. The nodes introduce themselves to each
+ * other first; then relays and subscriptions travel both ways: the
+ * other node writes to its <code>ConnectionToClient</code> what this
+ * node writes with <code>sendToServer</code>. A lost link is reopened
+ * by its node.<p>
+ *
+ * Each side proves that it holds the cluster key before the other
+ * accepts anything from it: it sends a random challenge, and the
+ * other side's introduction carries an HMAC-SHA256, under the key, of
+ * the challenge, its role and its ID. A side that sends anything else
+ * first, or a wrong proof, is disconnected.
+ *
+ * Project Name: OCSF (Object Client-Server Framework)<p>
+ */
+class PeerLink extends AbstractClient
+{
+  //Class variables *************************************************
+
+  /**
+   * The command with which a node introduces itself to a peer.
+   */
+  static final String HELLO = "#node ";
+
+  /**
+   * The command with which a node asks a peer for a snapshot of the
+   * users logged in on it.
+   */
+  static final String SYNC = "#presence ";
+
+  /**
+   * The command with which each side of a link sends the challenge the
+   * other must answer in its introduction.
+   */
+  static final String CHALLENGE = "#challenge ";
+
+  /**
+   * The role of the node that opened a link, in its proofs.
+   */
+  static final String LINK_ROLE = "link";
+
+  /**
+   * The role of the node that accepted a link, in its proofs.
+   */
+  static final String NODE_ROLE = "node";
+
+  /**
+   * The source of challenges.
+   */
+  private static final SecureRandom random = new SecureRandom();
+
+  //Instance variables **********************************************
+
+  /**
+   * The node that opened the link.
+   */
+  private final ClusterNode node;
+
+  /**
+   * The ID of the peer, once it has answered the introduction.
+   */
+  private volatile String peerId;
+
+  /**
+   * Set while the link is open and the peer has answered.
+   */
+  private volatile boolean ready = false;
+
+  /**
+   * The challenge sent to the peer on the current connection.
+   */
+  private volatile String challenge;
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs a link, which is not opened yet.
+   *
+   * @param node the node opening the link.
+   * @param host the peer's host name.
+   * @param port the peer's cluster port.
+   */
+  PeerLink(ClusterNode node, String host, int port)
+  {
+    super(host, port);
+    this.node = node;
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * Challenges the peer to prove that it holds the cluster key.
+   */
+  protected void connectionEstablished()
+  {
+    try
+    {
+      challenge = newChallenge();
+      sendToServer(CHALLENGE + challenge);
+    }
+    catch (IOException e)
+    {
+      // The reading thread will notice the broken connection
+    }
+  }
+
+  /**
+   * Passes the answer, subscriptions, relays, presence updates and
+   * direct messages of the peer to the node.
+   *
+   * @param msg the message from the peer.
+   */
+  protected void handleMessageFromServer(Object msg)
+  {
+    if (!ready)
+    {
+      introductionReceived(msg);
+      return;
+    }
+
+    if (msg instanceof RelayMessage)
+    {
+      node.relayReceived((RelayMessage)msg);
+    }
+    else if (msg instanceof RoomSubscription)
+    {
+      node.subscriptionReceived((RoomSubscription)msg);
+    }
+    else if (msg instanceof PresenceUpdate)
+    {
+      node.presenceReceived((PresenceUpdate)msg);
+    }
+    else if (msg instanceof DirectMessage)
+    {
+      node.directReceived((DirectMessage)msg);
+    }
+    else if (msg instanceof String && ((String)msg).startsWith(SYNC))
+    {
+      node.syncRequested(((String)msg).substring(SYNC.length()));
+    }
+  }
+
+  /**
+   * Answers the peer's challenge, and checks its introduction. The link
+   * is dropped, and opened again later, if the peer sends anything
+   * else or a wrong proof.
+   *
+   * @param msg a message received before the peer's introduction.
+   */
+  private void introductionReceived(Object msg)
+  {
+    String text = msg instanceof String ? (String)msg : "";
+    if (text.startsWith(CHALLENGE))
+    {
+      try
+      {
+        sendToServer(node.introduction(LINK_ROLE,
+          text.substring(CHALLENGE.length())));
+      }
+      catch (IOException e) {}
+      return;
+    }
+
+    String id = node.verifyIntroduction(text, NODE_ROLE, challenge);
+    if (id != null)
+    {
+      peerId = id;
+      ready = true;
+      node.membershipChanged();
+      return;
+    }
+
+    try
+    {
+      closeConnection();
+    }
+    catch (IOException e) {}
+    node.linkLost(this);
+  }
+
+  /**
+   * Has the node reopen the link.
+   *
+   * @param exception the exception raised.
+   */
+  protected void connectionException(Exception exception)
+  {
+    ready = false;
+    node.linkLost(this);
+  }
+
+  /**
+   * Marks the link as closed.
+   */
+  protected void connectionClosed()
+  {
+    ready = false;
+  }
+
+  /**
+   * @return the ID of the peer, or null before it first answered.
+   */
+  String getPeerId()
+  {
+    return peerId;
+  }
+
+  /**
+   * @return true if the link is open and the peer has answered.
+   */
+  boolean isReady()
+  {
+    return ready;
+  }
+
+  /**
+   * @return the peer's address.
+   */
+  public String toString()
+  {
+    return getHost() + ":" + getPort();
+  }
+
+  //Class methods ***************************************************
+
+  /**
+   * @return a new random challenge.
+   */
+  static String newChallenge()
+  {
+    byte[] bytes = new byte[16];
+    random.nextBytes(bytes);
+    return Base64.getEncoder().encodeToString(bytes);
+  }
+
+  /**
+   * Computes the proof a node gives of holding the cluster key.
+   *
+   * @param key the cluster key.
+   * @param role the role of the node, LINK_ROLE or NODE_ROLE.
+   * @param challenge the challenge of the other side.
+   * @param nodeId the ID of the node.
+   * @return the proof.
+   */
+  static String prove(byte[] key, String role, String challenge,
+    String nodeId)
+  {
+    try
+    {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(key, "HmacSHA256"));
+      byte[] proof = mac.doFinal((role + " " + challenge + " " + nodeId)
+        .getBytes(StandardCharsets.UTF_8));
+      return Base64.getEncoder().encodeToString(proof);
+    }
+    catch (GeneralSecurityException e)
+    {
+      // Every Java platform supports HmacSHA256
+      throw new IllegalStateException(e);
+    }
+  }
+}
+//End of PeerLink class
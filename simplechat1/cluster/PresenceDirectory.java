@@ -0,0 +1,275 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package cluster;
+
+import java.util.*;
+
+/**
+ * A <code> PresenceDirectory </code> maps the login ID of every user of
+ * a cluster to the node the user is logged in on. Each node is the
+ * only one to change the entries of its own users; the other nodes
+ * hold a replica of them, kept up to date by the node's
+ * <code>PresenceUpdate</code>s, so that finding a user never needs a
+ * request to another node.<p>
+ *
+ * The replica of a node's users is versioned. Deltas are applied in
+ * order; a delta that skips a version means that one was lost on a
+ * broken link, and the replica waits for a snapshot to catch up.<p>
+ *
+ * The directory is eventually consistent: two users logging in with
+ * the same ID on two nodes at the same moment, or while the nodes are
+ * not linked, may both succeed. Every node then resolves the conflict
+ * the same way, whatever the order in which the updates arrive: the
+ * node with the lowest ID keeps the user, and is the one where the ID
+ * is found. A node that learns that one of its own users is also on a
+ * node with a lower ID reports it from <code>apply</code>, so that
+ * the user is logged out there.<p>
+ *
+ * Project Name: OCSF (Object Client-Server Framework)<p>
+ */
+class PresenceDirectory
+{
+  //Instance variables **********************************************
+
+  /**
+   * The ID of this node.
+   */
+  private final String nodeId;
+
+  /**
+   * Distinguishes this run of the node from the previous ones.
+   */
+  private final long incarnation;
+
+  /**
+   * The users logged in on this node. Guarded by this directory.
+   */
+  private final Set<String> local = new HashSet<>();
+
+  /**
+   * The version of the users logged in on this node. Guarded by this
+   * directory.
+   */
+  private long version = 0;
+
+  /**
+   * The replica of the users of each other node, by node ID. Guarded
+   * by this directory.
+   */
+  private final HashMap<String,Replica> replicas = new HashMap<>();
+
+  /**
+   * The node each user is logged in on, by login ID, local users
+   * included. Guarded by this directory.
+   */
+  private final HashMap<String,String> locations = new HashMap<>();
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs an empty directory.
+   *
+   * @param nodeId the ID of this node.
+   * @param incarnation the run of this node.
+   */
+  PresenceDirectory(String nodeId, long incarnation)
+  {
+    this.nodeId = nodeId;
+    this.incarnation = incarnation;
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * Records that a user logged in on this node.
+   *
+   * @param loginId the user's login ID.
+   * @return the delta to send to the other nodes, or null if the user
+   *  was already recorded.
+   */
+  synchronized PresenceUpdate loggedIn(String loginId)
+  {
+    if (!local.add(loginId))
+      return null;
+    place(loginId);
+    return PresenceUpdate.delta(nodeId, incarnation, ++version, loginId, true);
+  }
+
+  /**
+   * Records that a user logged out of this node.
+   *
+   * @param loginId the user's login ID.
+   * @return the delta to send to the other nodes, or null if the user
+   *  was not recorded.
+   */
+  synchronized PresenceUpdate loggedOut(String loginId)
+  {
+    if (!local.remove(loginId))
+      return null;
+    place(loginId);
+    return PresenceUpdate.delta(nodeId, incarnation, ++version, loginId, false);
+  }
+
+  /**
+   * @return a snapshot of the users logged in on this node.
+   */
+  synchronized PresenceUpdate snapshot()
+  {
+    return PresenceUpdate.snapshot(nodeId, incarnation, version, local);
+  }
+
+  /**
+   * Applies an update from another node to its replica.
+   *
+   * @param update the update.
+   * @param lost receives the login IDs of the users of this node that
+   *  the update shows to be logged in on a node with a lower ID, and
+   *  which must be logged out here.
+   * @return false if a delta was missed, and a snapshot is needed.
+   */
+  synchronized boolean apply(PresenceUpdate update, Collection<String> lost)
+  {
+    Replica replica = replicas.get(update.getOrigin());
+    if (replica != null && update.getIncarnation() < replica.incarnation)
+      return true;  // From a previous run of the node
+    boolean sameRun = replica != null
+      && replica.incarnation == update.getIncarnation();
+
+    if (update.isSnapshot())
+    {
+      if (sameRun && update.getVersion() < replica.version)
+        return true;
+      Replica previous = replica;
+      replica = new Replica(update.getIncarnation(), update.getVersion());
+      replicas.put(update.getOrigin(), replica);
+      for (String loginId : update.getLoginIds())
+        replica.loginIds.add(loginId);
+      if (previous != null)
+      {
+        for (String loginId : previous.loginIds)
+          place(loginId);
+      }
+      for (String loginId : replica.loginIds)
+        placeRemote(loginId, update.getOrigin(), lost);
+      return true;
+    }
+
+    if (sameRun && update.getVersion() <= replica.version)
+      return true;
+    if (!sameRun || update.getVersion() != replica.version + 1)
+      return false;
+
+    replica.version = update.getVersion();
+    for (String loginId : update.getLoginIds())
+    {
+      if (update.isOnline())
+      {
+        replica.loginIds.add(loginId);
+        placeRemote(loginId, update.getOrigin(), lost);
+      }
+      else
+      {
+        replica.loginIds.remove(loginId);
+        place(loginId);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Drops the replicas of the nodes no longer in the cluster. They
+   * send a snapshot when they come back.
+   *
+   * @param members the IDs of the nodes in the cluster.
+   */
+  synchronized void retainNodes(Set<String> members)
+  {
+    Iterator<Map.Entry<String,Replica>> i = replicas.entrySet().iterator();
+    while (i.hasNext())
+    {
+      Map.Entry<String,Replica> entry = i.next();
+      if (!members.contains(entry.getKey()))
+      {
+        i.remove();
+        for (String loginId : entry.getValue().loginIds)
+          place(loginId);
+      }
+    }
+  }
+
+  /**
+   * Finds the node a user is logged in on.
+   *
+   * @param loginId the user's login ID.
+   * @return the node's ID, or null if the user is not logged in.
+   */
+  synchronized String locate(String loginId)
+  {
+    return locations.get(loginId);
+  }
+
+  /**
+   * @return the number of users logged in on the cluster.
+   */
+  synchronized int size()
+  {
+    return locations.size();
+  }
+
+  /**
+   * Records that a user is logged in on another node, and reports the
+   * user as lost if this node has it too but the other node's ID is
+   * lower.
+   *
+   * @param loginId the user's login ID.
+   * @param node the other node.
+   * @param lost receives the user's login ID if it is lost.
+   */
+  private void placeRemote(String loginId, String node, Collection<String> lost)
+  {
+    if (local.contains(loginId) && node.compareTo(nodeId) < 0)
+      lost.add(loginId);
+    place(loginId);
+  }
+
+  /**
+   * Finds again where a user is found: on the node with the lowest ID
+   * of those it is logged in on, if any.
+   *
+   * @param loginId the user's login ID.
+   */
+  private void place(String loginId)
+  {
+    String owner = local.contains(loginId) ? nodeId : null;
+    for (Map.Entry<String,Replica> replica : replicas.entrySet())
+    {
+      if (replica.getValue().loginIds.contains(loginId)
+        && (owner == null || replica.getKey().compareTo(owner) < 0))
+        owner = replica.getKey();
+    }
+    if (owner == null)
+      locations.remove(loginId);
+    else
+      locations.put(loginId, owner);
+  }
+
+  //Inner classes ***************************************************
+
+  /**
+   * The replica of the users of one node.
+   */
+  private static final class Replica
+  {
+    final long incarnation;
+    long version;
+    final Set<String> loginIds = new HashSet<>();
+
+    Replica(long incarnation, long version)
+    {
+      this.incarnation = incarnation;
+      this.version = version;
+    }
+  }
+}
+//End of PresenceDirectory class
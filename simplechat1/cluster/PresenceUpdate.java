@@ -0,0 +1,156 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package cluster;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+/**
+ * A <code> PresenceUpdate </code> tells the other nodes of a cluster
+ * which users are logged in on a node. A node sends a delta to every
+ * node linked to it each time one of its users logs in or out, and a
+ * snapshot of all its users to the nodes that join the cluster or
+ * ask for one. The origin numbers its updates in sequence, so that
+ * the other nodes can tell when they have missed a delta.
+ *
+ * Project Name: OCSF (Object Client-Server Framework)<p>
+ */
+public final class PresenceUpdate implements Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The ID of the node the users are logged in on.
+   */
+  private final String origin;
+
+  /**
+   * Distinguishes the successive runs of the origin node, whose
+   * version numbers restart with each run.
+   */
+  private final long incarnation;
+
+  /**
+   * The version of the origin's users after this update.
+   */
+  private final long version;
+
+  /**
+   * True for a snapshot, which replaces all the users of the origin.
+   */
+  private final boolean snapshot;
+
+  /**
+   * True if the users logged in, false if they logged out. Always
+   * true for a snapshot.
+   */
+  private final boolean online;
+
+  /**
+   * The login IDs of the users.
+   */
+  private final String[] loginIds;
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs an update.
+   */
+  private PresenceUpdate(String origin, long incarnation, long version,
+    boolean snapshot, boolean online, String[] loginIds)
+  {
+    this.origin = origin;
+    this.incarnation = incarnation;
+    this.version = version;
+    this.snapshot = snapshot;
+    this.online = online;
+    this.loginIds = loginIds;
+  }
+
+  //Class methods ***************************************************
+
+  /**
+   * Constructs a delta, telling that one user logged in or out.
+   *
+   * @param origin the ID of the node.
+   * @param incarnation the run of the node.
+   * @param version the version of the node's users after the change.
+   * @param loginId the login ID of the user.
+   * @param online true if the user logged in.
+   * @return the delta.
+   */
+  public static PresenceUpdate delta(String origin, long incarnation,
+    long version, String loginId, boolean online)
+  {
+    return new PresenceUpdate(origin, incarnation, version, false, online,
+      new String[] {loginId});
+  }
+
+  /**
+   * Constructs a snapshot of all the users logged in on a node.
+   *
+   * @param origin the ID of the node.
+   * @param incarnation the run of the node.
+   * @param version the version of the node's users.
+   * @param loginIds the login IDs of the users.
+   * @return the snapshot.
+   */
+  public static PresenceUpdate snapshot(String origin, long incarnation,
+    long version, Collection<String> loginIds)
+  {
+    return new PresenceUpdate(origin, incarnation, version, true, true,
+      loginIds.toArray(new String[0]));
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * @return the ID of the node the users are logged in on.
+   */
+  public String getOrigin()
+  {
+    return origin;
+  }
+
+  /**
+   * @return the run of the origin node.
+   */
+  public long getIncarnation()
+  {
+    return incarnation;
+  }
+
+  /**
+   * @return the version of the origin's users after this update.
+   */
+  public long getVersion()
+  {
+    return version;
+  }
+
+  /**
+   * @return true for a snapshot.
+   */
+  public boolean isSnapshot()
+  {
+    return snapshot;
+  }
+
+  /**
+   * @return true if the users logged in, false if they logged out.
+   */
+  public boolean isOnline()
+  {
+    return online;
+  }
+
+  /**
+   * @return the login IDs of the users.
+   */
+  public String[] getLoginIds()
+  {
+    return loginIds.clone();
+  }
+}
+//End of PresenceUpdate class
@@ -0,0 +1,155 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package cluster;
+
+import java.io.Serializable;
+
+/**
+ * A <code> RelayMessage </code> carries a message of a chat room from
+ * the node where it was received to the other nodes of a cluster: first
+ * to the owner of the room, which then fans it out to the nodes with
+ * members in the room. The origin node numbers its relays in sequence,
+ * so that each node delivers every relay once, however many paths it
+ * arrives by.
+ *
+ * Project Name: OCSF (Object Client-Server Framework)<p>
+ */
+public final class RelayMessage implements Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The ID of the node where the message was received.
+   */
+  private final String origin;
+
+  /**
+   * Distinguishes the successive runs of the origin node, whose
+   * sequence numbers restart with each run.
+   */
+  private final long incarnation;
+
+  /**
+   * The number of this relay among those of its origin.
+   */
+  private final long sequence;
+
+  /**
+   * The chat room the message was sent to.
+   */
+  private final String room;
+
+  /**
+   * True once the owner of the room has fanned the relay out, so
+   * that it is only to be delivered.
+   */
+  private final boolean fannedOut;
+
+  /**
+   * The message to broadcast.
+   */
+  private final Object message;
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs a relay.
+   *
+   * @param origin the ID of the node where the message was received.
+   * @param incarnation the run of the origin node.
+   * @param sequence the number of the relay.
+   * @param room the chat room the message was sent to.
+   * @param message the message to broadcast.
+   */
+  public RelayMessage(String origin, long incarnation, long sequence,
+    String room, Object message)
+  {
+    this(origin, incarnation, sequence, room, message, false);
+  }
+
+  /**
+   * Constructs a relay, fanned out or not.
+   */
+  private RelayMessage(String origin, long incarnation, long sequence,
+    String room, Object message, boolean fannedOut)
+  {
+    this.origin = origin;
+    this.incarnation = incarnation;
+    this.sequence = sequence;
+    this.room = room;
+    this.message = message;
+    this.fannedOut = fannedOut;
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * @return the ID of the node where the message was received.
+   */
+  public String getOrigin()
+  {
+    return origin;
+  }
+
+  /**
+   * @return the run of the origin node.
+   */
+  public long getIncarnation()
+  {
+    return incarnation;
+  }
+
+  /**
+   * @return the number of the relay among those of its origin.
+   */
+  public long getSequence()
+  {
+    return sequence;
+  }
+
+  /**
+   * @return the chat room the message was sent to.
+   */
+  public String getRoom()
+  {
+    return room;
+  }
+
+  /**
+   * @return true if the owner of the room has fanned the relay out.
+   */
+  public boolean isFannedOut()
+  {
+    return fannedOut;
+  }
+
+  /**
+   * Returns the copy of this relay that the owner of the room sends
+   * to the nodes with members in the room.
+   *
+   * @return the fanned out relay.
+   */
+  public RelayMessage fanOut()
+  {
+    return fannedOut ? this
+      : new RelayMessage(origin, incarnation, sequence, room, message, true);
+  }
+
+  /**
+   * @return the message to broadcast.
+   */
+  public Object getMessage()
+  {
+    return message;
+  }
+
+  /**
+   * @return a description of the relay.
+   */
+  public String toString()
+  {
+    return origin + "#" + sequence;
+  }
+}
+//End of RelayMessage class
@@ -0,0 +1,76 @@
+// This file is part of OCSF (Object Client-Server Framework) and is
+// issued under the open-source license found at www.lloseng.com
+
+package cluster;
+
+import java.io.Serializable;
+
+/**
+ * A <code> RoomSubscription </code> tells the owner of a room that a
+ * node has gained its first local member of the room, or lost its
+ * last one, so that the owner sends it the room's messages, or stops.
+ *
+ * Project Name: OCSF (Object Client-Server Framework)<p>
+ */
+public final class RoomSubscription implements Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The room.
+   */
+  private final String room;
+
+  /**
+   * The ID of the subscribing node.
+   */
+  private final String node;
+
+  /**
+   * True to subscribe, false to unsubscribe.
+   */
+  private final boolean subscribe;
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs a subscription or unsubscription.
+   *
+   * @param room the room.
+   * @param node the ID of the subscribing node.
+   * @param subscribe true to subscribe, false to unsubscribe.
+   */
+  public RoomSubscription(String room, String node, boolean subscribe)
+  {
+    this.room = room;
+    this.node = node;
+    this.subscribe = subscribe;
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * @return the room.
+   */
+  public String getRoom()
+  {
+    return room;
+  }
+
+  /**
+   * @return the ID of the subscribing node.
+   */
+  public String getNode()
+  {
+    return node;
+  }
+
+  /**
+   * @return true to subscribe, false to unsubscribe.
+   */
+  public boolean isSubscribe()
+  {
+    return subscribe;
+  }
+}
+//End of RoomSubscription class